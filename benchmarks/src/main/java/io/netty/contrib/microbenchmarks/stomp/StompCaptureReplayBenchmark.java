@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.microbenchmarks.stomp;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.HeadersStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.capture.StompCaptureHandler;
+import io.netty.contrib.handler.codec.stomp.capture.StompCaptureReplayer;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Replays a capture recorded by {@link StompCaptureHandler} through {@link StompFrameDecoder} and
+ * {@link StompFrameAggregator} at maximum speed, so the codec can be measured against real frame and header
+ * distributions. Pass the capture with {@code -p captureFile=...}; without one, a capture of the
+ * {@link ExampleHeadersStompFrame} examples is used.
+ * <p>
+ * Each operation replays the whole capture, so the scores and the {@code gc.alloc.rate.norm} of the
+ * {@link GCProfiler} have to be divided by the number of frames, which is printed at setup.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 2)
+@Threads(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class StompCaptureReplayBenchmark extends AbstractMicrobenchmark {
+
+    private static final int MAX_CONTENT_LENGTH = 16 * 1024 * 1024;
+
+    private EmbeddedChannel channel;
+    private StompCaptureReplayer replayer;
+
+    @Param("")
+    public String captureFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        channel = new EmbeddedChannel(new StompFrameDecoder(), new StompFrameAggregator<>(MAX_CONTENT_LENGTH));
+        if (captureFile.isEmpty()) {
+            Path exampleCapture = Files.createTempFile("stomp-capture", ".bin");
+            try {
+                captureExamples(exampleCapture);
+                replayer = StompCaptureReplayer.load(exampleCapture, channel.bufferAllocator());
+            } finally {
+                Files.delete(exampleCapture);
+            }
+        } else {
+            replayer = StompCaptureReplayer.load(Paths.get(captureFile), channel.bufferAllocator());
+        }
+
+        long frames = replayer.replay(channel, StompCaptureReplayer.Pacing.MAX_SPEED);
+        System.out.println("Replaying " + frames + " frames in " + replayer.reads() + " reads of " +
+                replayer.bytes() + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public long replay() {
+        return replayer.replay(channel, StompCaptureReplayer.Pacing.MAX_SPEED);
+    }
+
+    private static void captureExamples(Path file) {
+        EmbeddedChannel captureChannel = new EmbeddedChannel(new StompCaptureHandler(file));
+        StompFrameEncoder encoder = new StompFrameEncoder();
+        // The examples have no content-length header, so the body must not contain NUL octets.
+        byte[] content = new byte[256];
+        Arrays.fill(content, (byte) 'a');
+        for (HeadersStompFrame headersFrame : ExampleHeadersStompFrame.EXAMPLES.values()) {
+            try (FullStompFrame frame = new DefaultFullStompFrame(headersFrame.command(),
+                    captureChannel.bufferAllocator().copyOf(content), headersFrame.headers())) {
+                captureChannel.writeInbound(encoder.encode(frame, captureChannel.bufferAllocator()));
+            }
+        }
+        captureChannel.finishAndReleaseAll();
+    }
+
+    @Override
+    protected ChainedOptionsBuilder newOptionsBuilder() throws Exception {
+        return super.newOptionsBuilder().addProfiler(GCProfiler.class);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.microbenchmarks.stomp;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.DefaultStompHeaders;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.HeadersStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.microbench.util.AbstractMicrobenchmark;
+import io.netty5.util.Resource;
+import io.netty5.util.concurrent.Future;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Runs {@link StompFrameDecoder} and {@link StompFrameAggregator} up to a handler, and a handler down to
+ * {@link StompFrameEncoder}, through {@link EmbeddedChannel} pipelines.
+ * <p>
+ * Each operation reads or writes {@link #framesPerRead} frames, so the scores and the {@code gc.alloc.rate.norm} of
+ * the {@link GCProfiler} have to be divided by it to get per frame figures.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 2)
+@Threads(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class StompCodecPipelineBenchmark extends AbstractMicrobenchmark {
+
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private EmbeddedChannel inboundChannel;
+    private EmbeddedChannel outboundChannel;
+    private Supplier<Buffer> readSupplier;
+    private Supplier<Buffer> contentSupplier;
+    private StompCommand command;
+    private StompHeaders headers;
+    private int frameCount;
+
+    @Param({"256", "8132"})
+    public int maxChunkSize;
+
+    @Param({"100", "1000", "10000"})
+    public int contentLength;
+
+    @Param({"1", "16"})
+    public int framesPerRead;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[] content = new byte[contentLength];
+        new Random(contentLength).nextBytes(content);
+
+        HeadersStompFrame headersFrame = ExampleHeadersStompFrame.EXAMPLES.get(
+                ExampleHeadersStompFrame.HeadersType.SEVEN);
+        command = headersFrame.command();
+        headers = new DefaultStompHeaders().add(headersFrame.headers());
+        headers.setInt(StompHeaders.CONTENT_LENGTH, contentLength);
+
+        inboundChannel = new EmbeddedChannel(
+                new StompFrameDecoder(MAX_LINE_LENGTH, maxChunkSize),
+                new StompFrameAggregator<>(contentLength),
+                new ChannelHandler() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        if (msg instanceof FullStompFrame) {
+                            frameCount++;
+                        }
+                        Resource.dispose(msg);
+                    }
+                });
+        outboundChannel = new EmbeddedChannel(
+                new ChannelHandler() {
+                    @Override
+                    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+                        Resource.dispose(msg);
+                        return ctx.newSucceededFuture();
+                    }
+                },
+                new StompFrameEncoder());
+
+        contentSupplier = outboundChannel.bufferAllocator().constBufferSupplier(content);
+        readSupplier = inboundChannel.bufferAllocator().constBufferSupplier(encodeFrames(content));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        readSupplier = null;
+        contentSupplier = null;
+        inboundChannel.finishAndReleaseAll();
+        outboundChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int decodeAndAggregate() {
+        int frames = frameCount;
+        inboundChannel.pipeline().fireChannelRead(readSupplier.get());
+        inboundChannel.pipeline().fireChannelReadComplete();
+        inboundChannel.checkException();
+        if (frameCount - frames != framesPerRead) {
+            handleUnexpectedException(new IllegalStateException(
+                    "decoded " + (frameCount - frames) + " frames instead of " + framesPerRead));
+        }
+        return frameCount;
+    }
+
+    @Benchmark
+    public void encode() {
+        for (int i = 0; i < framesPerRead; i++) {
+            outboundChannel.write(new DefaultFullStompFrame(command, contentSupplier.get(), headers))
+                    .addListener(future -> handleUnexpectedException(future.cause()));
+        }
+        outboundChannel.flush();
+    }
+
+    private byte[] encodeFrames(byte[] content) {
+        StompFrameEncoder encoder = new StompFrameEncoder();
+        try (FullStompFrame frame = new DefaultFullStompFrame(command, inboundChannel.bufferAllocator().copyOf(content),
+                headers);
+             Buffer encoded = encoder.encode(frame, inboundChannel.bufferAllocator())) {
+            int frameLength = encoded.readableBytes();
+            byte[] frames = new byte[frameLength * framesPerRead];
+            for (int i = 0; i < framesPerRead; i++) {
+                encoded.copyInto(encoded.readerOffset(), frames, i * frameLength, frameLength);
+            }
+            return frames;
+        }
+    }
+
+    @Override
+    protected ChainedOptionsBuilder newOptionsBuilder() throws Exception {
+        return super.newOptionsBuilder().addProfiler(GCProfiler.class);
+    }
+}
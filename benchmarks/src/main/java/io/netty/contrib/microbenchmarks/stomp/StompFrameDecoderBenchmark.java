@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.microbenchmarks.stomp;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.DefaultStompHeaders;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.HeadersStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.microbench.channel.EmbeddedChannelWriteReleaseHandlerContext;
+import io.netty5.microbench.util.AbstractMicrobenchmark;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static io.netty5.buffer.DefaultBufferAllocators.offHeapAllocator;
+import static io.netty5.buffer.DefaultBufferAllocators.onHeapAllocator;
+
+/**
+ * Decodes one frame per operation, so the {@code gc.alloc.rate.norm} of the {@link GCProfiler} is the allocation per
+ * decoded frame. The decoded frames are released by the context.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 2)
+@Threads(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class StompFrameDecoderBenchmark extends AbstractMicrobenchmark {
+
+    public enum InputSplit {
+        // The whole frame in a single buffer.
+        WHOLE,
+        // Chunks of 1 to 256 bytes, with a fixed seed so every trial sees the same offsets.
+        RANDOM,
+        // A chunk ends right before every end-of-line of the command and the headers and right before the NUL, so
+        // the decoder has to resume every line and the body.
+        WORST_CASE
+    }
+
+    private static final int MAX_RANDOM_CHUNK_SIZE = 256;
+
+    private StompFrameDecoder stompDecoder;
+    private Supplier<Buffer>[] chunkSuppliers;
+    private ChannelHandlerContext context;
+
+    @Param({"true", "false"})
+    public boolean offHeapAllocator;
+
+    @Param
+    public ExampleHeadersStompFrame.HeadersType headersType;
+
+    @Param({"0", "100", "1000", "3000"})
+    public int contentLength;
+
+    @Param({"true", "false"})
+    public boolean withContentLength;
+
+    @Param({"true", "false"})
+    public boolean validateHeaders;
+
+    @Param
+    public InputSplit inputSplit;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        byte[] frameBytes = encodeFrame();
+        int[] offsets = splitOffsets(frameBytes);
+        BufferAllocator allocator = offHeapAllocator ? offHeapAllocator() : onHeapAllocator();
+        chunkSuppliers = new Supplier[offsets.length - 1];
+        for (int i = 0; i < chunkSuppliers.length; i++) {
+            byte[] chunk = Arrays.copyOfRange(frameBytes, offsets[i], offsets[i + 1]);
+            chunkSuppliers[i] = allocator.constBufferSupplier(chunk);
+        }
+
+        stompDecoder = new StompFrameDecoder(validateHeaders);
+        context = new EmbeddedChannelWriteReleaseHandlerContext(allocator, stompDecoder) {
+            @Override
+            protected void handleException(Throwable t) {
+                handleUnexpectedException(t);
+            }
+        };
+        stompDecoder.handlerAdded(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        stompDecoder.handlerRemoved(context);
+        chunkSuppliers = null;
+        context.close();
+    }
+
+    @Benchmark
+    public void readStompFrame() throws Exception {
+        for (Supplier<Buffer> chunkSupplier : chunkSuppliers) {
+            stompDecoder.channelRead(context, chunkSupplier.get());
+        }
+        stompDecoder.channelReadComplete(context);
+    }
+
+    private byte[] encodeFrame() {
+        // Without content-length the body ends at the first NUL, so only use printable bytes.
+        byte[] content = new byte[contentLength];
+        Random random = new Random(contentLength);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(26));
+        }
+
+        HeadersStompFrame headersFrame = ExampleHeadersStompFrame.EXAMPLES.get(headersType);
+        StompHeaders headers = new DefaultStompHeaders().add(headersFrame.headers());
+        if (withContentLength) {
+            headers.setInt(StompHeaders.CONTENT_LENGTH, contentLength);
+        } else {
+            headers.remove(StompHeaders.CONTENT_LENGTH);
+        }
+
+        try (FullStompFrame frame = new DefaultFullStompFrame(headersFrame.command(),
+                onHeapAllocator().copyOf(content), headers);
+             Buffer encoded = new StompFrameEncoder().encode(frame, onHeapAllocator())) {
+            byte[] frameBytes = new byte[encoded.readableBytes()];
+            encoded.copyInto(encoded.readerOffset(), frameBytes, 0, frameBytes.length);
+            return frameBytes;
+        }
+    }
+
+    private int[] splitOffsets(byte[] frameBytes) {
+        List<Integer> offsets = new ArrayList<>();
+        offsets.add(0);
+        switch (inputSplit) {
+            case WHOLE:
+                break;
+            case RANDOM:
+                Random random = new Random(frameBytes.length);
+                int offset = 1 + random.nextInt(MAX_RANDOM_CHUNK_SIZE);
+                while (offset < frameBytes.length) {
+                    offsets.add(offset);
+                    offset += 1 + random.nextInt(MAX_RANDOM_CHUNK_SIZE);
+                }
+                break;
+            case WORST_CASE:
+                int bodyOffset = frameBytes.length - contentLength - 1;
+                for (int i = 1; i < bodyOffset; i++) {
+                    if (frameBytes[i] == '\n') {
+                        offsets.add(i);
+                    }
+                }
+                offsets.add(frameBytes.length - 1);
+                break;
+            default:
+                throw new IllegalStateException("Unknown input split: " + inputSplit);
+        }
+        offsets.add(frameBytes.length);
+        return offsets.stream().distinct().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    protected ChainedOptionsBuilder newOptionsBuilder() throws Exception {
+        return super.newOptionsBuilder().addProfiler(GCProfiler.class);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the size of the content chunks of a {@link StompFrameDecoder} from the body sizes of the frames it
+ * decoded, the way the adaptive receive buffer allocation of a channel estimates the size of its reads: the size
+ * grows quickly as soon as a body did not fit in one chunk, and shrinks slowly once two bodies in a row would have
+ * fit in a smaller one.
+ */
+final class StompChunkSizeEstimator {
+
+    static final int MIN_CHUNK_SIZE = 64;
+
+    private static final int INDEX_INCREMENT = 2;
+    private static final int INDEX_DECREMENT = 1;
+
+    private final int[] sizes;
+    private int index;
+    private boolean decreaseNow;
+
+    /**
+     * Creates an estimator of chunk sizes doubling from {@code minChunkSize} up to {@code maxChunkSize}, starting
+     * with the greatest of them not above {@code initialChunkSize}.
+     */
+    StompChunkSizeEstimator(int minChunkSize, int initialChunkSize, int maxChunkSize) {
+        assert minChunkSize > 0 && minChunkSize <= initialChunkSize && initialChunkSize <= maxChunkSize;
+        int[] sizes = new int[Integer.SIZE];
+        int count = 0;
+        for (long size = minChunkSize; size < maxChunkSize; size <<= 1) {
+            if (size <= initialChunkSize) {
+                index = count;
+            }
+            sizes[count++] = (int) size;
+        }
+        if (maxChunkSize == initialChunkSize) {
+            index = count;
+        }
+        sizes[count++] = maxChunkSize;
+        this.sizes = Arrays.copyOf(sizes, count);
+    }
+
+    /**
+     * Returns the size to split the content of the next frames at.
+     */
+    int chunkSize() {
+        return sizes[index];
+    }
+
+    /**
+     * Adapts the chunk size to the body size of a frame just decoded.
+     */
+    void record(long bodySize) {
+        if (bodySize <= sizes[Math.max(0, index - INDEX_DECREMENT)]) {
+            if (decreaseNow) {
+                index = Math.max(0, index - INDEX_DECREMENT);
+                decreaseNow = false;
+            } else {
+                decreaseNow = true;
+            }
+        } else if (bodySize > sizes[index]) {
+            index = Math.min(sizes.length - 1, index + INDEX_INCREMENT);
+            decreaseNow = false;
+        }
+    }
+}
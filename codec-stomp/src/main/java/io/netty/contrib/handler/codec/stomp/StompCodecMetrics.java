@@ -0,0 +1,216 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.util.concurrent.FastThreadLocal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the frames and bytes going through the {@link StompFrameDecoder}s, {@link StompFrameEncoder}s and
+ * {@link StompFrameAggregator}s it is set on, usually shared by all the channels of a server.
+ * <p>
+ * The counters are striped per thread: each event loop only ever writes to its own stripe with ordered stores, so
+ * recording never contends nor waits. A {@link #snapshot()} sums the stripes and may miss the latest updates of
+ * threads which are still recording. Decode failures are rare and simply counted per cause in a shared map.
+ */
+public final class StompCodecMetrics {
+
+    private static final StompCommand[] COMMANDS = StompCommand.values();
+    private static final int DECODED_FRAMES = 0;
+    private static final int DECODED_BYTES = 1;
+    private static final int ENCODED_FRAMES = 2;
+    private static final int ENCODED_BYTES = 3;
+    private static final int COUNTERS_PER_COMMAND = 4;
+    private static final int CHUNKED_FRAMES = COMMANDS.length * COUNTERS_PER_COMMAND;
+    private static final int SINGLE_BUFFER_FRAMES = CHUNKED_FRAMES + 1;
+    private static final int DECODED_HEADERS = CHUNKED_FRAMES + 2;
+    private static final int AGGREGATED_FRAMES = CHUNKED_FRAMES + 3;
+    private static final int AGGREGATED_BYTES = CHUNKED_FRAMES + 4;
+    private static final int AGGREGATED_SIZES = CHUNKED_FRAMES + 5;
+    private static final int SIZE_BUCKETS = Integer.SIZE;
+    private static final int COUNTERS = AGGREGATED_SIZES + SIZE_BUCKETS;
+
+    private final List<AtomicLongArray> stripes = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, LongAdder> decodeFailures = new ConcurrentHashMap<>();
+    private final FastThreadLocal<AtomicLongArray> stripe = new FastThreadLocal<>() {
+        @Override
+        protected AtomicLongArray initialValue() {
+            AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+            stripes.add(counters);
+            return counters;
+        }
+    };
+
+    /**
+     * Returns the sums of all counters so far.
+     */
+    public Snapshot snapshot() {
+        long[] totals = new long[COUNTERS];
+        for (AtomicLongArray counters : stripes) {
+            for (int i = 0; i < COUNTERS; i++) {
+                totals[i] += counters.get(i);
+            }
+        }
+
+        Map<String, Long> failures = new TreeMap<>();
+        decodeFailures.forEach((cause, count) -> failures.put(cause, count.sum()));
+        return new Snapshot(totals, Collections.unmodifiableMap(failures));
+    }
+
+    void frameDecoded(StompCommand command, long bytes, int headers, boolean chunked) {
+        AtomicLongArray counters = stripe.get();
+        int index = command.ordinal() * COUNTERS_PER_COMMAND;
+        increment(counters, index + DECODED_FRAMES, 1);
+        increment(counters, index + DECODED_BYTES, bytes);
+        increment(counters, DECODED_HEADERS, headers);
+        increment(counters, chunked ? CHUNKED_FRAMES : SINGLE_BUFFER_FRAMES, 1);
+    }
+
+    void frameEncoded(StompCommand command, long bytes) {
+        AtomicLongArray counters = stripe.get();
+        int index = command.ordinal() * COUNTERS_PER_COMMAND;
+        increment(counters, index + ENCODED_FRAMES, 1);
+        increment(counters, index + ENCODED_BYTES, bytes);
+    }
+
+    void contentEncoded(StompCommand command, long bytes) {
+        increment(stripe.get(), command.ordinal() * COUNTERS_PER_COMMAND + ENCODED_BYTES, bytes);
+    }
+
+    void frameAggregated(int contentLength) {
+        AtomicLongArray counters = stripe.get();
+        increment(counters, AGGREGATED_FRAMES, 1);
+        increment(counters, AGGREGATED_BYTES, contentLength);
+        increment(counters, AGGREGATED_SIZES + sizeBucket(contentLength), 1);
+    }
+
+    void decodeFailed(Throwable cause) {
+        decodeFailures.computeIfAbsent(cause.getClass().getName(), name -> new LongAdder()).increment();
+    }
+
+    private static void increment(AtomicLongArray counters, int index, long delta) {
+        // Only the owning thread writes to its stripe, so an ordered store is enough.
+        counters.lazySet(index, counters.get(index) + delta);
+    }
+
+    private static int sizeBucket(int size) {
+        return Math.min(SIZE_BUCKETS - 1, Integer.SIZE - Integer.numberOfLeadingZeros(size));
+    }
+
+    /**
+     * The sums of the counters of a {@link StompCodecMetrics} at some point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] totals;
+        private final Map<String, Long> decodeFailures;
+
+        Snapshot(long[] totals, Map<String, Long> decodeFailures) {
+            this.totals = totals;
+            this.decodeFailures = decodeFailures;
+        }
+
+        /**
+         * Returns the number of frames of the command decoded successfully.
+         */
+        public long decodedFrames(StompCommand command) {
+            return totals[command.ordinal() * COUNTERS_PER_COMMAND + DECODED_FRAMES];
+        }
+
+        /**
+         * Returns the number of bytes of the frames of the command decoded successfully, heart-beats excluded.
+         */
+        public long decodedBytes(StompCommand command) {
+            return totals[command.ordinal() * COUNTERS_PER_COMMAND + DECODED_BYTES];
+        }
+
+        /**
+         * Returns the number of frames of the command encoded, a {@link HeadersStompFrame} and its content counting
+         * as one frame.
+         */
+        public long encodedFrames(StompCommand command) {
+            return totals[command.ordinal() * COUNTERS_PER_COMMAND + ENCODED_FRAMES];
+        }
+
+        /**
+         * Returns the number of bytes of the frames of the command encoded.
+         */
+        public long encodedBytes(StompCommand command) {
+            return totals[command.ordinal() * COUNTERS_PER_COMMAND + ENCODED_BYTES];
+        }
+
+        /**
+         * Returns the number of decoded frames whose content was split into several {@link ContentStompFrame}s.
+         */
+        public long chunkedFrames() {
+            return totals[CHUNKED_FRAMES];
+        }
+
+        /**
+         * Returns the number of decoded frames whose content came in a single {@link LastContentStompFrame}.
+         */
+        public long singleBufferFrames() {
+            return totals[SINGLE_BUFFER_FRAMES];
+        }
+
+        /**
+         * Returns the number of headers of all the frames decoded successfully.
+         */
+        public long decodedHeaders() {
+            return totals[DECODED_HEADERS];
+        }
+
+        /**
+         * Returns the number of {@link FullStompFrame}s built by the aggregators.
+         */
+        public long aggregatedFrames() {
+            return totals[AGGREGATED_FRAMES];
+        }
+
+        /**
+         * Returns the number of content bytes of the {@link FullStompFrame}s built by the aggregators.
+         */
+        public long aggregatedBytes() {
+            return totals[AGGREGATED_BYTES];
+        }
+
+        /**
+         * Returns the number of aggregated frames per content size: the element {@code 0} counts empty contents and
+         * the element {@code i} the contents of {@code 2^(i-1)} up to {@code 2^i - 1} bytes.
+         */
+        public long[] aggregatedSizes() {
+            long[] sizes = new long[SIZE_BUCKETS];
+            System.arraycopy(totals, AGGREGATED_SIZES, sizes, 0, SIZE_BUCKETS);
+            return sizes;
+        }
+
+        /**
+         * Returns the number of decode failures per class name of their cause.
+         */
+        public Map<String, Long> decodeFailures() {
+            return decodeFailures;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
+import io.netty5.buffer.CompositeBuffer;
+import io.netty5.handler.codec.ByteToMessageDecoder;
+import io.netty5.handler.codec.ByteToMessageDecoder.Cumulator;
+
+/**
+ * A {@link Cumulator} which merges inbound buffers, as usual for command and header lines, but composes them while
+ * the decoder waits for a large body whose length is known, so that its bytes are never copied as they accumulate.
+ * A composite cumulation stays composite until fully read, so that merging never copies it either.
+ */
+final class StompCumulator implements Cumulator {
+
+    static final int DEFAULT_COMPOSITE_THRESHOLD = 64 * 1024;
+
+    private int compositeThreshold = DEFAULT_COMPOSITE_THRESHOLD;
+    private boolean compose;
+
+    int compositeThreshold() {
+        return compositeThreshold;
+    }
+
+    void compositeThreshold(int compositeThreshold) {
+        this.compositeThreshold = compositeThreshold;
+    }
+
+    /**
+     * Called by the decoder once it waits for a body, with the number of bytes of the frame still to be received,
+     * or {@code -1} if its length is unknown.
+     */
+    void expect(long remainingBytes) {
+        compose = remainingBytes > compositeThreshold;
+    }
+
+    /**
+     * Called by the decoder once a frame is complete.
+     */
+    void reset() {
+        compose = false;
+    }
+
+    @Override
+    public Buffer cumulate(BufferAllocator alloc, Buffer cumulation, Buffer in) {
+        if (compose || CompositeBuffer.isComposite(cumulation)) {
+            return ByteToMessageDecoder.COMPOSITE_CUMULATOR.cumulate(alloc, cumulation, in);
+        }
+        return ByteToMessageDecoder.MERGE_CUMULATOR.cumulate(alloc, cumulation, in);
+    }
+
+    @Override
+    public Buffer discardSomeReadBytes(Buffer cumulation) {
+        if (CompositeBuffer.isComposite(cumulation)) {
+            return ByteToMessageDecoder.COMPOSITE_CUMULATOR.discardSomeReadBytes(cumulation);
+        }
+        return ByteToMessageDecoder.MERGE_CUMULATOR.discardSomeReadBytes(cumulation);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.util.internal.logging.InternalLogger;
+import io.netty5.util.internal.logging.InternalLoggerFactory;
+
+/**
+ * Starts the JDK Flight Recorder events of the STOMP codec handlers. Each method returns {@code null} unless the
+ * event is enabled in a running recording, so a disabled event costs the handlers a single branch. On runtimes
+ * without the {@code jdk.jfr} module no event is ever started: the event classes are only referred to by a nested
+ * holder, which is not loaded then, and the handlers only see {@link StompFrameRecording}.
+ */
+final class StompFlightRecorder {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(StompFlightRecorder.class);
+
+    private static final boolean AVAILABLE;
+
+    static {
+        boolean available;
+        try {
+            Class.forName("jdk.jfr.Event", false, StompFlightRecorder.class.getClassLoader());
+            available = true;
+        } catch (Throwable cause) {
+            available = false;
+            logger.debug("JDK Flight Recorder is not available, STOMP codec events are disabled", cause);
+        }
+        AVAILABLE = available;
+    }
+
+    private StompFlightRecorder() {
+    }
+
+    static StompFrameRecording beginDecoded() {
+        return AVAILABLE ? Events.beginDecoded() : null;
+    }
+
+    static StompFrameRecording beginAggregated() {
+        return AVAILABLE ? Events.beginAggregated() : null;
+    }
+
+    static StompFrameRecording beginEncoded() {
+        return AVAILABLE ? Events.beginEncoded() : null;
+    }
+
+    private static final class Events {
+
+        private Events() {
+        }
+
+        static StompFrameRecording beginDecoded() {
+            if (StompFrameDecodedEvent.TYPE.isEnabled()) {
+                StompFrameDecodedEvent event = new StompFrameDecodedEvent();
+                event.begin();
+                return event;
+            }
+            return null;
+        }
+
+        static StompFrameRecording beginAggregated() {
+            if (StompFrameAggregatedEvent.TYPE.isEnabled()) {
+                StompFrameAggregatedEvent event = new StompFrameAggregatedEvent();
+                event.begin();
+                return event;
+            }
+            return null;
+        }
+
+        static StompFrameRecording beginEncoded() {
+            if (StompFrameEncodedEvent.TYPE.isEnabled()) {
+                StompFrameEncodedEvent event = new StompFrameEncodedEvent();
+                event.begin();
+                return event;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandlerContext;
+
+/**
+ * Convenience class that provides no-op implementations for all methods of {@link StompFrameListener}.
+ */
+public class StompFrameAdapter implements StompFrameListener {
+
+    @Override
+    public void onConnect(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onConnected(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onSend(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) throws Exception {
+    }
+
+    @Override
+    public void onSubscribe(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onUnsubscribe(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onAck(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onNack(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onBegin(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onCommit(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onAbort(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onDisconnect(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onMessage(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) throws Exception {
+    }
+
+    @Override
+    public void onReceipt(ChannelHandlerContext ctx, StompHeaders headers) throws Exception {
+    }
+
+    @Override
+    public void onError(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) throws Exception {
+    }
+}
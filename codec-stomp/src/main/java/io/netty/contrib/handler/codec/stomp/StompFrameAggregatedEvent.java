@@ -0,0 +1,42 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by {@link StompFrameAggregator} for each aggregated frame, lasting from its headers frame to its last
+ * content frame.
+ */
+@Name("io.netty.contrib.stomp.FrameAggregated")
+@Label("STOMP Frame Aggregated")
+@Description("A full STOMP frame aggregated from a headers frame and its content frames")
+final class StompFrameAggregatedEvent extends StompFrameEvent {
+
+    static final EventType TYPE = EventType.getEventType(StompFrameAggregatedEvent.class);
+
+    @Label("Chunks")
+    @Description("The number of content frames aggregated")
+    int chunks;
+
+    @Override
+    void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+}
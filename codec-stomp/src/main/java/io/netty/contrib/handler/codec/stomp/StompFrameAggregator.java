@@ -28,10 +28,18 @@ import io.netty5.handler.codec.MessageAggregator;
  * <p>
  * It is useful when you don't want to take care of STOMP frames whose content is 'chunked'.
  * Insert this handler after {@link StompFrameDecoder} in the {@link ChannelPipeline}.
+ * <p>
+ * While a JDK Flight Recorder recording enables it, an {@code io.netty.contrib.stomp.FrameAggregated} event is
+ * emitted for each aggregated frame.
  */
 public class StompFrameAggregator<C extends ContentStompFrame<C>>
     extends MessageAggregator<StompFrame, HeadersStompFrame, ContentStompFrame<C>, FullStompFrame> {
 
+    private StompCodecMetrics metrics;
+    private StompFrameRecording aggregatedEvent;
+    private int aggregatedChunks;
+    private StompLatencyTracer latencyTracer;
+
     /**
      * Creates a new instance.
      *
@@ -43,6 +51,35 @@ public class StompFrameAggregator<C extends ContentStompFrame<C>>
         super(maxContentLength);
     }
 
+    /**
+     * Sets the metrics aggregated frames are counted in, {@code null} to disable metrics, which is the default.
+     */
+    public void setMetrics(StompCodecMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics aggregated frames are counted in, {@code null} if disabled.
+     */
+    public StompCodecMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the tracer the time frames take to be aggregated is sampled by, {@code null} to disable tracing, which is
+     * the default. It should be the one set on the {@link StompFrameDecoder} of the channel.
+     */
+    public void setLatencyTracer(StompLatencyTracer latencyTracer) {
+        this.latencyTracer = latencyTracer;
+    }
+
+    /**
+     * Returns the tracer the time frames take to be aggregated is sampled by, {@code null} if disabled.
+     */
+    public StompLatencyTracer latencyTracer() {
+        return latencyTracer;
+    }
+
     @Override
     protected HeadersStompFrame tryStartMessage(Object obj) {
         return obj instanceof HeadersStompFrame ? (HeadersStompFrame) obj : null;
@@ -97,6 +134,8 @@ public class StompFrameAggregator<C extends ContentStompFrame<C>>
     @Override
     protected FullStompFrame beginAggregation(BufferAllocator allocator, HeadersStompFrame headersFrame) {
         assert !(headersFrame instanceof FullStompFrame);
+        aggregatedEvent = StompFlightRecorder.beginAggregated();
+        aggregatedChunks = 0;
         FullStompFrame fullFrame = new DefaultFullStompFrame(headersFrame.command(), allocator.compose(), headersFrame.headers());
         if (headersFrame.decoderResult().isFailure()) {
             fullFrame.setDecoderResult(headersFrame.decoderResult());
@@ -109,5 +148,24 @@ public class StompFrameAggregator<C extends ContentStompFrame<C>>
     protected void aggregate(BufferAllocator bufferAllocator, FullStompFrame fullStompFrame, ContentStompFrame<C> contentFrame) {
         final CompositeBuffer payload = (CompositeBuffer) fullStompFrame.payload();
         payload.extendWith(contentFrame.payload().send());
+        if (aggregatedEvent != null) {
+            aggregatedChunks++;
+        }
+    }
+
+    @Override
+    protected void finishAggregation(BufferAllocator allocator, FullStompFrame aggregated) throws Exception {
+        super.finishAggregation(allocator, aggregated);
+        if (metrics != null) {
+            metrics.frameAggregated(aggregated.payload().readableBytes());
+        }
+        if (aggregatedEvent != null) {
+            aggregatedEvent.commit(aggregated.command(), aggregated.payload().readableBytes(),
+                    aggregated.headers().size(), aggregatedChunks);
+            aggregatedEvent = null;
+        }
+        if (latencyTracer != null) {
+            latencyTracer.frameAggregated(ctx().channel());
+        }
     }
 }
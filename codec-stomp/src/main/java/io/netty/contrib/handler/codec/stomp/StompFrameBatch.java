@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.util.Resource;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A group of {@link StompFrame}s decoded by a {@link StompFrameDecoder} in a single decode pass, delivered
+ * downstream as one message when {@link StompFrameDecoder#setBatchDecode(boolean) batch decoding} is enabled.
+ * <p>
+ * The same instance is reused by the decoder for every decode pass, so it must not be retained after
+ * {@code channelRead} returns. Handlers take ownership of the contained frames; calling {@link #close()} releases
+ * every frame that is still accessible, which is what {@link io.netty5.channel.SimpleChannelInboundHandler} does after
+ * {@code messageReceived}. Frames that must outlive the batch should be {@link Resource#send() sent} beforehand.
+ * <p>
+ * Batch-aware handlers are expected to write without flushing and to flush once in {@code channelReadComplete},
+ * which is fired after the last batch of a read cycle.
+ */
+public final class StompFrameBatch implements Iterable<StompFrame>, AutoCloseable {
+
+    private final List<StompFrame> frames = new ArrayList<>();
+
+    StompFrameBatch() {
+    }
+
+    /**
+     * Returns the number of frames in this batch.
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * Returns {@code true} if this batch contains no frames.
+     */
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /**
+     * Returns the frame at the specified position, in decoding order.
+     */
+    public StompFrame get(int index) {
+        return frames.get(index);
+    }
+
+    @Override
+    public Iterator<StompFrame> iterator() {
+        return frames.iterator();
+    }
+
+    void add(StompFrame frame) {
+        frames.add(frame);
+    }
+
+    void clear() {
+        frames.clear();
+    }
+
+    /**
+     * Releases every frame of this batch that is still accessible and empties the batch.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < frames.size(); i++) {
+            StompFrame frame = frames.get(i);
+            if (Resource.isAccessible(frame, false)) {
+                Resource.dispose(frame);
+            }
+        }
+
+        frames.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "StompFrameBatch(size=" + frames.size() + ')';
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by {@link StompFrameDecoder} for each decoded frame, lasting from its first byte to its {@code NUL} octet.
+ */
+@Name("io.netty.contrib.stomp.FrameDecoded")
+@Label("STOMP Frame Decoded")
+@Description("A STOMP frame decoded from the bytes read from a channel")
+final class StompFrameDecodedEvent extends StompFrameEvent {
+
+    static final EventType TYPE = EventType.getEventType(StompFrameDecodedEvent.class);
+
+    @Label("Chunks")
+    @Description("The number of content frames the body was decoded as, including the last one")
+    int chunks;
+
+    @Override
+    void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+}
@@ -44,7 +44,30 @@ import java.util.Objects;
  * If the content of a stomp message is greater than {@code maxChunkSize} the transfer encoding of the HTTP message is
  * 'chunked', this decoder generates multiple {@link ContentStompFrame} instances to avoid excessive memory
  * consumption. Note, that every message, even with no content decodes with {@link LastContentStompFrame} at the end
- * to simplify upstream message parsing.
+ * to simplify upstream message parsing. With {@link #setAdaptiveChunkSize(boolean)} the chunks are sized per
+ * connection instead, so that bulk transfers get few large chunks and interactive traffic small ones.
+ *
+ * <h3>Batch Decoding</h3>
+ * <p>
+ * By default every decoded frame is passed to the next handler on its own. When {@link #setBatchDecode(boolean)} is
+ * enabled, all frames decoded from a single inbound {@link Buffer} are collected into a {@link StompFrameBatch} which
+ * is passed to the next handler once, so that batch-aware handlers can amortize routing, locking and flushing across
+ * many small frames.
+ *
+ * <h3>Heart-beats</h3>
+ * <p>
+ * End-of-line characters received between frames are STOMP heart-beats. The decoder counts them in
+ * {@link #heartbeatCount()} and records the time of the last inbound read in {@link #lastInboundActivityNanos()}, so
+ * the liveness of the peer can be checked without an extra handler. If {@link #setFireHeartbeatEvents(boolean)} is
+ * enabled, {@link StompHeartbeatEvent#RECEIVED} is also fired each time heart-beats are received between frames.
+ *
+ * <h3>Metrics</h3>
+ * <p>
+ * Decoded frames and decode failures are counted in the {@link StompCodecMetrics} set with
+ * {@link #setMetrics(StompCodecMetrics)}, which may be shared with the encoders and aggregators of all channels.
+ * While a JDK Flight Recorder recording enables it, an {@code io.netty.contrib.stomp.FrameDecoded} event is
+ * emitted for each decoded frame as well, and the time frames take through the codec handlers of the channel is
+ * traced by the {@link StompLatencyTracer} set with {@link #setLatencyTracer(StompLatencyTracer)}.
  */
 public class StompFrameDecoder extends ByteToMessageDecoder {
 
@@ -68,6 +91,23 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
     private int alreadyReadChunkSize;
     private LastContentStompFrame<?> lastContentFrame;
     private long contentLength = -1;
+    private final StompFrameBatch batch = new StompFrameBatch();
+    private boolean batchDecode;
+    private boolean deliveringBatch;
+    private boolean fireHeartbeatEvents;
+    private long heartbeatCount;
+    private long lastInboundActivityNanos;
+    private StompCodecMetrics metrics;
+    private StompCommand frameCommand;
+    private int frameHeaders;
+    private int frameChunks;
+    private long frameBytes;
+    private int readableBeforeDecode;
+    private StompFrameRecording decodedEvent;
+    private StompLatencyTracer latencyTracer;
+    private StompLatencyTracer.Trace trace;
+    private boolean tracePending;
+    private StompChunkSizeEstimator chunkSizeEstimator;
 
     public StompFrameDecoder() {
         this(DEFAULT_MAX_LINE_LENGTH, DEFAULT_CHUNK_SIZE);
@@ -89,20 +129,189 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
         headerParser = new HeaderParser(new AppendableCharSequence(128), maxLineLength, validateHeaders);
     }
 
+    /**
+     * If set then all frames decoded from a single inbound {@link Buffer} are passed to the next handler as one
+     * {@link StompFrameBatch} instead of one by one. Default is {@code false} as this requires batch-aware handlers.
+     */
+    public void setBatchDecode(boolean batchDecode) {
+        this.batchDecode = batchDecode;
+    }
+
+    /**
+     * Returns {@code true} if decoded frames are passed to the next handler as a {@link StompFrameBatch}.
+     */
+    public boolean isBatchDecode() {
+        return batchDecode;
+    }
+
+    /**
+     * If set then the content of each frame is split into chunks sized from the bodies of the previous frames of the
+     * connection, between 64 bytes and the {@code maxChunkSize} of the constructor, instead of always at
+     * {@code maxChunkSize}. The rest of a body is not split if it is readable already and fits in
+     * {@code maxChunkSize}. Default is {@code false}.
+     */
+    public void setAdaptiveChunkSize(boolean adaptiveChunkSize) {
+        if (!adaptiveChunkSize) {
+            chunkSizeEstimator = null;
+        } else if (chunkSizeEstimator == null) {
+            chunkSizeEstimator = new StompChunkSizeEstimator(Math.min(StompChunkSizeEstimator.MIN_CHUNK_SIZE,
+                    maxChunkSize), Math.min(DEFAULT_CHUNK_SIZE, maxChunkSize), maxChunkSize);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the content of frames is split into chunks of an adaptive size.
+     */
+    public boolean isAdaptiveChunkSize() {
+        return chunkSizeEstimator != null;
+    }
+
+    /**
+     * Returns the size the content of the next frames is split at.
+     */
+    public int chunkSize() {
+        return chunkSizeEstimator != null ? chunkSizeEstimator.chunkSize() : maxChunkSize;
+    }
+
+    /**
+     * If set then {@link StompHeartbeatEvent#RECEIVED} is fired each time heart-beats are received between frames.
+     * Default is {@code false}.
+     */
+    public void setFireHeartbeatEvents(boolean fireHeartbeatEvents) {
+        this.fireHeartbeatEvents = fireHeartbeatEvents;
+    }
+
+    /**
+     * Returns {@code true} if {@link StompHeartbeatEvent#RECEIVED} is fired when heart-beats are received.
+     */
+    public boolean isFireHeartbeatEvents() {
+        return fireHeartbeatEvents;
+    }
+
+    /**
+     * Sets the metrics decoded frames and decode failures are counted in, {@code null} to disable metrics, which is
+     * the default.
+     */
+    public void setMetrics(StompCodecMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics decoded frames are counted in, {@code null} if disabled.
+     */
+    public StompCodecMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the tracer the latency of frames is sampled by, starting from their read, {@code null} to disable tracing,
+     * which is the default.
+     */
+    public void setLatencyTracer(StompLatencyTracer latencyTracer) {
+        this.latencyTracer = latencyTracer;
+    }
+
+    /**
+     * Returns the tracer the latency of frames is sampled by, {@code null} if disabled.
+     */
+    public StompLatencyTracer latencyTracer() {
+        return latencyTracer;
+    }
+
+    /**
+     * Returns the number of heart-beats, that is end-of-line characters between frames, received so far.
+     */
+    public long heartbeatCount() {
+        return heartbeatCount;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} of the last inbound read, or {@code 0} if nothing has been read yet.
+     */
+    public long lastInboundActivityNanos() {
+        return lastInboundActivityNanos;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof Buffer) {
+            lastInboundActivityNanos = System.nanoTime();
+        }
+
+        try {
+            super.channelRead(ctx, msg);
+        } finally {
+            fireBatch(ctx);
+        }
+    }
+
+    @Override
+    protected void decodeLast(ChannelHandlerContext ctx, Buffer in) throws Exception {
+        super.decodeLast(ctx, in);
+        fireBatch(ctx);
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        if (!deliveringBatch) {
+            fireBatch(ctx);
+        }
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, Buffer in) throws Exception {
+        if (metrics == null && decodedEvent == null) {
+            decodeFrame(ctx, in);
+            if (decodedEvent != null) {
+                // A decode event was started by this call, count the bytes of the frame read since its start.
+                frameBytes += readableBeforeDecode - in.readableBytes();
+            }
+            return;
+        }
+
+        // The bytes of a frame are summed over all the decode calls it takes, see recordFrame.
+        readableBeforeDecode = in.readableBytes();
+        try {
+            decodeFrame(ctx, in);
+        } finally {
+            frameBytes += readableBeforeDecode - in.readableBytes();
+        }
+    }
+
+    private void decodeFrame(ChannelHandlerContext ctx, Buffer in) throws Exception {
         switch (state) {
             case SKIP_CONTROL_CHARACTERS:
-                if (!skipControlCharacters(in)) {
+                int heartbeats = skipControlCharacters(in);
+                if (heartbeats > 0) {
+                    heartbeatCount += heartbeats;
+                    if (fireHeartbeatEvents) {
+                        // The frames decoded before the heart-beats are passed on first.
+                        fireBatch(ctx);
+                        ctx.fireChannelInboundEvent(StompHeartbeatEvent.RECEIVED);
+                    }
+                }
+                readableBeforeDecode = in.readableBytes();
+
+                if (in.readableBytes() == 0) {
                     return;
                 }
 
+                decodedEvent = StompFlightRecorder.beginDecoded();
+                if (metrics != null || decodedEvent != null) {
+                    frameBytes = 0;
+                }
+                if (latencyTracer != null) {
+                    long readNanos = lastInboundActivityNanos != 0 ? lastInboundActivityNanos : System.nanoTime();
+                    trace = latencyTracer.frameStarted(ctx.channel(), readNanos, tracePending);
+                    tracePending = trace != null;
+                }
+
                 state = State.READ_HEADERS;
             case READ_HEADERS:
                 StompCommand command = StompCommand.UNKNOWN;
                 try {
                     if (startHeadersFrame == null) {
-                        command = readCommand(in);
+                        command = readCommand(commandParser, in);
                         if (command == null) {
                             return;
                         }
@@ -118,8 +327,19 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                     state = nextState;
                     HeadersStompFrame headersFrame = startHeadersFrame;
                     startHeadersFrame = null;
-                    ctx.fireChannelRead(headersFrame);
+                    frameCommand = headersFrame.command();
+                    frameHeaders = headersFrame.headers().size();
+                    if (trace != null) {
+                        trace.decoded();
+                        trace = null;
+                    }
+                    fireFrame(ctx, headersFrame);
                 } catch (Exception e) {
+                    decodedEvent = null;
+                    trace = null;
+                    if (metrics != null) {
+                        metrics.decodeFailed(e);
+                    }
                     if (startHeadersFrame == null) {
                         startHeadersFrame = new DefaultHeadersStompFrame(command);
                     }
@@ -127,7 +347,7 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                     startHeadersFrame.setDecoderResult(DecoderResult.failure(e));
                     HeadersStompFrame headersFrame = startHeadersFrame;
                     startHeadersFrame = null;
-                    ctx.fireChannelRead(headersFrame);
+                    fireFrame(ctx, headersFrame);
                     state = State.BAD_FRAME;
                     return;
                 }
@@ -145,13 +365,15 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                         return;
                     }
 
-                    if (toRead > maxChunkSize) {
-                        toRead = maxChunkSize;
+                    int chunkSize = chunkSize();
+                    if (toRead > chunkSize) {
+                        toRead = chunkSize;
                     }
 
                     if (contentLength >= 0) {
                         int remainingLength = (int) (contentLength - alreadyReadChunkSize);
-                        if (toRead > remainingLength) {
+                        if (toRead > remainingLength || chunkSizeEstimator != null &&
+                                remainingLength <= Math.min(in.readableBytes(), maxChunkSize)) {
                             toRead = remainingLength;
                         }
 
@@ -160,7 +382,8 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                             lastContentFrame = new DefaultLastContentStompFrame(chunkBuffer);
                             state = State.FINALIZE_FRAME_READ;
                         } else {
-                            ctx.fireChannelRead(new DefaultContentStompFrame(chunkBuffer));
+                            frameChunks++;
+                            fireFrame(ctx, new DefaultContentStompFrame(chunkBuffer));
                             return;
                         }
                     } else {
@@ -175,7 +398,8 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                             Buffer chunkBuffer = in.readSplit(toRead);
                             alreadyReadChunkSize += toRead;
                             if (beforeNull < 0) {
-                                ctx.fireChannelRead(new DefaultContentStompFrame(chunkBuffer));
+                                frameChunks++;
+                                fireFrame(ctx, new DefaultContentStompFrame(chunkBuffer));
                                 return;
                             }
 
@@ -191,10 +415,20 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                     if (lastContentFrame == null) {
                         lastContentFrame = new EmptyLastContentStompFrame(ctx.bufferAllocator());
                     }
-                    ctx.fireChannelRead(lastContentFrame);
+                    if (metrics != null || decodedEvent != null) {
+                        recordFrame(in);
+                    }
+                    if (chunkSizeEstimator != null) {
+                        chunkSizeEstimator.record(alreadyReadChunkSize);
+                    }
+                    fireFrame(ctx, lastContentFrame);
                     resetDecoder();
             }
         } catch (Exception e) {
+            decodedEvent = null;
+            if (metrics != null) {
+                metrics.decodeFailed(e);
+            }
             if (lastContentFrame != null) {
                 lastContentFrame.close();
                 lastContentFrame = null;
@@ -202,12 +436,47 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
 
             DefaultLastContentStompFrame errorContent = new DefaultLastContentStompFrame(ctx.bufferAllocator().allocate(0));
             errorContent.setDecoderResult(DecoderResult.failure(e));
-            ctx.fireChannelRead(errorContent);
+            fireFrame(ctx, errorContent);
             state = State.BAD_FRAME;
         }
     }
 
-    private StompCommand readCommand(Buffer in) {
+    private void recordFrame(Buffer in) {
+        long bytes = frameBytes + readableBeforeDecode - in.readableBytes();
+        if (metrics != null) {
+            metrics.frameDecoded(frameCommand, bytes, frameHeaders, frameChunks > 0);
+        }
+        if (decodedEvent != null) {
+            decodedEvent.commit(frameCommand, bytes, frameHeaders, frameChunks + 1);
+            decodedEvent = null;
+        }
+        frameBytes = 0;
+        readableBeforeDecode = in.readableBytes();
+    }
+
+    private void fireFrame(ChannelHandlerContext ctx, StompFrame frame) {
+        if (batchDecode) {
+            batch.add(frame);
+        } else {
+            ctx.fireChannelRead(frame);
+        }
+    }
+
+    private void fireBatch(ChannelHandlerContext ctx) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        deliveringBatch = true;
+        try {
+            ctx.fireChannelRead(batch);
+        } finally {
+            deliveringBatch = false;
+            batch.clear();
+        }
+    }
+
+    static StompCommand readCommand(Utf8LineParser commandParser, Buffer in) {
         CharSequence commandSequence = commandParser.parse(in);
         if (commandSequence == null) {
             return null;
@@ -226,7 +495,7 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
     }
 
     private State readHeaders(Buffer buffer, HeadersStompFrame headersFrame) {
-        if (headerParser.parseHeaders(headersFrame, buffer)) {
+        if (headerParser.parseHeaders(headersFrame.command(), headersFrame.headers(), buffer)) {
             StompHeaders headers = headersFrame.headers();
             if (headers.contains(StompHeaders.CONTENT_LENGTH)) {
                 contentLength = getContentLength(headers);
@@ -239,7 +508,7 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
         return null;
     }
 
-    private static long getContentLength(StompHeaders headers) {
+    static long getContentLength(StompHeaders headers) {
         long contentLength = headers.getLong(StompHeaders.CONTENT_LENGTH, 0L);
         if (contentLength < 0) {
             throw new DecoderException("The `content-length` header must be non-negative, was " + contentLength);
@@ -248,7 +517,7 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
         return contentLength;
     }
 
-    private static boolean skipNullCharacter(Buffer buffer) {
+    static boolean skipNullCharacter(Buffer buffer) {
         if (buffer.readableBytes() < 1) {
             return false;
         }
@@ -261,16 +530,26 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
         return true;
     }
 
-    private static boolean skipControlCharacters(Buffer buffer) {
-        while (buffer.readableBytes() > 0) {
-            byte b = buffer.readByte();
-            if (b != StompConstants.CR && b != StompConstants.LF) {
-                buffer.readerOffset(buffer.readerOffset() - 1);
-                return true;
+    /**
+     * Skips the end-of-line characters at the reader offset of the buffer and returns the number of {@code LF}s
+     * skipped. The buffer has readable bytes left only if the start of the next frame has been found.
+     */
+    static int skipControlCharacters(Buffer buffer) {
+        int start = buffer.readerOffset();
+        int end = buffer.writerOffset();
+        int lineFeeds = 0;
+        int offset = start;
+        for (; offset < end; offset++) {
+            byte b = buffer.getByte(offset);
+            if (b == StompConstants.LF) {
+                lineFeeds++;
+            } else if (b != StompConstants.CR) {
+                break;
             }
         }
 
-        return false;
+        buffer.skipReadableBytes(offset - start);
+        return lineFeeds;
     }
 
     private void resetDecoder() {
@@ -279,9 +558,11 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
         contentLength = -1;
         alreadyReadChunkSize = 0;
         lastContentFrame = null;
+        frameCommand = null;
+        frameChunks = 0;
     }
 
-    private static class Utf8LineParser implements ByteProcessor {
+    static class Utf8LineParser implements ByteProcessor {
 
         private final AppendableCharSequence charSeq;
         private final int maxLineLength;
@@ -363,7 +644,7 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
         }
     }
 
-    private static final class HeaderParser extends Utf8LineParser {
+    static final class HeaderParser extends Utf8LineParser {
 
         private final boolean validateHeaders;
 
@@ -377,8 +658,8 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
             this.validateHeaders = validateHeaders;
         }
 
-        boolean parseHeaders(HeadersStompFrame headersFrame, Buffer buffer) {
-            shouldUnescape = shouldUnescape(headersFrame.command());
+        boolean parseHeaders(StompCommand command, StompHeaders headers, Buffer buffer) {
+            shouldUnescape = shouldUnescape(command);
             for (;;) {
                 AppendableCharSequence value = parse(buffer);
                 if (value == null) {
@@ -390,7 +671,7 @@ public class StompFrameDecoder extends ByteToMessageDecoder {
                 }
 
                 if (valid) {
-                    headersFrame.headers().add(name, value.toString());
+                    headers.add(name, value.toString());
                 } else if (validateHeaders) {
                     if (StringUtil.isNullOrEmpty(name)) {
                         throw new IllegalArgumentException("Received an invalid header line '" + value + '\'');
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted by {@link StompFrameEncoder} for each encoded full or headers frame, lasting as long as its encoding.
+ */
+@Name("io.netty.contrib.stomp.FrameEncoded")
+@Label("STOMP Frame Encoded")
+@Description("A full STOMP frame, or the headers of a chunked one, encoded into a buffer")
+final class StompFrameEncodedEvent extends StompFrameEvent {
+
+    static final EventType TYPE = EventType.getEventType(StompFrameEncodedEvent.class);
+}
@@ -16,9 +16,11 @@
 package io.netty.contrib.handler.codec.stomp;
 
 import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
 import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.handler.codec.MessageToMessageEncoder;
 import io.netty5.util.concurrent.FastThreadLocal;
+import io.netty5.util.concurrent.Future;
 import io.netty5.util.internal.AppendableCharSequence;
 
 import java.util.LinkedHashMap;
@@ -31,6 +33,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Encodes a {@link FullStompFrame} or a {@link StompFrame} into a {@link Buffer}.
+ * <p>
+ * While a JDK Flight Recorder recording enables it, an {@code io.netty.contrib.stomp.FrameEncoded} event is emitted
+ * for each encoded {@link FullStompFrame} and {@link HeadersStompFrame}.
  */
 public class StompFrameEncoder extends MessageToMessageEncoder<StompFrame> {
 
@@ -72,24 +77,89 @@ public class StompFrameEncoder extends MessageToMessageEncoder<StompFrame> {
         }
     };
 
+    private StompCodecMetrics metrics;
+    private StompCommand contentCommand;
+    private StompLatencyTracer latencyTracer;
+
+    /**
+     * Sets the metrics encoded frames are counted in, {@code null} to disable metrics, which is the default.
+     */
+    public void setMetrics(StompCodecMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics encoded frames are counted in, {@code null} if disabled.
+     */
+    public StompCodecMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the tracer the time responses take to be encoded and flushed is sampled by, {@code null} to disable
+     * tracing, which is the default. It should be the one set on the {@link StompFrameDecoder} of the channel.
+     */
+    public void setLatencyTracer(StompLatencyTracer latencyTracer) {
+        this.latencyTracer = latencyTracer;
+    }
+
+    /**
+     * Returns the tracer the time responses take to be encoded and flushed is sampled by, {@code null} if disabled.
+     */
+    public StompLatencyTracer latencyTracer() {
+        return latencyTracer;
+    }
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        if (latencyTracer == null || !(msg instanceof HeadersStompFrame)) {
+            return super.write(ctx, msg);
+        }
+
+        StompLatencyTracer.Trace trace = latencyTracer.frameWritten(ctx.channel());
+        Future<Void> future = super.write(ctx, msg);
+        if (trace != null) {
+            latencyTracer.frameEncoded(trace, future);
+        }
+        return future;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, StompFrame msg, List<Object> out) throws Exception {
         if (msg instanceof FullStompFrame) {
             FullStompFrame fullStompFrame = (FullStompFrame) msg;
-            Buffer buffer = encodeFullFrame(fullStompFrame, ctx);
+            StompFrameRecording event = StompFlightRecorder.beginEncoded();
+            Buffer buffer = encodeFullFrame(fullStompFrame, ctx.bufferAllocator());
+            if (metrics != null) {
+                metrics.frameEncoded(fullStompFrame.command(), buffer.readableBytes());
+            }
+            if (event != null) {
+                event.commit(fullStompFrame.command(), buffer.readableBytes(), fullStompFrame.headers().size(), 0);
+            }
 
             Object convertedFull = convertFullFrame(fullStompFrame, buffer);
             out.add(convertedFull);
         } else if (msg instanceof HeadersStompFrame) {
             HeadersStompFrame headersFrame = (HeadersStompFrame) msg;
+            StompFrameRecording event = StompFlightRecorder.beginEncoded();
             Buffer buffer = ctx.bufferAllocator().allocate(headersStompFrameSize(headersFrame));
             encodeHeaders(headersFrame, buffer);
+            if (metrics != null) {
+                metrics.frameEncoded(headersFrame.command(), buffer.readableBytes());
+                contentCommand = headersFrame.command();
+            }
+            if (event != null) {
+                event.commit(headersFrame.command(), buffer.readableBytes(), headersFrame.headers().size(), 0);
+            }
 
             Object convertedHeaders = convertHeadersFrame(headersFrame, buffer);
             out.add(convertedHeaders);
         } else if (msg instanceof ContentStompFrame) {
             ContentStompFrame<?> contentFrame = (ContentStompFrame<?>) msg;
             Buffer buffer = encodeContent(contentFrame, ctx);
+            if (metrics != null && contentCommand != null) {
+                metrics.contentEncoded(contentCommand, buffer.readableBytes());
+            }
 
             Object convertedContent = convertContentFrame(contentFrame, buffer);
             out.add(convertedContent);
@@ -140,9 +210,23 @@ public class StompFrameEncoder extends MessageToMessageEncoder<StompFrame> {
 
     }
 
-    private Buffer encodeFullFrame(FullStompFrame fullFrame, ChannelHandlerContext ctx) {
+    /**
+     * Encodes a {@link FullStompFrame} outside of a {@link io.netty5.channel.ChannelPipeline}, for example to store
+     * the exact bytes this encoder would write. The frame is neither closed nor consumed.
+     */
+    public Buffer encode(FullStompFrame fullFrame, BufferAllocator allocator) {
+        Buffer payload = fullFrame.payload();
+        int readerOffset = payload.readerOffset();
+        try {
+            return encodeFullFrame(fullFrame, allocator);
+        } finally {
+            payload.readerOffset(readerOffset);
+        }
+    }
+
+    private Buffer encodeFullFrame(FullStompFrame fullFrame, BufferAllocator allocator) {
         int contentReadableBytes = fullFrame.payload().readableBytes();
-        Buffer buf = ctx.bufferAllocator().allocate(headersStompFrameSize(fullFrame) + contentReadableBytes);
+        Buffer buf = allocator.allocate(headersStompFrameSize(fullFrame) + contentReadableBytes);
         encodeHeaders(fullFrame, buf);
 
         if (contentReadableBytes > 0) {
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base of the JDK Flight Recorder events emitted by the STOMP codec handlers, see {@link StompFlightRecorder}.
+ */
+@Category({ "Netty", "STOMP" })
+@StackTrace(false)
+abstract class StompFrameEvent extends jdk.jfr.Event implements StompFrameRecording {
+
+    @Label("Command")
+    String command;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Headers")
+    int headers;
+
+    @Override
+    public void commit(StompCommand command, long size, int headers, int chunks) {
+        end();
+        if (shouldCommit()) {
+            this.command = command.name();
+            this.size = size;
+            this.headers = headers;
+            setChunks(chunks);
+            commit();
+        }
+    }
+
+    void setChunks(int chunks) {
+        // not recorded by default
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandlerContext;
+
+/**
+ * A listener of STOMP frames, which are decoded by a {@link StompFrameListenerDecoder} without creating any
+ * {@link StompFrame} instance.
+ * <p>
+ * The {@link StompHeaders} passed to a callback is a view which is reused for the next frame, so it must be
+ * {@link StompHeaders#copy() copied} if it is needed after the callback returns. The same applies to the body
+ * {@link Buffer}: it is closed once the callback returns, unless it has been {@link Buffer#send() sent} or
+ * {@link Buffer#split() split} by the listener.
+ */
+public interface StompFrameListener {
+
+    /**
+     * Handles an inbound {@code CONNECT} or {@code STOMP} frame.
+     */
+    void onConnect(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code CONNECTED} frame.
+     */
+    void onConnected(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code SEND} frame.
+     */
+    void onSend(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) throws Exception;
+
+    /**
+     * Handles an inbound {@code SUBSCRIBE} frame.
+     */
+    void onSubscribe(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code UNSUBSCRIBE} frame.
+     */
+    void onUnsubscribe(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code ACK} frame.
+     */
+    void onAck(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code NACK} frame.
+     */
+    void onNack(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code BEGIN} frame.
+     */
+    void onBegin(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code COMMIT} frame.
+     */
+    void onCommit(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code ABORT} frame.
+     */
+    void onAbort(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code DISCONNECT} frame.
+     */
+    void onDisconnect(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code MESSAGE} frame.
+     */
+    void onMessage(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) throws Exception;
+
+    /**
+     * Handles an inbound {@code RECEIPT} frame.
+     */
+    void onReceipt(ChannelHandlerContext ctx, StompHeaders headers) throws Exception;
+
+    /**
+     * Handles an inbound {@code ERROR} frame.
+     */
+    void onError(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) throws Exception;
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder.HeaderParser;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder.Utf8LineParser;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.handler.codec.ByteToMessageDecoder;
+import io.netty5.handler.codec.TooLongFrameException;
+import io.netty5.util.internal.AppendableCharSequence;
+import io.netty5.util.internal.ObjectUtil;
+
+import java.util.Objects;
+
+import static io.netty.contrib.handler.codec.stomp.StompFrameDecoder.getContentLength;
+import static io.netty.contrib.handler.codec.stomp.StompFrameDecoder.readCommand;
+import static io.netty.contrib.handler.codec.stomp.StompFrameDecoder.skipControlCharacters;
+import static io.netty.contrib.handler.codec.stomp.StompFrameDecoder.skipNullCharacter;
+
+/**
+ * Decodes {@link Buffer}s into calls of a {@link StompFrameListener}, without creating any {@link StompFrame}.
+ * <p>
+ * Unlike {@link StompFrameDecoder} this decoder always delivers the whole frame at once: the body is accumulated
+ * until the frame is complete and passed to the listener as a slice of the inbound buffer. The headers are parsed
+ * into a single {@link StompHeaders} instance which is cleared and reused for every frame.
+ *
+ * <h3>Parameters to control memory consumption:</h3>
+ * {@code maxLineLength} the maximum length of line - restricts length of command and header lines. If the length of
+ * a line exceeds this value, a {@link TooLongFrameException} will be raised.
+ * <p>
+ * {@code maxContentLength} the maximum length of a frame body. If the {@code content-length} header or the number of
+ * bytes received without the terminating {@code NULL} exceeds this value, a {@link TooLongFrameException} will be
+ * raised.
+ * <p>
+ * Once a decoding failure has been raised all remaining inbound data is discarded, as the frame boundaries can not be
+ * recovered.
+ *
+ * <h3>Cumulation</h3>
+ * <p>
+ * Inbound buffers are merged while command and header lines are parsed. Once the headers announce, with
+ * {@code content-length}, more body bytes than {@link #setCompositeCumulationThreshold(int)} which are not received
+ * yet, the inbound buffers are composed instead, so that a large body is not copied again on every read.
+ */
+public class StompFrameListenerDecoder extends ByteToMessageDecoder {
+
+    private static final int DEFAULT_MAX_LINE_LENGTH = 1024;
+    private static final int DEFAULT_MAX_CONTENT_LENGTH = 1024 * 1024;
+
+    private enum State {
+        SKIP_CONTROL_CHARACTERS,
+        READ_HEADERS,
+        READ_CONTENT,
+        BAD_FRAME
+    }
+
+    private final StompFrameListener listener;
+    private final Utf8LineParser commandParser;
+    private final HeaderParser headerParser;
+    private final int maxContentLength;
+    private final StompHeaders headers = new DefaultStompHeaders();
+    private final StompCumulator cumulator;
+    private State state = State.SKIP_CONTROL_CHARACTERS;
+    private StompCommand command;
+    private long contentLength = -1;
+    private int scannedBodyBytes;
+
+    public StompFrameListenerDecoder(StompFrameListener listener) {
+        this(listener, DEFAULT_MAX_LINE_LENGTH, DEFAULT_MAX_CONTENT_LENGTH, false);
+    }
+
+    public StompFrameListenerDecoder(StompFrameListener listener, int maxLineLength, int maxContentLength,
+                                     boolean validateHeaders) {
+        this(listener, maxLineLength, maxContentLength, validateHeaders, new StompCumulator());
+    }
+
+    private StompFrameListenerDecoder(StompFrameListener listener, int maxLineLength, int maxContentLength,
+                                      boolean validateHeaders, StompCumulator cumulator) {
+        super(cumulator);
+        this.cumulator = cumulator;
+        this.listener = Objects.requireNonNull(listener, "listener");
+        ObjectUtil.checkPositive(maxLineLength, "maxLineLength");
+        this.maxContentLength = ObjectUtil.checkPositiveOrZero(maxContentLength, "maxContentLength");
+        commandParser = new Utf8LineParser(new AppendableCharSequence(16), maxLineLength);
+        headerParser = new HeaderParser(new AppendableCharSequence(128), maxLineLength, validateHeaders);
+    }
+
+    /**
+     * Sets the number of body bytes still to be received above which inbound buffers are composed rather than merged,
+     * {@code 65536} by default.
+     */
+    public void setCompositeCumulationThreshold(int compositeCumulationThreshold) {
+        cumulator.compositeThreshold(ObjectUtil.checkPositiveOrZero(compositeCumulationThreshold,
+                "compositeCumulationThreshold"));
+    }
+
+    /**
+     * Returns the number of body bytes still to be received above which inbound buffers are composed.
+     */
+    public int compositeCumulationThreshold() {
+        return cumulator.compositeThreshold();
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, Buffer in) throws Exception {
+        if (state == State.BAD_FRAME) {
+            in.skipReadableBytes(actualReadableBytes());
+            return;
+        }
+
+        Buffer body;
+        try {
+            body = readFrame(in);
+        } catch (Exception e) {
+            state = State.BAD_FRAME;
+            throw e;
+        }
+
+        if (body == null) {
+            return;
+        }
+
+        try {
+            notifyListener(ctx, command, headers, body);
+        } finally {
+            if (body.isAccessible()) {
+                body.close();
+            }
+            resetDecoder();
+        }
+    }
+
+    private Buffer readFrame(Buffer in) {
+        switch (state) {
+            case SKIP_CONTROL_CHARACTERS:
+                skipControlCharacters(in);
+                if (in.readableBytes() == 0) {
+                    return null;
+                }
+
+                state = State.READ_HEADERS;
+                // Fall through.
+            case READ_HEADERS:
+                if (command == null) {
+                    command = readCommand(commandParser, in);
+                    if (command == null) {
+                        return null;
+                    }
+                }
+
+                if (!headerParser.parseHeaders(command, headers, in)) {
+                    return null;
+                }
+
+                if (headers.contains(StompHeaders.CONTENT_LENGTH)) {
+                    contentLength = getContentLength(headers);
+                    if (contentLength > maxContentLength) {
+                        throw new TooLongFrameException("STOMP frame body is larger than " + maxContentLength +
+                                " bytes");
+                    }
+                }
+
+                state = State.READ_CONTENT;
+                // The NUL octet is expected after the body as well.
+                cumulator.expect(contentLength >= 0 ? contentLength + 1 - in.readableBytes() : -1);
+                // Fall through.
+            case READ_CONTENT:
+                int bodyLength;
+                if (contentLength >= 0) {
+                    bodyLength = (int) contentLength;
+                    if (in.readableBytes() <= bodyLength) {
+                        return null;
+                    }
+                } else {
+                    // Only the bytes received since the previous read are searched for the NUL octet.
+                    int readerOffset = in.readerOffset();
+                    in.readerOffset(readerOffset + scannedBodyBytes);
+                    int index = in.bytesBefore(StompConstants.NUL);
+                    in.readerOffset(readerOffset);
+                    if (index < 0) {
+                        scannedBodyBytes = in.readableBytes();
+                        if (scannedBodyBytes > maxContentLength) {
+                            throw new TooLongFrameException("STOMP frame body is larger than " + maxContentLength +
+                                    " bytes");
+                        }
+                        return null;
+                    }
+                    bodyLength = scannedBodyBytes + index;
+                }
+
+                Buffer body = in.readSplit(bodyLength);
+                try {
+                    skipNullCharacter(in);
+                } catch (Exception e) {
+                    body.close();
+                    throw e;
+                }
+
+                return body;
+            default:
+                throw new Error();
+        }
+    }
+
+    private void notifyListener(ChannelHandlerContext ctx, StompCommand command, StompHeaders headers, Buffer body)
+            throws Exception {
+        switch (command) {
+            case STOMP:
+            case CONNECT:
+                listener.onConnect(ctx, headers);
+                break;
+            case CONNECTED:
+                listener.onConnected(ctx, headers);
+                break;
+            case SEND:
+                listener.onSend(ctx, headers, body);
+                break;
+            case SUBSCRIBE:
+                listener.onSubscribe(ctx, headers);
+                break;
+            case UNSUBSCRIBE:
+                listener.onUnsubscribe(ctx, headers);
+                break;
+            case ACK:
+                listener.onAck(ctx, headers);
+                break;
+            case NACK:
+                listener.onNack(ctx, headers);
+                break;
+            case BEGIN:
+                listener.onBegin(ctx, headers);
+                break;
+            case COMMIT:
+                listener.onCommit(ctx, headers);
+                break;
+            case ABORT:
+                listener.onAbort(ctx, headers);
+                break;
+            case DISCONNECT:
+                listener.onDisconnect(ctx, headers);
+                break;
+            case MESSAGE:
+                listener.onMessage(ctx, headers, body);
+                break;
+            case RECEIPT:
+                listener.onReceipt(ctx, headers);
+                break;
+            case ERROR:
+                listener.onError(ctx, headers, body);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected command " + command);
+        }
+    }
+
+    private void resetDecoder() {
+        state = State.SKIP_CONTROL_CHARACTERS;
+        command = null;
+        contentLength = -1;
+        scannedBodyBytes = 0;
+        headers.clear();
+        cumulator.reset();
+    }
+}
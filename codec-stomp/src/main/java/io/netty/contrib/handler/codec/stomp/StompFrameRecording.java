@@ -0,0 +1,30 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+/**
+ * A started JDK Flight Recorder event of a STOMP codec handler, see {@link StompFlightRecorder}. The handlers only
+ * refer to this interface, never to the event classes, so they load on runtimes without the {@code jdk.jfr} module.
+ */
+interface StompFrameRecording {
+
+    /**
+     * Ends the event and commits it if its duration passes the threshold of the recording.
+     *
+     * @param chunks the number of content frames of the frame, ignored by the events not recording it
+     */
+    void commit(StompCommand command, long size, int headers, int chunks);
+}
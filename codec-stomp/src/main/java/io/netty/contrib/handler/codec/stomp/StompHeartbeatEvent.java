@@ -0,0 +1,32 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+/**
+ * Heart-beat related inbound events.
+ */
+public enum StompHeartbeatEvent {
+    /**
+     * Fired by {@link StompFrameDecoder} each time heart-beats are received between frames, if
+     * {@link StompFrameDecoder#setFireHeartbeatEvents(boolean)} is enabled.
+     */
+    RECEIVED,
+    /**
+     * Fired by {@link StompHeartbeatHandler} when nothing has been received from the peer within the negotiated
+     * heart-beat interval, right before the channel is closed.
+     */
+    MISSED
+}
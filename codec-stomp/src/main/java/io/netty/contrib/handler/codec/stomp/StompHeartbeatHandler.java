@@ -0,0 +1,277 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelPipeline;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.internal.ObjectUtil;
+
+import java.util.function.Supplier;
+
+import static io.netty5.buffer.DefaultBufferAllocators.preferredAllocator;
+
+/**
+ * A {@link ChannelHandler} that negotiates the STOMP heart-beating from the {@code heart-beat} headers of the
+ * {@code CONNECT} and {@code CONNECTED} frames, then sends heart-beats and watches for the heart-beats of the peer.
+ * <p>
+ * Insert this handler after {@link StompFrameDecoder} (and {@link StompFrameEncoder}) in the {@link ChannelPipeline},
+ * so it can see both the inbound and the outbound {@code CONNECT}/{@code CONNECTED} frames. It works on both sides of
+ * a connection. If the outbound {@code CONNECT} or {@code CONNECTED} frame has no {@code heart-beat} header, the
+ * handler adds one with the intervals given to the constructor, otherwise the intervals of the header are used.
+ * <p>
+ * A heart-beat is an end-of-line which is only written when nothing else has been written for half of the
+ * negotiated interval. Every inbound read counts as a sign of life of the peer, including reads which contained only
+ * heart-beats; if nothing is received for one and a half times the negotiated interval, a
+ * {@link StompHeartbeatEvent#MISSED} event is fired and the channel is closed.
+ * <p>
+ * All handlers of an event loop share a single hashed timing wheel, which ticks every 100 milliseconds by default
+ * (see the {@code io.netty.contrib.handler.codec.stomp.heartbeatTickMillis} system property), so no timer is
+ * allocated per connection. As a consequence intervals are rounded up to the tick duration.
+ */
+public class StompHeartbeatHandler implements ChannelHandler {
+
+    private static final Supplier<Buffer> EOL = preferredAllocator().constBufferSupplier(new byte[] {
+            StompConstants.LF });
+
+    private final long sendIntervalMillis;
+    private final long receiveIntervalMillis;
+
+    private ChannelHandlerContext ctx;
+    private long localSend = -1;
+    private long localReceive = -1;
+    private long peerSend = -1;
+    private long peerReceive = -1;
+    private boolean negotiated;
+    private long sendTicks;
+    private long receiveTicks;
+    private long nextSendTick;
+    private long nextReceiveTick;
+    private boolean written;
+    private boolean read;
+
+    // Intrusive links of the StompHeartbeatWheel, only accessed from the event loop.
+    StompHeartbeatWheel wheel;
+    StompHeartbeatHandler wheelNext;
+    StompHeartbeatHandler wheelPrev;
+    long deadlineTick;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param sendIntervalMillis    the smallest number of milliseconds between heart-beats this side can guarantee,
+     *                              {@code 0} if it cannot send heart-beats
+     * @param receiveIntervalMillis the desired number of milliseconds between heart-beats received from the peer,
+     *                              {@code 0} if it does not want to receive heart-beats
+     */
+    public StompHeartbeatHandler(long sendIntervalMillis, long receiveIntervalMillis) {
+        this.sendIntervalMillis = ObjectUtil.checkPositiveOrZero(sendIntervalMillis, "sendIntervalMillis");
+        this.receiveIntervalMillis = ObjectUtil.checkPositiveOrZero(receiveIntervalMillis, "receiveIntervalMillis");
+    }
+
+    /**
+     * Returns the negotiated interval in milliseconds between heart-beats sent by this side, {@code 0} if heart-beats
+     * are not sent or not negotiated yet.
+     */
+    public long negotiatedSendIntervalMillis() {
+        return negotiated ? negotiate(localSend, peerReceive) : 0;
+    }
+
+    /**
+     * Returns the negotiated interval in milliseconds between heart-beats expected from the peer, {@code 0} if
+     * heart-beats are not expected or not negotiated yet.
+     */
+    public long negotiatedReceiveIntervalMillis() {
+        return negotiated ? negotiate(peerSend, localReceive) : 0;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        stop();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        read = true;
+        if (!negotiated && msg instanceof HeadersStompFrame) {
+            HeadersStompFrame headersFrame = (HeadersStompFrame) msg;
+            if (isConnectCommand(headersFrame.command()) && headersFrame.decoderResult().isSuccess()) {
+                long[] heartbeat = parseHeartbeat(headersFrame.headers().getAsString(StompHeaders.HEART_BEAT));
+                peerSend = heartbeat[0];
+                peerReceive = heartbeat[1];
+                tryStart();
+            }
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        read = true;
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        written = true;
+        if (!negotiated && msg instanceof HeadersStompFrame) {
+            HeadersStompFrame headersFrame = (HeadersStompFrame) msg;
+            if (isConnectCommand(headersFrame.command())) {
+                StompHeaders headers = headersFrame.headers();
+                String heartbeatValue = headers.getAsString(StompHeaders.HEART_BEAT);
+                if (heartbeatValue == null) {
+                    headers.set(StompHeaders.HEART_BEAT, sendIntervalMillis + "," + receiveIntervalMillis);
+                    localSend = sendIntervalMillis;
+                    localReceive = receiveIntervalMillis;
+                } else {
+                    long[] heartbeat = parseHeartbeat(heartbeatValue);
+                    localSend = heartbeat[0];
+                    localReceive = heartbeat[1];
+                }
+                tryStart();
+            }
+        }
+
+        return ctx.write(msg);
+    }
+
+    /**
+     * Called when nothing has been received from the peer within the negotiated heart-beat interval. By default a
+     * {@link StompHeartbeatEvent#MISSED} event is fired and the channel is closed.
+     */
+    protected void heartbeatMissed(ChannelHandlerContext ctx) {
+        ctx.fireChannelInboundEvent(StompHeartbeatEvent.MISSED);
+        ctx.close();
+    }
+
+    private void tryStart() {
+        if (localSend < 0 || peerSend < 0) {
+            return;
+        }
+
+        negotiated = true;
+        long sendInterval = negotiatedSendIntervalMillis();
+        long receiveInterval = negotiatedReceiveIntervalMillis();
+        sendTicks = sendInterval > 0 ? toTicks(sendInterval / 2) : 0;
+        receiveTicks = receiveInterval > 0 ? toTicks(receiveInterval + receiveInterval / 2) : 0;
+        if (sendTicks == 0 && receiveTicks == 0) {
+            return;
+        }
+
+        StompHeartbeatWheel wheel = StompHeartbeatWheel.wheel(ctx.executor());
+        long tick = wheel.currentTick();
+        written = false;
+        read = false;
+        nextSendTick = tick + sendTicks;
+        nextReceiveTick = tick + receiveTicks;
+        wheel.schedule(this, nextDeadline());
+    }
+
+    void expire(StompHeartbeatWheel wheel, long tick) {
+        if (sendTicks > 0 && tick >= nextSendTick) {
+            if (!written) {
+                ctx.writeAndFlush(EOL.get());
+            }
+            written = false;
+            nextSendTick = tick + sendTicks;
+        }
+
+        if (receiveTicks > 0 && tick >= nextReceiveTick) {
+            if (!read) {
+                heartbeatMissed(ctx);
+                return;
+            }
+            read = false;
+            nextReceiveTick = tick + receiveTicks;
+        }
+
+        if (ctx.channel().isActive()) {
+            wheel.schedule(this, nextDeadline());
+        }
+    }
+
+    private long nextDeadline() {
+        if (sendTicks == 0) {
+            return nextReceiveTick;
+        }
+
+        if (receiveTicks == 0) {
+            return nextSendTick;
+        }
+
+        return Math.min(nextSendTick, nextReceiveTick);
+    }
+
+    private void stop() {
+        StompHeartbeatWheel wheel = this.wheel;
+        if (wheel != null) {
+            wheel.cancel(this);
+        }
+    }
+
+    private static long toTicks(long millis) {
+        long tickMillis = StompHeartbeatWheel.TICK_MILLIS;
+        return Math.max(1, (millis + tickMillis - 1) / tickMillis);
+    }
+
+    private static long negotiate(long sendInterval, long receiveInterval) {
+        if (sendInterval == 0 || receiveInterval == 0) {
+            return 0;
+        }
+
+        return Math.max(sendInterval, receiveInterval);
+    }
+
+    private static boolean isConnectCommand(StompCommand command) {
+        return command == StompCommand.CONNECT || command == StompCommand.STOMP || command == StompCommand.CONNECTED;
+    }
+
+    private static long[] parseHeartbeat(String value) {
+        long[] heartbeat = new long[2];
+        if (value == null) {
+            return heartbeat;
+        }
+
+        int comma = value.indexOf(',');
+        if (comma < 0) {
+            return heartbeat;
+        }
+
+        try {
+            heartbeat[0] = Math.max(0, Long.parseLong(value.substring(0, comma).trim()));
+            heartbeat[1] = Math.max(0, Long.parseLong(value.substring(comma + 1).trim()));
+        } catch (NumberFormatException ignore) {
+            heartbeat[0] = 0;
+            heartbeat[1] = 0;
+        }
+
+        return heartbeat;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.util.concurrent.EventExecutor;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.internal.SystemPropertyUtil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel shared by all {@link StompHeartbeatHandler}s of one {@link EventExecutor}.
+ * <p>
+ * The wheel is driven by a single periodic task scheduled on its executor and only exists while at least one handler
+ * is registered. Handlers are linked into the buckets directly, so no timer object is allocated per connection.
+ * All methods must be called from the executor thread.
+ */
+final class StompHeartbeatWheel implements Runnable {
+
+    static final long TICK_MILLIS = Math.max(1, SystemPropertyUtil.getLong(
+            "io.netty.contrib.handler.codec.stomp.heartbeatTickMillis", 100));
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final ConcurrentMap<EventExecutor, StompHeartbeatWheel> WHEELS = new ConcurrentHashMap<>();
+
+    private final EventExecutor executor;
+    private final StompHeartbeatHandler[] buckets = new StompHeartbeatHandler[WHEEL_SIZE];
+    private Future<Void> tickFuture;
+    private long currentTick;
+    private int size;
+    private boolean running;
+
+    private StompHeartbeatWheel(EventExecutor executor) {
+        this.executor = executor;
+    }
+
+    static StompHeartbeatWheel wheel(EventExecutor executor) {
+        assert executor.inEventLoop();
+        StompHeartbeatWheel wheel = WHEELS.get(executor);
+        if (wheel == null) {
+            wheel = new StompHeartbeatWheel(executor);
+            WHEELS.put(executor, wheel);
+        }
+
+        return wheel;
+    }
+
+    /**
+     * Returns the number of ticks elapsed since this wheel was started.
+     */
+    long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Links the handler into the bucket of its {@link StompHeartbeatHandler#deadlineTick}.
+     */
+    void schedule(StompHeartbeatHandler handler, long deadlineTick) {
+        assert executor.inEventLoop();
+        if (handler.wheel != null) {
+            unlink(handler);
+        }
+
+        handler.wheel = this;
+        handler.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+        int index = (int) (handler.deadlineTick & WHEEL_MASK);
+        StompHeartbeatHandler head = buckets[index];
+        handler.wheelNext = head;
+        handler.wheelPrev = null;
+        if (head != null) {
+            head.wheelPrev = handler;
+        }
+        buckets[index] = handler;
+
+        size++;
+        if (tickFuture == null) {
+            tickFuture = executor.scheduleAtFixedRate(this, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Unlinks the handler from this wheel, stopping the wheel if it was the last one.
+     */
+    void cancel(StompHeartbeatHandler handler) {
+        assert executor.inEventLoop();
+        if (handler.wheel != this) {
+            return;
+        }
+
+        unlink(handler);
+        if (size == 0 && !running) {
+            stop();
+        }
+    }
+
+    private void unlink(StompHeartbeatHandler handler) {
+        StompHeartbeatHandler prev = handler.wheelPrev;
+        StompHeartbeatHandler next = handler.wheelNext;
+        if (prev != null) {
+            prev.wheelNext = next;
+        } else {
+            buckets[(int) (handler.deadlineTick & WHEEL_MASK)] = next;
+        }
+        if (next != null) {
+            next.wheelPrev = prev;
+        }
+
+        handler.wheelNext = null;
+        handler.wheelPrev = null;
+        handler.wheel = null;
+        size--;
+    }
+
+    private void stop() {
+        if (tickFuture != null) {
+            tickFuture.cancel();
+            tickFuture = null;
+        }
+        WHEELS.remove(executor, this);
+    }
+
+    @Override
+    public void run() {
+        long tick = ++currentTick;
+        StompHeartbeatHandler handler = buckets[(int) (tick & WHEEL_MASK)];
+        running = true;
+        try {
+            while (handler != null) {
+                StompHeartbeatHandler next = handler.wheelNext;
+                if (handler.deadlineTick <= tick) {
+                    unlink(handler);
+                    handler.expire(this, tick);
+                }
+                handler = next;
+            }
+        } finally {
+            running = false;
+        }
+
+        if (size == 0) {
+            stop();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.channel.Channel;
+import io.netty5.util.Attribute;
+import io.netty5.util.AttributeKey;
+import io.netty5.util.concurrent.FastThreadLocal;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.internal.ObjectUtil;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traces one in {@link #sampleRate()} frames through the {@link StompFrameDecoder}, {@link StompFrameAggregator} and
+ * {@link StompFrameEncoder} of a channel it is set on, and records how long each {@link Stage} took into latency
+ * histograms, usually shared by all the channels of a server.
+ * <p>
+ * The trace of a received frame is kept aside in a channel attribute and ends with the first frame written on the
+ * same channel after it, so the {@link Stage#HANDLE} stage is the time to the response of requests answered on their
+ * own channel, such as {@link StompCommand#CONNECT} or frames with a {@code receipt} header. If another frame is
+ * received first, only the inbound stages of the trace are recorded.
+ * <p>
+ * Like {@link StompCodecMetrics}, the histograms are striped per event loop, which only ever writes to its own stripe,
+ * and summed by {@link #snapshot()}.
+ */
+public final class StompLatencyTracer {
+
+    /**
+     * The stages of a traced frame, each recorded as the time between two points of the pipeline.
+     */
+    public enum Stage {
+        /**
+         * From the read of the first byte of a frame to its {@link HeadersStompFrame} being fired.
+         */
+        DECODE,
+        /**
+         * From the {@link HeadersStompFrame} being fired to the {@link FullStompFrame} being aggregated.
+         */
+        AGGREGATE,
+        /**
+         * From the frame being aggregated, or decoded without an aggregator, to the next frame written on the channel.
+         */
+        HANDLE,
+        /**
+         * From the written frame reaching the encoder to the encoder passing it on.
+         */
+        ENCODE,
+        /**
+         * From the encoded frame being passed on to its write completing, that is being flushed to the transport.
+         */
+        FLUSH,
+        /**
+         * From the read of the first byte of a frame to the write of the response completing.
+         */
+        TOTAL
+    }
+
+    static final AttributeKey<Trace> TRACE_KEY = AttributeKey.valueOf(StompLatencyTracer.class, "TRACE");
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final int READ = 0;
+    private static final int DECODED = 1;
+    private static final int AGGREGATED = 2;
+    private static final int WRITTEN = 3;
+    private static final int ENCODED = 4;
+    private static final int FLUSHED = 5;
+    private static final int POINTS = 6;
+    private static final int COUNT = 0;
+    private static final int TOTAL_NANOS = 1;
+    private static final int MAX_NANOS = 2;
+    private static final int BUCKETS_OFFSET = 3;
+    private static final int BUCKETS = Long.SIZE;
+    private static final int COUNTERS_PER_STAGE = BUCKETS_OFFSET + BUCKETS;
+
+    private final int sampleRate;
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final FastThreadLocal<Recorder> recorder = new FastThreadLocal<>() {
+        @Override
+        protected Recorder initialValue() {
+            Recorder newRecorder = new Recorder();
+            recorders.add(newRecorder);
+            return newRecorder;
+        }
+    };
+
+    /**
+     * Creates a tracer tracing every frame.
+     */
+    public StompLatencyTracer() {
+        this(1);
+    }
+
+    /**
+     * Creates a tracer tracing one in {@code sampleRate} frames received by each event loop.
+     */
+    public StompLatencyTracer(int sampleRate) {
+        this.sampleRate = ObjectUtil.checkPositive(sampleRate, "sampleRate");
+    }
+
+    /**
+     * Returns the number of received frames per traced one.
+     */
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Returns the sums of all histograms so far.
+     */
+    public Snapshot snapshot() {
+        long[] totals = new long[STAGES.length * COUNTERS_PER_STAGE];
+        for (Recorder stripe : recorders) {
+            for (int i = 0; i < totals.length; i++) {
+                long value = stripe.counters.get(i);
+                if (i % COUNTERS_PER_STAGE == MAX_NANOS) {
+                    totals[i] = Math.max(totals[i], value);
+                } else {
+                    totals[i] += value;
+                }
+            }
+        }
+        return new Snapshot(totals);
+    }
+
+    /**
+     * Called by the decoder when it starts to decode a frame, returns the trace of the frame if sampled. The channel
+     * attribute is only touched if the frame is sampled or if the previous frame was.
+     *
+     * @param tracePending {@code true} if the trace of the previous frame of the channel may not have ended yet
+     */
+    Trace frameStarted(Channel channel, long readNanos, boolean tracePending) {
+        Recorder stripe = recorder.get();
+        boolean sampled = --stripe.untilSample <= 0;
+        if (!sampled && !tracePending) {
+            return null;
+        }
+
+        Trace trace = null;
+        if (sampled) {
+            stripe.untilSample = sampleRate;
+            trace = new Trace();
+            trace.stamps[READ] = readNanos;
+        }
+
+        Trace pending = channel.attr(TRACE_KEY).getAndSet(trace);
+        if (pending != null) {
+            stripe.record(pending);
+        }
+        return trace;
+    }
+
+    /**
+     * Called by the aggregator when it has aggregated a frame.
+     */
+    void frameAggregated(Channel channel) {
+        Trace trace = channel.attr(TRACE_KEY).get();
+        if (trace != null && trace.stamps[AGGREGATED] == 0) {
+            trace.stamps[AGGREGATED] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Called by the encoder when a frame is written, returns the trace the frame ends if any.
+     */
+    Trace frameWritten(Channel channel) {
+        Attribute<Trace> attribute = channel.attr(TRACE_KEY);
+        // Most written frames end no trace, so the attribute is only reset when it holds one.
+        Trace trace = attribute.get() != null ? attribute.getAndSet(null) : null;
+        if (trace != null) {
+            trace.stamps[WRITTEN] = System.nanoTime();
+        }
+        return trace;
+    }
+
+    /**
+     * Called by the encoder when the frame ending the trace is encoded, records the trace once it is flushed.
+     */
+    void frameEncoded(Trace trace, Future<Void> writeFuture) {
+        trace.stamps[ENCODED] = System.nanoTime();
+        writeFuture.addListener(future -> {
+            if (future.isSuccess()) {
+                trace.stamps[FLUSHED] = System.nanoTime();
+                recorder.get().record(trace);
+            }
+        });
+    }
+
+    /**
+     * The points of the pipeline a traced frame went through so far, {@code 0} for those not reached.
+     */
+    static final class Trace {
+
+        private final long[] stamps = new long[POINTS];
+
+        void decoded() {
+            stamps[DECODED] = System.nanoTime();
+        }
+    }
+
+    private static final class Recorder {
+
+        private final AtomicLongArray counters = new AtomicLongArray(STAGES.length * COUNTERS_PER_STAGE);
+        private int untilSample = 1;
+
+        void record(Trace trace) {
+            long[] stamps = trace.stamps;
+            long previous = stamps[READ];
+            for (int point = DECODED; point < POINTS; point++) {
+                // A stage without its end point, e.g. AGGREGATE without an aggregator, is merged into the next one.
+                if (stamps[point] != 0) {
+                    record(STAGES[point - 1], stamps[point] - previous);
+                    previous = stamps[point];
+                }
+            }
+
+            if (stamps[FLUSHED] != 0) {
+                record(Stage.TOTAL, stamps[FLUSHED] - stamps[READ]);
+            }
+        }
+
+        private void record(Stage stage, long nanos) {
+            int index = stage.ordinal() * COUNTERS_PER_STAGE;
+            increment(index + COUNT, 1);
+            increment(index + TOTAL_NANOS, nanos);
+            if (nanos > counters.get(index + MAX_NANOS)) {
+                counters.lazySet(index + MAX_NANOS, nanos);
+            }
+            increment(index + BUCKETS_OFFSET + bucket(nanos), 1);
+        }
+
+        private void increment(int index, long delta) {
+            // Only the owning thread writes to its stripe, so an ordered store is enough.
+            counters.lazySet(index, counters.get(index) + delta);
+        }
+
+        private static int bucket(long nanos) {
+            return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+        }
+    }
+
+    /**
+     * The sums of the histograms of a {@link StompLatencyTracer} at some point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] totals;
+
+        Snapshot(long[] totals) {
+            this.totals = totals;
+        }
+
+        /**
+         * Returns the number of traced frames which went through the stage.
+         */
+        public long count(Stage stage) {
+            return totals[stage.ordinal() * COUNTERS_PER_STAGE + COUNT];
+        }
+
+        /**
+         * Returns the mean time the traced frames spent in the stage, in nanoseconds.
+         */
+        public long meanNanos(Stage stage) {
+            long count = count(stage);
+            return count == 0 ? 0 : totals[stage.ordinal() * COUNTERS_PER_STAGE + TOTAL_NANOS] / count;
+        }
+
+        /**
+         * Returns the longest time a traced frame spent in the stage, in nanoseconds.
+         */
+        public long maxNanos(Stage stage) {
+            return totals[stage.ordinal() * COUNTERS_PER_STAGE + MAX_NANOS];
+        }
+
+        /**
+         * Returns the number of traced frames per time spent in the stage: the element {@code 0} counts the frames
+         * which spent no measurable time and the element {@code i} those which spent {@code 2^(i-1)} up to
+         * {@code 2^i - 1} nanoseconds.
+         */
+        public long[] histogram(Stage stage) {
+            long[] histogram = new long[BUCKETS];
+            System.arraycopy(totals, stage.ordinal() * COUNTERS_PER_STAGE + BUCKETS_OFFSET, histogram, 0, BUCKETS);
+            return histogram;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, between {@code 0} and {@code 100}, of the times spent in
+         * the stage, in nanoseconds. The bound is at most twice the actual value.
+         */
+        public long percentileNanos(Stage stage, double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile: " + percentile + " (expected: 0-100)");
+            }
+
+            long count = count(stage);
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            int offset = stage.ordinal() * COUNTERS_PER_STAGE + BUCKETS_OFFSET;
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += totals[offset + i];
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, maxNanos(stage));
+                }
+            }
+            return maxNanos(stage);
+        }
+    }
+}
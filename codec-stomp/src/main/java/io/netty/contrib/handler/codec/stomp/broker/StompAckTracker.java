@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Tracks the unacknowledged messages of a subscription as a bitmap of monotonic sequence numbers.
+ * <p>
+ * Every message gets the next sequence number from {@link #track()}; it is up to the caller to derive the
+ * {@code ack} id of the message from it, so no per-message object is retained. The bitmap only spans the sequences
+ * from the oldest unacknowledged message to the newest message, one bit per message, and shrinks as the oldest
+ * messages get acknowledged. Individual acknowledgements are constant time, cumulative ones are amortized constant
+ * time per acknowledged message. This class is not thread-safe.
+ */
+public final class StompAckTracker {
+
+    private static final int INITIAL_WORDS = 4;
+
+    private long[] words = new long[INITIAL_WORDS];
+    private int head;
+    private int wordCount;
+    private long base;
+    private long nextSequence;
+    private int outstanding;
+
+    /**
+     * Assigns the next sequence number to a message and marks it unacknowledged.
+     */
+    public long track() {
+        long sequence = nextSequence++;
+        if (wordCount == 0) {
+            base = sequence & ~63L;
+        }
+
+        int wordIndex = (int) ((sequence - base) >>> 6);
+        if (wordIndex >= wordCount) {
+            if (wordIndex >= words.length) {
+                grow(wordIndex + 1);
+            }
+            wordCount = wordIndex + 1;
+        }
+
+        words[(head + wordIndex) & (words.length - 1)] |= 1L << sequence;
+        outstanding++;
+        return sequence;
+    }
+
+    /**
+     * Acknowledges a single message, as in the {@code client-individual} mode.
+     *
+     * @return {@code true} if the message was unacknowledged
+     */
+    public boolean ack(long sequence) {
+        if (!isOutstanding(sequence)) {
+            return false;
+        }
+
+        int index = (head + (int) ((sequence - base) >>> 6)) & (words.length - 1);
+        words[index] &= ~(1L << sequence);
+        outstanding--;
+        trim();
+        return true;
+    }
+
+    /**
+     * Acknowledges the message and all messages sent before it, as in the {@code client} mode.
+     *
+     * @return the number of messages which were unacknowledged
+     */
+    public int ackCumulative(long sequence) {
+        if (wordCount == 0 || sequence < base) {
+            return 0;
+        }
+
+        long last = Math.min(sequence, nextSequence - 1);
+        int lastWord = (int) ((last - base) >>> 6);
+        int mask = words.length - 1;
+        int acked = 0;
+        for (int i = 0; i < lastWord; i++) {
+            int index = (head + i) & mask;
+            acked += Long.bitCount(words[index]);
+            words[index] = 0;
+        }
+
+        int index = (head + lastWord) & mask;
+        long lastMask = (last & 63) == 63 ? -1L : (1L << (last + 1)) - 1;
+        acked += Long.bitCount(words[index] & lastMask);
+        words[index] &= ~lastMask;
+
+        outstanding -= acked;
+        trim();
+        return acked;
+    }
+
+    /**
+     * Returns {@code true} if the message is tracked and not acknowledged yet.
+     */
+    public boolean isOutstanding(long sequence) {
+        if (sequence < base || sequence >= nextSequence || wordCount == 0) {
+            return false;
+        }
+
+        long word = words[(head + (int) ((sequence - base) >>> 6)) & (words.length - 1)];
+        return (word & 1L << sequence) != 0;
+    }
+
+    /**
+     * Returns the number of unacknowledged messages.
+     */
+    public int outstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Returns the sequence of the oldest unacknowledged message at or after the given sequence, {@code -1} if there
+     * is none. Used to walk the redelivery candidates without allocating.
+     */
+    public long nextOutstanding(long fromSequence) {
+        if (wordCount == 0 || fromSequence >= nextSequence) {
+            return -1;
+        }
+
+        long from = Math.max(fromSequence, base);
+        int mask = words.length - 1;
+        int wordIndex = (int) ((from - base) >>> 6);
+        long word = words[(head + wordIndex) & mask] & (-1L << from);
+        for (;;) {
+            if (word != 0) {
+                return base + ((long) wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++wordIndex >= wordCount) {
+                return -1;
+            }
+            word = words[(head + wordIndex) & mask];
+        }
+    }
+
+    /**
+     * Passes the sequence of every unacknowledged message to the consumer, oldest first.
+     */
+    public void forEachOutstanding(LongConsumer consumer) {
+        for (long sequence = nextOutstanding(0); sequence >= 0; sequence = nextOutstanding(sequence + 1)) {
+            consumer.accept(sequence);
+        }
+    }
+
+    private void trim() {
+        int mask = words.length - 1;
+        while (wordCount > 0 && words[head] == 0 && base + 64 <= nextSequence) {
+            head = (head + 1) & mask;
+            wordCount--;
+            base += 64;
+        }
+    }
+
+    private void grow(int minWords) {
+        int newLength = words.length;
+        while (newLength < minWords) {
+            newLength <<= 1;
+        }
+
+        long[] newWords = new long[newLength];
+        int mask = words.length - 1;
+        for (int i = 0; i < wordCount; i++) {
+            newWords[i] = words[(head + i) & mask];
+        }
+        words = newWords;
+        head = 0;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.DefaultStompHeaders;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.Resource;
+import io.netty5.util.Send;
+import io.netty5.util.concurrent.EventExecutor;
+import io.netty5.util.internal.logging.InternalLogger;
+import io.netty5.util.internal.logging.InternalLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Routes the content of {@code SEND} frames to the matching subscriptions of a {@link StompSubscriptionRegistry} as
+ * {@code MESSAGE} frames.
+ * <p>
+ * Subscribers are grouped by the event loop of their channel. Subscribers on the event loop of the publisher are
+ * written to directly, while the deliveries to every other event loop are collected and handed over as a single task
+ * per event loop when {@link #flush(EventExecutor)} is called, usually from {@code channelReadComplete}. Each event
+ * loop then creates the {@code MESSAGE} frames of its own subscribers and flushes each of their channels once, so the
+ * cost of a fan-out is spread over the event loops instead of contending on their task queues.
+ * <p>
+ * The payload is copied once per published message into a read-only buffer, which is then shared by all
+ * {@code MESSAGE} frames. All methods must be called from an event loop.
+ * <p>
+ * Subscriptions whose {@link StompFlowControlHandler} can not queue more messages are skipped, see
+ * {@link #acceptsMessage(StompSubscription)}.
+ * <p>
+ * If a {@link StompTopicHistory} is given, the messages of the destinations it retains are added to it before being
+ * routed, so they can be replayed to later subscribers.
+ */
+public class StompBroker {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(StompBroker.class);
+
+    private final StompSubscriptionRegistry registry;
+    private final StompTopicHistory history;
+    private final ConcurrentMap<EventExecutor, Dispatcher> dispatchers = new ConcurrentHashMap<>();
+    private final AtomicInteger dispatcherIds = new AtomicInteger();
+
+    /**
+     * Creates a new instance with an empty {@link StompSubscriptionRegistry}.
+     */
+    public StompBroker() {
+        this(new StompSubscriptionRegistry());
+    }
+
+    public StompBroker(StompSubscriptionRegistry registry) {
+        this(registry, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param registry the subscriptions messages are routed to
+     * @param history  the history retaining the messages of some destinations, or {@code null}
+     */
+    public StompBroker(StompSubscriptionRegistry registry, StompTopicHistory history) {
+        this.registry = requireNonNull(registry, "registry");
+        this.history = history;
+    }
+
+    /**
+     * Returns the registry of the subscriptions this broker routes to.
+     */
+    public StompSubscriptionRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Returns the history retaining the messages of some destinations, {@code null} if none.
+     */
+    public StompTopicHistory history() {
+        return history;
+    }
+
+    /**
+     * Routes the {@code SEND} frame to the matching subscriptions, see
+     * {@link #publish(EventExecutor, String, StompHeaders, Buffer)}. The frame is not closed.
+     *
+     * @throws IllegalArgumentException if the frame has no {@code destination} header
+     */
+    public int publish(ChannelHandlerContext ctx, FullStompFrame sendFrame) {
+        String destination = sendFrame.headers().getAsString(StompHeaders.DESTINATION);
+        if (destination == null) {
+            throw new IllegalArgumentException("missing destination header");
+        }
+
+        return publish(ctx.executor(), destination, sendFrame.headers(), sendFrame.payload());
+    }
+
+    /**
+     * Routes a message to the subscriptions matching the destination. Subscribers on the given event loop are
+     * written to immediately, the others once {@link #flush(EventExecutor)} is called for the same event loop.
+     * Nothing is flushed until then. The payload is copied and not closed.
+     *
+     * @param executor    the event loop of the caller
+     * @param destination the destination of the message
+     * @param headers     the headers of the {@code SEND} frame, copied into the {@code MESSAGE} frames except
+     *                    {@code receipt}, {@code transaction} and {@code content-length}
+     * @param payload     the payload of the message
+     * @return the number of subscriptions the message is routed to
+     */
+    public int publish(EventExecutor executor, String destination, StompHeaders headers, Buffer payload) {
+        requireNonNull(destination, "destination");
+        requireNonNull(headers, "headers");
+        requireNonNull(payload, "payload");
+        return dispatcher(executor).publish(destination, headers, payload);
+    }
+
+    /**
+     * Flushes the subscribers written to by {@link #publish} on the event loop of the context, and hands over the
+     * pending deliveries to the other event loops.
+     */
+    public void flush(ChannelHandlerContext ctx) {
+        flush(ctx.executor());
+    }
+
+    /**
+     * Flushes the subscribers written to by {@link #publish} on the given event loop, and hands over the pending
+     * deliveries to the other event loops.
+     */
+    public void flush(EventExecutor executor) {
+        Dispatcher dispatcher = dispatchers.get(executor);
+        if (dispatcher != null) {
+            assert executor.inEventLoop();
+            dispatcher.flush();
+        }
+    }
+
+    /**
+     * Creates the {@code MESSAGE} frame of a subscription. Called from the event loop of the subscriber.
+     *
+     * @param subscription the subscription the message is delivered to
+     * @param headers      the headers shared by all {@code MESSAGE} frames of the message, must not be modified
+     * @param payload      a read-only payload owned by the returned frame
+     */
+    protected FullStompFrame newMessageFrame(StompSubscription subscription, StompHeaders headers, Buffer payload) {
+        FullStompFrame messageFrame = new DefaultFullStompFrame(StompCommand.MESSAGE, payload);
+        messageFrame.headers()
+                .set(headers)
+                .set(StompHeaders.SUBSCRIPTION, subscription.id());
+        return messageFrame;
+    }
+
+    /**
+     * Returns {@code false} if the message should not be delivered to the subscription, by default if the
+     * {@link StompFlowControlHandler} of its channel could only drop it. Called from the event loop of the subscriber.
+     */
+    protected boolean acceptsMessage(StompSubscription subscription) {
+        StompFlowControlHandler flowControl = StompFlowControlHandler.get(subscription.channel());
+        return flowControl == null || flowControl.acceptsMessage(subscription.id());
+    }
+
+    /**
+     * Writes the {@code MESSAGE} frame to the channel of the subscription without flushing it. Called from the event
+     * loop of the subscriber.
+     */
+    protected void deliver(StompSubscription subscription, FullStompFrame messageFrame) {
+        subscription.channel().write(messageFrame);
+    }
+
+    private Dispatcher dispatcher(EventExecutor executor) {
+        assert executor.inEventLoop();
+        Dispatcher dispatcher = dispatchers.get(executor);
+        if (dispatcher == null) {
+            dispatcher = new Dispatcher(executor, dispatcherIds.incrementAndGet());
+            dispatchers.put(executor, dispatcher);
+        }
+
+        return dispatcher;
+    }
+
+    private void deliver(StompSubscription subscription, StompHeaders headers, Buffer payload) {
+        if (!acceptsMessage(subscription)) {
+            return;
+        }
+
+        FullStompFrame messageFrame = newMessageFrame(subscription, headers, payload.copy(true));
+        try {
+            deliver(subscription, messageFrame);
+        } catch (Throwable cause) {
+            Resource.dispose(messageFrame);
+            logger.warn("Failed to deliver a message to {}", subscription, cause);
+        }
+    }
+
+    private static StompHeaders messageHeaders(String destination, StompHeaders headers, String messageId,
+                                               int contentLength) {
+        StompHeaders messageHeaders = new DefaultStompHeaders();
+        for (Entry<CharSequence, CharSequence> header : headers) {
+            CharSequence name = header.getKey();
+            if (!StompHeaders.RECEIPT.contentEquals(name) && !StompHeaders.TRANSACTION.contentEquals(name) &&
+                !StompHeaders.CONTENT_LENGTH.contentEquals(name)) {
+                messageHeaders.add(name, header.getValue());
+            }
+        }
+
+        return messageHeaders
+                .set(StompHeaders.DESTINATION, destination)
+                .set(StompHeaders.MESSAGE_ID, messageId)
+                .set(StompHeaders.CONTENT_LENGTH, Integer.toString(contentLength));
+    }
+
+    /**
+     * The publishing state of one event loop, only accessed from that event loop.
+     */
+    private final class Dispatcher implements Consumer<StompSubscription> {
+
+        private final EventExecutor executor;
+        private final String messageIdPrefix;
+        private final List<StompSubscription> matched = new ArrayList<>();
+        private final Set<Channel> channelsToFlush = new LinkedHashSet<>();
+        private final Map<EventExecutor, DispatchTask> pendingTasks = new HashMap<>();
+        private long messageSequence;
+
+        Dispatcher(EventExecutor executor, int id) {
+            this.executor = executor;
+            messageIdPrefix = id + "-";
+        }
+
+        @Override
+        public void accept(StompSubscription subscription) {
+            matched.add(subscription);
+        }
+
+        int publish(String destination, StompHeaders headers, Buffer payload) {
+            Buffer sharedPayload = null;
+            StompHeaders messageHeaders = null;
+            try {
+                // Retained before being routed, so a new subscription gets the message either live or replayed.
+                if (history != null && history.retains(destination)) {
+                    sharedPayload = payload.copy(true);
+                    messageHeaders = messageHeaders(destination, headers, messageIdPrefix + ++messageSequence,
+                            sharedPayload.readableBytes());
+                    history.add(destination, messageHeaders, sharedPayload);
+                }
+
+                registry.match(destination, this);
+                int count = matched.size();
+                if (count == 0) {
+                    return 0;
+                }
+
+                if (sharedPayload == null) {
+                    sharedPayload = payload.copy(true);
+                    messageHeaders = messageHeaders(destination, headers, messageIdPrefix + ++messageSequence,
+                            sharedPayload.readableBytes());
+                }
+                for (int i = 0; i < count; i++) {
+                    StompSubscription subscription = matched.get(i);
+                    Channel channel = subscription.channel();
+                    EventExecutor target = channel.executor();
+                    if (target == executor) {
+                        deliver(subscription, messageHeaders, sharedPayload);
+                        channelsToFlush.add(channel);
+                    } else {
+                        DispatchTask task = pendingTasks.get(target);
+                        if (task == null) {
+                            task = new DispatchTask();
+                            pendingTasks.put(target, task);
+                        }
+                        task.add(subscription, messageHeaders, sharedPayload);
+                    }
+                }
+
+                return count;
+            } finally {
+                matched.clear();
+                if (sharedPayload != null) {
+                    sharedPayload.close();
+                }
+            }
+        }
+
+        void flush() {
+            if (!channelsToFlush.isEmpty()) {
+                for (Channel channel : channelsToFlush) {
+                    channel.flush();
+                }
+                channelsToFlush.clear();
+            }
+
+            if (!pendingTasks.isEmpty()) {
+                for (Entry<EventExecutor, DispatchTask> entry : pendingTasks.entrySet()) {
+                    DispatchTask task = entry.getValue();
+                    try {
+                        entry.getKey().execute(task);
+                    } catch (RejectedExecutionException e) {
+                        task.discard();
+                        logger.warn("Failed to dispatch messages to {}", entry.getKey(), e);
+                    }
+                }
+                pendingTasks.clear();
+            }
+        }
+    }
+
+    /**
+     * The deliveries of one read cycle of a publishing event loop to the subscribers of another event loop.
+     */
+    private final class DispatchTask implements Runnable {
+
+        private final List<Delivery> deliveries = new ArrayList<>();
+
+        void add(StompSubscription subscription, StompHeaders headers, Buffer sharedPayload) {
+            Delivery delivery = deliveries.isEmpty() ? null : deliveries.get(deliveries.size() - 1);
+            if (delivery == null || delivery.headers != headers) {
+                delivery = new Delivery(headers, sharedPayload.copy(true).send());
+                deliveries.add(delivery);
+            }
+            delivery.subscriptions.add(subscription);
+        }
+
+        @Override
+        public void run() {
+            Set<Channel> channelsToFlush = new LinkedHashSet<>();
+            for (Delivery delivery : deliveries) {
+                try (Buffer payload = delivery.payload.receive()) {
+                    for (StompSubscription subscription : delivery.subscriptions) {
+                        deliver(subscription, delivery.headers, payload);
+                        channelsToFlush.add(subscription.channel());
+                    }
+                }
+            }
+
+            for (Channel channel : channelsToFlush) {
+                channel.flush();
+            }
+        }
+
+        void discard() {
+            for (Delivery delivery : deliveries) {
+                delivery.payload.close();
+            }
+        }
+    }
+
+    private static final class Delivery {
+
+        final StompHeaders headers;
+        final Send<Buffer> payload;
+        final List<StompSubscription> subscriptions = new ArrayList<>(4);
+
+        Delivery(StompHeaders headers, Send<Buffer> payload) {
+            this.headers = headers;
+            this.payload = payload;
+        }
+    }
+}
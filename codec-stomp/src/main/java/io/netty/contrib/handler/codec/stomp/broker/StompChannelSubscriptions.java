@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty5.channel.Channel;
+import io.netty5.util.AttributeKey;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The subscriptions of a single {@link Channel} in a {@link StompSubscriptionRegistry}, keyed by subscription id.
+ * <p>
+ * The table is stored in an attribute of the channel and is created by the first
+ * {@link StompSubscriptionRegistry#subscribe(Channel, String, String)} call for that channel, which also registers the
+ * only close listener used to remove all subscriptions of the channel from the registry. It must only be accessed
+ * from the event loop of the channel.
+ */
+public final class StompChannelSubscriptions implements Iterable<StompSubscription> {
+
+    static final AttributeKey<StompChannelSubscriptions> ATTRIBUTE_KEY =
+            AttributeKey.valueOf(StompChannelSubscriptions.class, "SUBSCRIPTIONS");
+
+    private final StompSubscriptionRegistry registry;
+    private final Map<String, StompSubscription> subscriptions = new HashMap<>();
+
+    private StompChannelSubscriptions(StompSubscriptionRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the subscription table of the channel, or {@code null} if the channel never subscribed.
+     */
+    public static StompChannelSubscriptions get(Channel channel) {
+        return channel.attr(ATTRIBUTE_KEY).get();
+    }
+
+    static StompChannelSubscriptions getOrCreate(Channel channel, StompSubscriptionRegistry registry) {
+        StompChannelSubscriptions table = channel.attr(ATTRIBUTE_KEY).get();
+        if (table == null) {
+            StompChannelSubscriptions newTable = new StompChannelSubscriptions(registry);
+            table = channel.attr(ATTRIBUTE_KEY).setIfAbsent(newTable);
+            if (table == null) {
+                table = newTable;
+                channel.closeFuture().addListener(future -> newTable.unsubscribeAll());
+            }
+        }
+
+        if (table.registry != registry) {
+            throw new IllegalStateException("channel already subscribed to another registry: " + channel);
+        }
+
+        return table;
+    }
+
+    /**
+     * Returns the registry of the subscriptions.
+     */
+    public StompSubscriptionRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Returns the subscription with the given id, or {@code null} if there is none.
+     */
+    public StompSubscription get(String id) {
+        return subscriptions.get(id);
+    }
+
+    /**
+     * Returns the number of subscriptions of the channel.
+     */
+    public int size() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public Iterator<StompSubscription> iterator() {
+        return Collections.unmodifiableCollection(subscriptions.values()).iterator();
+    }
+
+    boolean contains(String id) {
+        return subscriptions.containsKey(id);
+    }
+
+    void put(StompSubscription subscription) {
+        subscriptions.put(subscription.id(), subscription);
+    }
+
+    StompSubscription remove(String id) {
+        return subscriptions.remove(id);
+    }
+
+    int unsubscribeAll() {
+        int count = subscriptions.size();
+        if (count > 0) {
+            registry.unsubscribeAll(subscriptions.values());
+            subscriptions.clear();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelPipeline;
+import io.netty5.util.AsciiString;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.concurrent.Promise;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ChannelHandler} which keeps only the newest {@code MESSAGE} frame per conflation key while the channel is
+ * not writable, for destinations such as price feeds where a slow subscriber only needs the latest value.
+ * <p>
+ * The conflation key of a {@code MESSAGE} frame is the value of a configurable header, by default
+ * {@value #CONFLATION_KEY_HEADER}, scoped to the subscription of the frame. While the channel is not writable, keyed
+ * frames are held in this handler and a newer frame with the same key replaces the held one, whose write future is
+ * completed successfully as it has been superseded. The held frames are written, in the order their keys were first
+ * held, once the channel becomes writable again. The memory held per channel is thus bounded by the number of keys
+ * instead of by the message rate.
+ * <p>
+ * Frames without the key header, frames which are not {@link FullStompFrame}s and frames with an {@code ack} header,
+ * whose acknowledgement is tracked, are never held, so they may overtake held frames.
+ * <p>
+ * Insert this handler right after the {@link StompFrameEncoder} in the {@link ChannelPipeline}, so the frames reach
+ * it before being encoded and a superseded frame is never encoded.
+ */
+public class StompConflationHandler implements ChannelHandler {
+
+    /**
+     * The default name of the {@code MESSAGE} header carrying the conflation key.
+     */
+    public static final String CONFLATION_KEY_HEADER = "conflation-key";
+
+    private final AsciiString keyHeader;
+    private final Map<ConflationKey, PendingMessage> pending = new LinkedHashMap<>();
+    private long conflatedCount;
+
+    /**
+     * Creates a new instance using the {@value #CONFLATION_KEY_HEADER} header.
+     */
+    public StompConflationHandler() {
+        this(CONFLATION_KEY_HEADER);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param keyHeader the name of the {@code MESSAGE} header carrying the conflation key
+     */
+    public StompConflationHandler(String keyHeader) {
+        this.keyHeader = AsciiString.cached(requireNonNull(keyHeader, "keyHeader"));
+    }
+
+    /**
+     * Returns the number of frames held until the channel becomes writable.
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of frames replaced by a newer frame with the same key.
+     */
+    public long conflatedCount() {
+        return conflatedCount;
+    }
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof FullStompFrame) {
+            FullStompFrame frame = (FullStompFrame) msg;
+            ConflationKey key = conflationKey(frame, keyHeader);
+            if (key != null) {
+                PendingMessage held = pending.get(key);
+                if (held != null) {
+                    held.frame.close();
+                    held.promise.trySuccess(null);
+                    held.frame = frame;
+                    held.promise = ctx.newPromise();
+                    conflatedCount++;
+                    return held.promise.asFuture();
+                }
+
+                if (!ctx.channel().isWritable()) {
+                    Promise<Void> promise = ctx.newPromise();
+                    pending.put(key, new PendingMessage(frame, promise));
+                    return promise.asFuture();
+                }
+            }
+        }
+
+        return ctx.write(msg);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (!pending.isEmpty() && ctx.channel().isWritable()) {
+            drain(ctx);
+        }
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (!pending.isEmpty() && ctx.channel().isWritable() && drain(ctx)) {
+            ctx.flush();
+        }
+
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discardPending();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        discardPending();
+    }
+
+    /**
+     * Returns the conflation key of the frame, or {@code null} if it must not be conflated.
+     */
+    static ConflationKey conflationKey(FullStompFrame frame, AsciiString keyHeader) {
+        if (frame.command() != StompCommand.MESSAGE) {
+            return null;
+        }
+
+        StompHeaders headers = frame.headers();
+        CharSequence key = headers.get(keyHeader);
+        CharSequence subscription = headers.get(StompHeaders.SUBSCRIPTION);
+        if (key == null || subscription == null || headers.contains(StompHeaders.ACK)) {
+            return null;
+        }
+
+        return new ConflationKey(subscription.toString(), key.toString());
+    }
+
+    private boolean drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        Iterator<PendingMessage> iterator = pending.values().iterator();
+        while (iterator.hasNext() && ctx.channel().isWritable()) {
+            PendingMessage message = iterator.next();
+            iterator.remove();
+            ctx.write(message.frame).cascadeTo(message.promise);
+            written = true;
+        }
+
+        return written;
+    }
+
+    private void discardPending() {
+        for (PendingMessage message : pending.values()) {
+            message.frame.close();
+            message.promise.tryFailure(new ClosedChannelException());
+        }
+        pending.clear();
+    }
+
+    static final class ConflationKey {
+
+        final String subscription;
+        final String key;
+
+        ConflationKey(String subscription, String key) {
+            this.subscription = subscription;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ConflationKey)) {
+                return false;
+            }
+
+            ConflationKey that = (ConflationKey) o;
+            return subscription.equals(that.subscription) && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * subscription.hashCode() + key.hashCode();
+        }
+    }
+
+    private static final class PendingMessage {
+
+        FullStompFrame frame;
+        Promise<Void> promise;
+
+        PendingMessage(FullStompFrame frame, Promise<Void> promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.HeadersStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelPipeline;
+import io.netty5.util.AsciiString;
+import io.netty5.util.AttributeKey;
+import io.netty5.util.Resource;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.collection.IntObjectHashMap;
+import io.netty5.util.collection.IntObjectMap;
+import io.netty5.util.concurrent.Promise;
+import io.netty5.util.internal.ObjectUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link ChannelHandler} which limits the number of unacknowledged {@code MESSAGE} frames in flight per
+ * subscription of a server-side channel.
+ * <p>
+ * The limit of a subscription is given by the {@value #PREFETCH_COUNT_HEADER} header of its {@code SUBSCRIBE}
+ * frame, or by the default passed to the constructor, and only applies to the {@code client} and
+ * {@code client-individual} acknowledgement modes. Once a subscription has as many messages in flight as its limit,
+ * further {@code MESSAGE} frames are queued in this handler until an {@code ACK} or {@code NACK} frees some credits.
+ * Messages of flow controlled subscriptions are also queued while the channel is not writable, and written again when
+ * it becomes writable.
+ * <p>
+ * The queue of each subscription is bounded: once it holds {@code maxPendingMessages} messages, further
+ * {@code MESSAGE} frames are released and their write fails, so a consumer which stalls or never acknowledges can not
+ * make the memory of the server grow. A {@link StompBroker} does not even create the {@code MESSAGE} frames of such a
+ * subscription, see {@link #acceptsMessage(String)}.
+ * <p>
+ * The unacknowledged messages of every {@code client} and {@code client-individual} subscription are tracked by a
+ * {@link StompAckTracker}, whether it has a limit or not. The handler sets the {@code ack} header of their
+ * {@code MESSAGE} frames to an id derived from the subscription and the sequence number of the message, which
+ * {@code ACK} and {@code NACK} frames are expected to carry back in their {@code id} header.
+ * <p>
+ * Insert this handler after the {@link io.netty.contrib.handler.codec.stomp.StompFrameAggregator} in the
+ * {@link ChannelPipeline}, in front of the handler writing the {@code MESSAGE} frames.
+ */
+public class StompFlowControlHandler implements ChannelHandler {
+
+    /**
+     * The name of the {@code SUBSCRIBE} header carrying the maximum number of unacknowledged messages.
+     */
+    public static final String PREFETCH_COUNT_HEADER = "prefetch-count";
+
+    /**
+     * The default maximum number of messages queued per subscription.
+     */
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 1024;
+
+    static final AttributeKey<StompFlowControlHandler> ATTRIBUTE_KEY =
+            AttributeKey.valueOf(StompFlowControlHandler.class, "FLOW_CONTROL");
+
+    private static final AsciiString PREFETCH_COUNT = AsciiString.cached(PREFETCH_COUNT_HEADER);
+    private static final String ACK_CLIENT = "client";
+    private static final String ACK_CLIENT_INDIVIDUAL = "client-individual";
+
+    private final int defaultPrefetchCount;
+    private final int maxPendingMessages;
+    private final Map<String, FlowControlledSubscription> subscriptions = new HashMap<>();
+    private final IntObjectMap<FlowControlledSubscription> subscriptionsByKey = new IntObjectHashMap<>();
+    private int nextKey;
+    private ChannelHandlerContext ctx;
+
+    /**
+     * Creates a new instance without a default limit, only subscriptions with a {@value #PREFETCH_COUNT_HEADER}
+     * header are flow controlled.
+     */
+    public StompFlowControlHandler() {
+        this(0);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param defaultPrefetchCount the limit of the subscriptions without {@value #PREFETCH_COUNT_HEADER} header,
+     *                             {@code 0} for no limit
+     */
+    public StompFlowControlHandler(int defaultPrefetchCount) {
+        this(defaultPrefetchCount, DEFAULT_MAX_PENDING_MESSAGES);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param defaultPrefetchCount the limit of the subscriptions without {@value #PREFETCH_COUNT_HEADER} header,
+     *                             {@code 0} for no limit
+     * @param maxPendingMessages   the maximum number of messages queued per subscription
+     */
+    public StompFlowControlHandler(int defaultPrefetchCount, int maxPendingMessages) {
+        this.defaultPrefetchCount = ObjectUtil.checkPositiveOrZero(defaultPrefetchCount, "defaultPrefetchCount");
+        this.maxPendingMessages = ObjectUtil.checkPositive(maxPendingMessages, "maxPendingMessages");
+    }
+
+    /**
+     * Returns the flow control handler of the channel, {@code null} if it has none.
+     */
+    static StompFlowControlHandler get(Channel channel) {
+        return channel.attr(ATTRIBUTE_KEY).get();
+    }
+
+    /**
+     * Returns the number of unacknowledged messages of the subscription, {@code -1} if it is not acknowledged by the
+     * client.
+     */
+    public int inFlightCount(String subscriptionId) {
+        FlowControlledSubscription subscription = subscriptions.get(subscriptionId);
+        return subscription != null ? subscription.tracker.outstanding() : -1;
+    }
+
+    /**
+     * Returns the tracker of the unacknowledged messages of the subscription, which are the redelivery candidates
+     * if the subscription ends, or {@code null} if it is not acknowledged by the client.
+     */
+    public StompAckTracker ackTracker(String subscriptionId) {
+        FlowControlledSubscription subscription = subscriptions.get(subscriptionId);
+        return subscription != null ? subscription.tracker : null;
+    }
+
+    /**
+     * Returns the number of messages of the subscription waiting for credits, {@code -1} if it is not flow
+     * controlled.
+     */
+    public int pendingCount(String subscriptionId) {
+        FlowControlledSubscription subscription = subscriptions.get(subscriptionId);
+        return subscription != null ? subscription.pending.size() : -1;
+    }
+
+    /**
+     * Returns {@code false} if a {@code MESSAGE} frame written for the subscription would be dropped, because its
+     * queue is full. Must be called from the event loop of the channel.
+     */
+    public boolean acceptsMessage(String subscriptionId) {
+        FlowControlledSubscription subscription = subscriptions.get(subscriptionId);
+        return subscription == null || subscription.pending.size() < maxPendingMessages;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        ctx.channel().attr(ATTRIBUTE_KEY).set(this);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        ctx.channel().attr(ATTRIBUTE_KEY).compareAndSet(this, null);
+        discardAll();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HeadersStompFrame) {
+            HeadersStompFrame frame = (HeadersStompFrame) msg;
+            switch (frame.command()) {
+                case SUBSCRIBE:
+                    onSubscribe(frame.headers());
+                    break;
+                case UNSUBSCRIBE:
+                    onUnsubscribe(frame.headers());
+                    break;
+                case ACK:
+                case NACK:
+                    onAck(frame.headers());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            boolean written = false;
+            for (FlowControlledSubscription subscription : subscriptions.values()) {
+                written |= drain(subscription);
+            }
+            if (written) {
+                ctx.flush();
+            }
+        }
+
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discardAll();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof HeadersStompFrame && ((HeadersStompFrame) msg).command() == StompCommand.MESSAGE) {
+            HeadersStompFrame frame = (HeadersStompFrame) msg;
+            String subscriptionId = frame.headers().getAsString(StompHeaders.SUBSCRIPTION);
+            FlowControlledSubscription subscription = subscriptions.get(subscriptionId);
+            if (subscription != null) {
+                if (!subscription.pending.isEmpty() || !subscription.hasCredit() || !ctx.channel().isWritable()) {
+                    if (subscription.pending.size() >= maxPendingMessages) {
+                        Resource.dispose(frame);
+                        return ctx.newFailedFuture(new IllegalStateException(
+                                "too many pending messages for subscription " + subscriptionId));
+                    }
+
+                    Promise<Void> promise = ctx.newPromise();
+                    subscription.pending.add(new PendingMessage(frame, promise));
+                    return promise.asFuture();
+                }
+
+                return send(subscription, frame);
+            }
+        }
+
+        return ctx.write(msg);
+    }
+
+    private void onSubscribe(StompHeaders headers) {
+        String id = headers.getAsString(StompHeaders.ID);
+        String ackMode = headers.getAsString(StompHeaders.ACK);
+        if (id == null || !(ACK_CLIENT.equals(ackMode) || ACK_CLIENT_INDIVIDUAL.equals(ackMode))) {
+            return;
+        }
+
+        int prefetchCount = defaultPrefetchCount;
+        String prefetchValue = headers.getAsString(PREFETCH_COUNT);
+        if (prefetchValue != null) {
+            try {
+                prefetchCount = Math.max(0, Integer.parseInt(prefetchValue.trim()));
+            } catch (NumberFormatException ignore) {
+                // keep the default
+            }
+        }
+
+        if (!subscriptions.containsKey(id)) {
+            FlowControlledSubscription subscription =
+                    new FlowControlledSubscription(nextKey++, prefetchCount, ACK_CLIENT.equals(ackMode));
+            subscriptions.put(id, subscription);
+            subscriptionsByKey.put(subscription.key, subscription);
+        }
+    }
+
+    private void onUnsubscribe(StompHeaders headers) {
+        String id = headers.getAsString(StompHeaders.ID);
+        FlowControlledSubscription subscription = id != null ? subscriptions.remove(id) : null;
+        if (subscription != null) {
+            subscriptionsByKey.remove(subscription.key);
+            subscription.discardPending();
+        }
+    }
+
+    private void onAck(StompHeaders headers) {
+        String ackId = headers.getAsString(StompHeaders.ID);
+        int separator = ackId != null ? ackId.indexOf('-') : -1;
+        if (separator <= 0) {
+            return;
+        }
+
+        FlowControlledSubscription subscription;
+        long sequence;
+        try {
+            subscription = subscriptionsByKey.get(Integer.parseInt(ackId, 0, separator, 10));
+            sequence = Long.parseLong(ackId, separator + 1, ackId.length(), 10);
+        } catch (NumberFormatException ignore) {
+            return;
+        }
+
+        if (subscription == null) {
+            return;
+        }
+
+        if (subscription.cumulative) {
+            subscription.tracker.ackCumulative(sequence);
+        } else {
+            subscription.tracker.ack(sequence);
+        }
+
+        if (drain(subscription)) {
+            ctx.flush();
+        }
+    }
+
+    private boolean drain(FlowControlledSubscription subscription) {
+        boolean written = false;
+        while (!subscription.pending.isEmpty() && subscription.hasCredit() && ctx.channel().isWritable()) {
+            PendingMessage message = subscription.pending.poll();
+            send(subscription, message.frame).cascadeTo(message.promise);
+            written = true;
+        }
+
+        return written;
+    }
+
+    private Future<Void> send(FlowControlledSubscription subscription, HeadersStompFrame frame) {
+        long sequence = subscription.tracker.track();
+        frame.headers().set(StompHeaders.ACK, subscription.key + "-" + sequence);
+        return ctx.write(frame);
+    }
+
+    private void discardAll() {
+        for (FlowControlledSubscription subscription : subscriptions.values()) {
+            subscription.discardPending();
+        }
+        subscriptions.clear();
+        subscriptionsByKey.clear();
+    }
+
+    private static final class FlowControlledSubscription {
+
+        final int key;
+        final int prefetchCount;
+        final boolean cumulative;
+        final StompAckTracker tracker = new StompAckTracker();
+        final ArrayDeque<PendingMessage> pending = new ArrayDeque<>();
+
+        FlowControlledSubscription(int key, int prefetchCount, boolean cumulative) {
+            this.key = key;
+            this.prefetchCount = prefetchCount;
+            this.cumulative = cumulative;
+        }
+
+        boolean hasCredit() {
+            return prefetchCount == 0 || tracker.outstanding() < prefetchCount;
+        }
+
+        void discardPending() {
+            PendingMessage message;
+            while ((message = pending.poll()) != null) {
+                Resource.dispose(message.frame);
+                message.promise.tryFailure(new ClosedChannelException());
+            }
+        }
+    }
+
+    private static final class PendingMessage {
+
+        final HeadersStompFrame frame;
+        final Promise<Void> promise;
+
+        PendingMessage(HeadersStompFrame frame, Promise<Void> promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+}
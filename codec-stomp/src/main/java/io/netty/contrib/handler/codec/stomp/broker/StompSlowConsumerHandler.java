@@ -0,0 +1,319 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty.contrib.handler.codec.stomp.broker.StompConflationHandler.ConflationKey;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelPipeline;
+import io.netty5.util.AsciiString;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.concurrent.Promise;
+import io.netty5.util.internal.ThrowableUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.contrib.handler.codec.stomp.broker.StompConflationHandler.conflationKey;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ChannelHandler} which detects subscribers that do not keep up with their {@code MESSAGE} frames and
+ * applies the {@link StompSlowConsumerPolicy} of its {@link StompSlowConsumerMonitor} to them.
+ * <p>
+ * While the channel is not writable, {@code MESSAGE} frames are held in this handler instead of piling up in the
+ * outbound buffer of the channel, and written again once it becomes writable. A subscriber is slow once the estimated
+ * size of the held frames exceeds the byte limit of the monitor, or once it has not been writable for longer than the
+ * time limit. The policy is then applied to every new {@code MESSAGE} frame until the channel becomes writable again.
+ * The check only compares counters and {@link System#nanoTime()}, so it runs on every write without allocating. The
+ * time limit is also checked by a task scheduled when the channel becomes unwritable, so a subscriber is detected,
+ * and disconnected with {@link StompSlowConsumerPolicy#DISCONNECT}, even if no frame is written afterwards.
+ * <p>
+ * With {@link StompSlowConsumerPolicy#CONFLATE}, the held frames are looked up by the conflation key of
+ * {@link StompConflationHandler}, so frames with an {@code ack} header are never conflated.
+ * <p>
+ * The write futures of dropped frames fail, while the ones of conflated frames complete successfully, as they have
+ * been superseded. Other frames are never held nor dropped, so they may overtake held frames. With
+ * {@link StompSlowConsumerPolicy#DISCONNECT} the {@code ERROR} frame is sent on a best effort basis, as the channel is
+ * closed right away.
+ * <p>
+ * Insert this handler right after the {@link StompFrameEncoder} in the {@link ChannelPipeline}.
+ */
+public class StompSlowConsumerHandler implements ChannelHandler {
+
+    private static final IllegalStateException DROPPED = ThrowableUtil.unknownStackTrace(
+            new IllegalStateException("dropped by the slow consumer policy"), StompSlowConsumerHandler.class, "write");
+    private static final AsciiString CONFLATION_KEY = AsciiString.cached(StompConflationHandler.CONFLATION_KEY_HEADER);
+    private static final int HEADER_SIZE_ESTIMATE = 34;
+
+    private final StompSlowConsumerMonitor monitor;
+    private final ArrayDeque<PendingMessage> pending = new ArrayDeque<>();
+    private final Map<ConflationKey, PendingMessage> pendingByKey = new HashMap<>();
+    private long pendingBytes;
+    private long unwritableSinceNanos;
+    private Future<?> unwritableCheck;
+    private boolean unwritable;
+    private boolean slow;
+
+    public StompSlowConsumerHandler(StompSlowConsumerMonitor monitor) {
+        this.monitor = requireNonNull(monitor, "monitor");
+    }
+
+    /**
+     * Returns the estimated number of bytes of the held {@code MESSAGE} frames.
+     */
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Returns the number of held {@code MESSAGE} frames.
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns {@code true} if the channel exceeded one of the limits since it was last writable.
+     */
+    public boolean isSlow() {
+        return slow;
+    }
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullStompFrame) || ((FullStompFrame) msg).command() != StompCommand.MESSAGE ||
+            pending.isEmpty() && ctx.channel().isWritable()) {
+            return ctx.write(msg);
+        }
+
+        FullStompFrame frame = (FullStompFrame) msg;
+        if (!unwritable) {
+            unwritable = true;
+            unwritableSinceNanos = System.nanoTime();
+            unwritableCheck = ctx.executor().schedule(() -> checkUnwritableTime(ctx),
+                    monitor.maxUnwritableNanos() + 1, TimeUnit.NANOSECONDS);
+        }
+
+        int size = estimateSize(frame);
+        ConflationKey key = monitor.policy() == StompSlowConsumerPolicy.CONFLATE ?
+                conflationKey(frame, CONFLATION_KEY) : null;
+        boolean overTime = isOverTime();
+        if (overTime || pendingBytes + size > monitor.maxPendingBytes()) {
+            markSlow();
+            switch (monitor.policy()) {
+                case DROP_NEWEST:
+                    frame.close();
+                    monitor.droppedNewest.increment();
+                    return ctx.newFailedFuture(DROPPED);
+                case CONFLATE:
+                    PendingMessage held = key != null ? pendingByKey.get(key) : null;
+                    if (held != null) {
+                        pendingBytes += size - held.size;
+                        held.frame.close();
+                        held.promise.trySuccess(null);
+                        held.frame = frame;
+                        held.size = size;
+                        held.promise = ctx.newPromise();
+                        monitor.conflated.increment();
+                        return held.promise.asFuture();
+                    }
+                    // fall through
+                case DROP_OLDEST:
+                    dropOldest(size, overTime);
+                    break;
+                case DISCONNECT:
+                    frame.close();
+                    evict(ctx);
+                    return ctx.newFailedFuture(new ClosedChannelException());
+            }
+        }
+
+        Promise<Void> promise = ctx.newPromise();
+        PendingMessage message = new PendingMessage(frame, size, promise, key);
+        pending.add(message);
+        if (key != null) {
+            pendingByKey.put(key, message);
+        }
+        pendingBytes += size;
+        return promise.asFuture();
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (!pending.isEmpty() && ctx.channel().isWritable()) {
+            drain(ctx);
+            if (pending.isEmpty()) {
+                writable();
+            }
+        } else if (checkUnwritableTime(ctx)) {
+            return;
+        }
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            if (!pending.isEmpty() && drain(ctx)) {
+                ctx.flush();
+            }
+            if (pending.isEmpty()) {
+                writable();
+            }
+        } else {
+            checkUnwritableTime(ctx);
+        }
+
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discardPending();
+        cancelUnwritableCheck();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        discardPending();
+        cancelUnwritableCheck();
+    }
+
+    private boolean isOverTime() {
+        return System.nanoTime() - unwritableSinceNanos > monitor.maxUnwritableNanos();
+    }
+
+    private void markSlow() {
+        if (!slow) {
+            slow = true;
+            monitor.slowConsumers.increment();
+        }
+    }
+
+    /**
+     * Marks the subscriber as slow if it holds frames for longer than the time limit, and disconnects it with
+     * {@link StompSlowConsumerPolicy#DISCONNECT}.
+     *
+     * @return {@code true} if the channel has been closed
+     */
+    private boolean checkUnwritableTime(ChannelHandlerContext ctx) {
+        if (!unwritable || pending.isEmpty() || !isOverTime()) {
+            return false;
+        }
+
+        markSlow();
+        if (monitor.policy() == StompSlowConsumerPolicy.DISCONNECT && ctx.channel().isActive()) {
+            evict(ctx);
+            return true;
+        }
+        return false;
+    }
+
+    private void writable() {
+        unwritable = false;
+        slow = false;
+        cancelUnwritableCheck();
+    }
+
+    private void cancelUnwritableCheck() {
+        if (unwritableCheck != null) {
+            unwritableCheck.cancel();
+            unwritableCheck = null;
+        }
+    }
+
+    private boolean drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        PendingMessage message;
+        while (ctx.channel().isWritable() && (message = poll()) != null) {
+            ctx.write(message.frame).cascadeTo(message.promise);
+            written = true;
+        }
+
+        return written;
+    }
+
+    /**
+     * Drops the oldest held frames until the new one fits, and at least one if the time limit is exceeded, so the
+     * number of held frames stops growing.
+     */
+    private void dropOldest(int size, boolean overTime) {
+        PendingMessage message;
+        while ((overTime || pendingBytes + size > monitor.maxPendingBytes()) && (message = poll()) != null) {
+            message.frame.close();
+            message.promise.tryFailure(DROPPED);
+            monitor.droppedOldest.increment();
+            overTime = false;
+        }
+    }
+
+    private PendingMessage poll() {
+        PendingMessage message = pending.poll();
+        if (message != null) {
+            pendingBytes -= message.size;
+            if (message.key != null) {
+                pendingByKey.remove(message.key, message);
+            }
+        }
+        return message;
+    }
+
+    private void evict(ChannelHandlerContext ctx) {
+        monitor.disconnected.increment();
+        discardPending();
+        FullStompFrame errorFrame = new DefaultFullStompFrame(StompCommand.ERROR);
+        errorFrame.headers().set(StompHeaders.MESSAGE, "slow consumer");
+        ctx.writeAndFlush(errorFrame);
+        ctx.close();
+    }
+
+    private void discardPending() {
+        PendingMessage message;
+        while ((message = poll()) != null) {
+            message.frame.close();
+            message.promise.tryFailure(new ClosedChannelException());
+        }
+    }
+
+    private static int estimateSize(FullStompFrame frame) {
+        return frame.payload().readableBytes() + frame.headers().size() * HEADER_SIZE_ESTIMATE;
+    }
+
+    private static final class PendingMessage {
+
+        FullStompFrame frame;
+        int size;
+        Promise<Void> promise;
+        final ConflationKey key;
+
+        PendingMessage(FullStompFrame frame, int size, Promise<Void> promise, ConflationKey key) {
+            this.frame = frame;
+            this.size = size;
+            this.promise = promise;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty5.util.internal.ObjectUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The limits and the policy shared by the {@link StompSlowConsumerHandler}s of a broker, along with the counters of
+ * what they did.
+ */
+public final class StompSlowConsumerMonitor {
+
+    private final StompSlowConsumerPolicy policy;
+    private final long maxPendingBytes;
+    private final long maxUnwritableNanos;
+    final LongAdder slowConsumers = new LongAdder();
+    final LongAdder droppedNewest = new LongAdder();
+    final LongAdder droppedOldest = new LongAdder();
+    final LongAdder conflated = new LongAdder();
+    final LongAdder disconnected = new LongAdder();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param policy             what to do once a subscriber exceeds one of the limits
+     * @param maxPendingBytes    the maximum number of bytes of {@code MESSAGE} frames held per channel while it is not
+     *                           writable
+     * @param maxUnwritableTime  the maximum time a channel may stay not writable while {@code MESSAGE} frames are
+     *                           written to it
+     * @param unit               the unit of {@code maxUnwritableTime}
+     */
+    public StompSlowConsumerMonitor(StompSlowConsumerPolicy policy, long maxPendingBytes, long maxUnwritableTime,
+                                    TimeUnit unit) {
+        this.policy = requireNonNull(policy, "policy");
+        this.maxPendingBytes = ObjectUtil.checkPositive(maxPendingBytes, "maxPendingBytes");
+        maxUnwritableNanos = unit.toNanos(ObjectUtil.checkPositive(maxUnwritableTime, "maxUnwritableTime"));
+    }
+
+    /**
+     * Creates the handler of a new connection.
+     */
+    public StompSlowConsumerHandler newHandler() {
+        return new StompSlowConsumerHandler(this);
+    }
+
+    public StompSlowConsumerPolicy policy() {
+        return policy;
+    }
+
+    public long maxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    public long maxUnwritableNanos() {
+        return maxUnwritableNanos;
+    }
+
+    /**
+     * Returns the number of times a channel exceeded one of the limits.
+     */
+    public long slowConsumerCount() {
+        return slowConsumers.sum();
+    }
+
+    /**
+     * Returns the number of new frames dropped by {@link StompSlowConsumerPolicy#DROP_NEWEST}.
+     */
+    public long droppedNewestCount() {
+        return droppedNewest.sum();
+    }
+
+    /**
+     * Returns the number of held frames dropped by {@link StompSlowConsumerPolicy#DROP_OLDEST} or
+     * {@link StompSlowConsumerPolicy#CONFLATE}.
+     */
+    public long droppedOldestCount() {
+        return droppedOldest.sum();
+    }
+
+    /**
+     * Returns the number of held frames replaced by {@link StompSlowConsumerPolicy#CONFLATE}.
+     */
+    public long conflatedCount() {
+        return conflated.sum();
+    }
+
+    /**
+     * Returns the number of channels closed by {@link StompSlowConsumerPolicy#DISCONNECT}.
+     */
+    public long disconnectedCount() {
+        return disconnected.sum();
+    }
+}
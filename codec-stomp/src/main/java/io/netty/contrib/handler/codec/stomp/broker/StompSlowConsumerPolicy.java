@@ -0,0 +1,40 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+/**
+ * What a {@link StompSlowConsumerHandler} does with the {@code MESSAGE} frames of a subscriber which exceeds the
+ * limits of its {@link StompSlowConsumerMonitor}.
+ */
+public enum StompSlowConsumerPolicy {
+    /**
+     * The new frames are dropped, the held ones are kept.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest held frames are dropped to make room for the new ones.
+     */
+    DROP_OLDEST,
+    /**
+     * A new frame replaces the held frame of the same subscription with the same
+     * {@value StompConflationHandler#CONFLATION_KEY_HEADER} header, otherwise the oldest held frames are dropped.
+     */
+    CONFLATE,
+    /**
+     * An {@code ERROR} frame is sent and the channel is closed.
+     */
+    DISCONNECT
+}
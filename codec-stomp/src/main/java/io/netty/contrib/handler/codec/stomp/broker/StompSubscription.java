@@ -1,5 +1,5 @@
 /*
- * Copyright 2021 The Netty Project
+ * Copyright 2022 The Netty Project
  *
  * The Netty Project licenses this file to you under the Apache License,
  * version 2.0 (the "License"); you may not use this file except in compliance
@@ -13,18 +13,29 @@
  * License for the specific language governing permissions and limitations
  * under the License.
  */
-package io.netty.contrib.example.handler.codec.stomp.websocket;
+package io.netty.contrib.handler.codec.stomp.broker;
 
 import io.netty5.channel.Channel;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * A subscription of a {@link Channel} to a destination, as requested by a {@code SUBSCRIBE} frame.
+ */
 public final class StompSubscription {
 
     private final String id;
     private final String destination;
     private final Channel channel;
 
+    /**
+     * Creates a new instance.
+     *
+     * @param id          the value of the {@code id} header of the {@code SUBSCRIBE} frame
+     * @param destination the value of the {@code destination} header of the {@code SUBSCRIBE} frame, which may
+     *                    contain wildcards (see {@link StompSubscriptionRegistry})
+     * @param channel     the subscribing channel
+     */
     public StompSubscription(String id, String destination, Channel channel) {
         this.id = requireNonNull(id, "id");
         this.destination = requireNonNull(destination, "destination");
@@ -73,4 +84,9 @@ public final class StompSubscription {
         result = 31 * result + channel.hashCode();
         return result;
     }
+
+    @Override
+    public String toString() {
+        return "StompSubscription{id=" + id + ", destination=" + destination + ", channel=" + channel + '}';
+    }
 }
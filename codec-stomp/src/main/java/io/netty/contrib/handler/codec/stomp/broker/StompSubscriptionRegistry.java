@@ -0,0 +1,355 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty5.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A thread-safe registry of {@link StompSubscription}s which finds the subscriptions matching a destination.
+ * <p>
+ * Destinations are split into segments at every {@code '/'} or {@code '.'}, empty segments are ignored, so
+ * {@code /topic/prices/eur} and {@code topic.prices.eur} are the same destination. The destination of a subscription
+ * may contain wildcard segments:
+ * <ul>
+ *     <li>{@code *} matches exactly one segment, e.g. {@code topic.*.eur} matches {@code topic.prices.eur}</li>
+ *     <li>{@code #} matches zero or more segments and is only allowed as the last segment, e.g. {@code /topic/#}
+ *     matches {@code /topic}, {@code /topic/prices} and {@code /topic/prices/eur}</li>
+ * </ul>
+ * The subscriptions are kept in a trie of segments, so the cost of {@link #match(String, Consumer)} depends on the
+ * number of segments of the destination and on the wildcards along its path, but not on the total number of
+ * subscriptions or destinations.
+ * <p>
+ * Matching never locks and may run concurrently with modifications, in which case a subscription being added or
+ * removed may or may not be seen. Modifications are serialized.
+ * <p>
+ * Subscriptions added with {@link #subscribe(Channel, String, String)} are also indexed per channel in
+ * {@link StompChannelSubscriptions}, so {@link #unsubscribe(Channel, String)} and the removal of all subscriptions of
+ * a closed channel only cost as much as the subscriptions of that channel.
+ */
+public final class StompSubscriptionRegistry {
+
+    private static final String SINGLE_WILDCARD = "*";
+    private static final String MULTI_WILDCARD = "#";
+
+    private final Node root = new Node(null, null);
+    private volatile int size;
+
+    /**
+     * Adds the subscription to this registry.
+     *
+     * @return {@code true} if the subscription was added, {@code false} if it was already registered
+     * @throws IllegalArgumentException if the destination of the subscription contains an invalid wildcard
+     */
+    public boolean subscribe(StompSubscription subscription) {
+        requireNonNull(subscription, "subscription");
+        List<String> segments = segments(subscription.destination());
+        synchronized (root) {
+            Node node = root;
+            for (String segment : segments) {
+                node = node.getOrCreateChild(segment);
+            }
+
+            if (!node.subscriptions.add(subscription)) {
+                return false;
+            }
+
+            size++;
+            return true;
+        }
+    }
+
+    /**
+     * Subscribes the channel to the destination and indexes the subscription by id in the
+     * {@link StompChannelSubscriptions} of the channel. Must be called from the event loop of the channel.
+     *
+     * @return the new subscription, or {@code null} if the channel already has a subscription with the same id
+     * @throws IllegalArgumentException if the destination contains an invalid wildcard
+     * @throws IllegalStateException if the channel already has subscriptions in another registry
+     */
+    public StompSubscription subscribe(Channel channel, String id, String destination) {
+        StompChannelSubscriptions table = StompChannelSubscriptions.getOrCreate(channel, this);
+        if (table.contains(id)) {
+            return null;
+        }
+
+        StompSubscription subscription = new StompSubscription(id, destination, channel);
+        subscribe(subscription);
+        table.put(subscription);
+        return subscription;
+    }
+
+    /**
+     * Removes the subscription from this registry.
+     *
+     * @return {@code true} if the subscription was removed, {@code false} if it was not registered
+     */
+    public boolean unsubscribe(StompSubscription subscription) {
+        requireNonNull(subscription, "subscription");
+        synchronized (root) {
+            return remove(subscription);
+        }
+    }
+
+    /**
+     * Removes the subscription with the given id of the channel, which must have been added with
+     * {@link #subscribe(Channel, String, String)}. Must be called from the event loop of the channel.
+     *
+     * @return the removed subscription, or {@code null} if the channel has no subscription with this id
+     */
+    public StompSubscription unsubscribe(Channel channel, String id) {
+        StompChannelSubscriptions table = StompChannelSubscriptions.get(channel);
+        if (table == null || table.registry() != this) {
+            return null;
+        }
+
+        StompSubscription subscription = table.remove(id);
+        if (subscription != null) {
+            unsubscribe(subscription);
+        }
+
+        return subscription;
+    }
+
+    /**
+     * Removes all subscriptions of the channel added with {@link #subscribe(Channel, String, String)}. This happens
+     * automatically when the channel is closed. Must be called from the event loop of the channel.
+     *
+     * @return the number of removed subscriptions
+     */
+    public int unsubscribeAll(Channel channel) {
+        StompChannelSubscriptions table = StompChannelSubscriptions.get(channel);
+        if (table == null || table.registry() != this) {
+            return 0;
+        }
+
+        return table.unsubscribeAll();
+    }
+
+    void unsubscribeAll(Collection<StompSubscription> subscriptions) {
+        synchronized (root) {
+            for (StompSubscription subscription : subscriptions) {
+                remove(subscription);
+            }
+        }
+    }
+
+    private boolean remove(StompSubscription subscription) {
+        List<String> segments;
+        try {
+            segments = segments(subscription.destination());
+        } catch (IllegalArgumentException ignore) {
+            return false;
+        }
+
+        Node node = root;
+        for (String segment : segments) {
+            node = node.child(segment);
+            if (node == null) {
+                return false;
+            }
+        }
+
+        if (!node.subscriptions.remove(subscription)) {
+            return false;
+        }
+
+        size--;
+        node.pruneIfEmpty();
+        return true;
+    }
+
+    /**
+     * Passes every subscription matching the destination to the consumer. The destination is taken literally, it
+     * is not interpreted as a pattern.
+     */
+    public void match(String destination, Consumer<? super StompSubscription> consumer) {
+        requireNonNull(destination, "destination");
+        requireNonNull(consumer, "consumer");
+        match(root, destination, 0, consumer);
+    }
+
+    /**
+     * Returns the subscriptions matching the destination.
+     *
+     * @see #match(String, Consumer)
+     */
+    public List<StompSubscription> match(String destination) {
+        List<StompSubscription> subscriptions = new ArrayList<>();
+        match(destination, subscriptions::add);
+        return subscriptions;
+    }
+
+    /**
+     * Returns the number of registered subscriptions.
+     */
+    public int size() {
+        return size;
+    }
+
+    private static void match(Node node, String destination, int index, Consumer<? super StompSubscription> consumer) {
+        for (;;) {
+            Node multiWildcard = node.multiWildcard;
+            if (multiWildcard != null) {
+                multiWildcard.subscriptions.forEach(consumer);
+            }
+
+            int start = skipDelimiters(destination, index);
+            if (start == destination.length()) {
+                node.subscriptions.forEach(consumer);
+                return;
+            }
+
+            int end = nextDelimiter(destination, start);
+            Node singleWildcard = node.singleWildcard;
+            if (singleWildcard != null) {
+                match(singleWildcard, destination, end, consumer);
+            }
+
+            Node child = node.children.get(destination.substring(start, end));
+            if (child == null) {
+                return;
+            }
+
+            node = child;
+            index = end;
+        }
+    }
+
+    static List<String> segments(String destination) {
+        List<String> segments = new ArrayList<>();
+        int index = 0;
+        for (;;) {
+            int start = skipDelimiters(destination, index);
+            if (start == destination.length()) {
+                return segments;
+            }
+
+            int end = nextDelimiter(destination, start);
+            String segment = destination.substring(start, end);
+            if (!segments.isEmpty() && MULTI_WILDCARD.equals(segments.get(segments.size() - 1))) {
+                throw new IllegalArgumentException(
+                        "wildcard '" + MULTI_WILDCARD + "' must be the last segment: " + destination);
+            }
+            if (segment.length() > 1 && (segment.indexOf('*') >= 0 || segment.indexOf('#') >= 0)) {
+                throw new IllegalArgumentException("wildcards must be a whole segment: " + destination);
+            }
+
+            segments.add(segment);
+            index = end;
+        }
+    }
+
+    private static int skipDelimiters(String destination, int index) {
+        int length = destination.length();
+        while (index < length && isDelimiter(destination.charAt(index))) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static int nextDelimiter(String destination, int index) {
+        int length = destination.length();
+        while (index < length && !isDelimiter(destination.charAt(index))) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == '/' || c == '.';
+    }
+
+    private static final class Node {
+
+        final Node parent;
+        final String segment;
+        final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>(4);
+        final Set<StompSubscription> subscriptions = ConcurrentHashMap.newKeySet(4);
+        volatile Node singleWildcard;
+        volatile Node multiWildcard;
+
+        Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        Node child(String segment) {
+            switch (segment) {
+                case SINGLE_WILDCARD:
+                    return singleWildcard;
+                case MULTI_WILDCARD:
+                    return multiWildcard;
+                default:
+                    return children.get(segment);
+            }
+        }
+
+        Node getOrCreateChild(String segment) {
+            Node child = child(segment);
+            if (child != null) {
+                return child;
+            }
+
+            child = new Node(this, segment);
+            switch (segment) {
+                case SINGLE_WILDCARD:
+                    singleWildcard = child;
+                    break;
+                case MULTI_WILDCARD:
+                    multiWildcard = child;
+                    break;
+                default:
+                    children.put(segment, child);
+            }
+
+            return child;
+        }
+
+        void pruneIfEmpty() {
+            Node node = this;
+            while (node.parent != null && node.isEmpty()) {
+                Node parent = node.parent;
+                switch (node.segment) {
+                    case SINGLE_WILDCARD:
+                        parent.singleWildcard = null;
+                        break;
+                    case MULTI_WILDCARD:
+                        parent.multiWildcard = null;
+                        break;
+                    default:
+                        parent.children.remove(node.segment, node);
+                }
+                node = parent;
+            }
+        }
+
+        private boolean isEmpty() {
+            return subscriptions.isEmpty() && children.isEmpty() && singleWildcard == null && multiWildcard == null;
+        }
+    }
+}
@@ -0,0 +1,643 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
+import io.netty5.channel.Channel;
+import io.netty5.util.internal.ObjectUtil;
+import io.netty5.util.internal.logging.InternalLogger;
+import io.netty5.util.internal.logging.InternalLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static io.netty5.buffer.DefaultBufferAllocators.offHeapAllocator;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Retains the last messages published by a {@link StompBroker} to some destinations, so they can be replayed to new
+ * subscribers.
+ * <p>
+ * The messages are kept already encoded in off-heap chunks, one sequence of chunks per destination, without the
+ * {@code subscription} header, which is the only header of a {@code MESSAGE} frame specific to a subscriber. A replay
+ * writes each message as a small {@code MESSAGE} command line with the {@code subscription} header, composed with a
+ * read-only slice sharing the memory of the chunk, so nothing is encoded again. Only the messages of the chunk still
+ * being written are copied. Only the position and the length of each message are tracked, in primitive arrays.
+ * <p>
+ * Each retained message gets a {@value #SEQUENCE_HEADER} header, consecutive per destination, which is also part of
+ * the {@code MESSAGE} frames delivered live. A {@code SUBSCRIBE} frame requests a replay with a
+ * {@value #REPLAY_LAST_HEADER} header holding a number of messages, or a {@value #REPLAY_FROM_HEADER} header holding
+ * the first sequence to replay. A message published while a subscription is being created may be delivered both
+ * live and replayed, subscribers can use its sequence to ignore the duplicate.
+ * <p>
+ * Each destination retains at most a given number of messages, and the chunks of all destinations are accounted
+ * against a global limit. When a new chunk exceeds it, the oldest chunks of all destinations are evicted first, taken
+ * from a queue of the chunks in allocation order. Each destination has a lock of its own, and messages are encoded
+ * before taking it.
+ * The replayed frames are written as {@link Buffer}s and bypass the {@link StompFrameEncoder}, and thereby any handler
+ * tracking {@code MESSAGE} frames, so replays are meant for subscriptions in {@code auto} acknowledgement mode.
+ */
+public class StompTopicHistory implements AutoCloseable {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(StompTopicHistory.class);
+
+    /**
+     * The name of the header of the {@code SUBSCRIBE} frame holding the number of messages to replay.
+     */
+    public static final String REPLAY_LAST_HEADER = "replay-last";
+
+    /**
+     * The name of the header of the {@code SUBSCRIBE} frame holding the sequence of the first message to replay.
+     */
+    public static final String REPLAY_FROM_HEADER = "replay-from";
+
+    /**
+     * The name of the header of the {@code MESSAGE} frames holding their sequence in the history of the destination.
+     */
+    public static final String SEQUENCE_HEADER = "history-sequence";
+
+    /**
+     * The default size of the chunks, 64 KiB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 << 10;
+
+    private static final int COMMAND_LINE_LENGTH = StompCommand.MESSAGE.name().length() + 1;
+    private static final int INITIAL_ENTRIES = 16;
+    private static final int INITIAL_CHUNKS = 4;
+
+    private final Predicate<String> retainedDestinations;
+    private final int maxMessages;
+    private final long maxBytes;
+    private final int chunkSize;
+    private final BufferAllocator allocator;
+    private final StompFrameEncoder encoder = new StompFrameEncoder();
+    private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final ConcurrentLinkedQueue<Allocation> allocations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger releasedAllocations = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new instance with the default chunk size, allocating off-heap.
+     *
+     * @param retainedDestinations selects the destinations whose messages are retained
+     * @param maxMessages          the maximum number of messages retained per destination
+     * @param maxBytes             the maximum number of bytes of the chunks of all destinations
+     */
+    public StompTopicHistory(Predicate<String> retainedDestinations, int maxMessages, long maxBytes) {
+        this(retainedDestinations, maxMessages, maxBytes, DEFAULT_CHUNK_SIZE, offHeapAllocator());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param retainedDestinations selects the destinations whose messages are retained
+     * @param maxMessages          the maximum number of messages retained per destination
+     * @param maxBytes             the maximum number of bytes of the chunks of all destinations
+     * @param chunkSize            the size of the chunks, larger messages get a chunk of their own
+     * @param allocator            the allocator of the chunks
+     */
+    public StompTopicHistory(Predicate<String> retainedDestinations, int maxMessages, long maxBytes, int chunkSize,
+                             BufferAllocator allocator) {
+        this.retainedDestinations = requireNonNull(retainedDestinations, "retainedDestinations");
+        this.maxMessages = ObjectUtil.checkPositive(maxMessages, "maxMessages");
+        this.maxBytes = ObjectUtil.checkPositive(maxBytes, "maxBytes");
+        this.chunkSize = ObjectUtil.checkPositive(chunkSize, "chunkSize");
+        this.allocator = requireNonNull(allocator, "allocator");
+    }
+
+    /**
+     * Returns {@code true} if the messages of the destination are retained.
+     */
+    public boolean retains(String destination) {
+        return retainedDestinations.test(destination);
+    }
+
+    /**
+     * Returns the number of bytes of the chunks of all destinations.
+     */
+    public long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Returns the number of messages retained for the destination.
+     */
+    public int size(String destination) {
+        History history = histories.get(destination);
+        if (history == null) {
+            return 0;
+        }
+        synchronized (history) {
+            return history.count;
+        }
+    }
+
+    /**
+     * Replays the messages requested by the {@value #REPLAY_LAST_HEADER} or {@value #REPLAY_FROM_HEADER} header of a
+     * {@code SUBSCRIBE} frame, if any. Must be called from the event loop of the subscriber, after the subscription
+     * has been registered.
+     *
+     * @return the number of replayed messages
+     */
+    public int replay(StompSubscription subscription, StompHeaders subscribeHeaders) {
+        try {
+            String last = subscribeHeaders.getAsString(REPLAY_LAST_HEADER);
+            if (last != null) {
+                return replayLast(subscription, Integer.parseInt(last.trim()));
+            }
+
+            String from = subscribeHeaders.getAsString(REPLAY_FROM_HEADER);
+            if (from != null) {
+                return replayFrom(subscription, Long.parseLong(from.trim()));
+            }
+        } catch (NumberFormatException ignore) {
+            // nothing to replay
+        }
+
+        return 0;
+    }
+
+    /**
+     * Writes and flushes the last {@code count} retained messages of the destination of the subscription.
+     *
+     * @return the number of replayed messages
+     */
+    public int replayLast(StompSubscription subscription, int count) {
+        return replay(subscription, count, -1);
+    }
+
+    /**
+     * Writes and flushes the retained messages of the destination of the subscription, starting from the given
+     * sequence.
+     *
+     * @return the number of replayed messages
+     */
+    public int replayFrom(StompSubscription subscription, long fromSequence) {
+        return replay(subscription, Integer.MAX_VALUE, fromSequence);
+    }
+
+    /**
+     * Releases all chunks, the messages are no longer retained.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (History history : histories.values()) {
+            synchronized (history) {
+                history.clear();
+            }
+        }
+        histories.clear();
+        allocations.clear();
+        releasedAllocations.set(0);
+    }
+
+    /**
+     * Writes a replayed {@code MESSAGE} frame to the channel of the subscription without flushing it. Called from the
+     * event loop of the subscriber.
+     *
+     * @param encodedFrame the complete encoded frame
+     */
+    protected void deliver(StompSubscription subscription, Buffer encodedFrame) {
+        subscription.channel().write(encodedFrame);
+    }
+
+    /**
+     * Retains the message, adding its {@value #SEQUENCE_HEADER} header to the given headers.
+     *
+     * @param messageHeaders the headers shared by the {@code MESSAGE} frames of the message
+     * @param payload        the payload of the message, neither closed nor consumed
+     */
+    void add(String destination, StompHeaders messageHeaders, Buffer payload) {
+        if (closed) {
+            return;
+        }
+
+        // The sequence is only known under the lock, so its header line is written into the chunk separately.
+        messageHeaders.remove(SEQUENCE_HEADER);
+        Buffer encoded;
+        try (FullStompFrame frame = new DefaultFullStompFrame(StompCommand.MESSAGE, payload.copy(true))) {
+            frame.headers().set(messageHeaders);
+            encoded = encoder.encode(frame, allocator).skipReadableBytes(COMMAND_LINE_LENGTH);
+        }
+
+        History history = histories.computeIfAbsent(destination, name -> new History());
+        long sequence;
+        try (encoded) {
+            synchronized (history) {
+                if (closed) {
+                    return;
+                }
+                sequence = history.add(encoded);
+            }
+        }
+        messageHeaders.set(SEQUENCE_HEADER, Long.toString(sequence));
+        evictOverLimit();
+        purgeReleasedAllocations();
+    }
+
+    private int replay(StompSubscription subscription, int count, long fromSequence) {
+        requireNonNull(subscription, "subscription");
+        Channel channel = subscription.channel();
+        assert channel.executor().inEventLoop();
+        if (count <= 0) {
+            return 0;
+        }
+
+        List<Buffer> messages = new ArrayList<>();
+        History history = histories.get(subscription.destination());
+        if (history != null) {
+            synchronized (history) {
+                history.slices(count, fromSequence, messages);
+            }
+        }
+
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        Supplier<Buffer> commandLine = allocator.constBufferSupplier(
+                ("MESSAGE\n" + StompHeaders.SUBSCRIPTION + ':' + escape(subscription.id()) + '\n').getBytes(UTF_8));
+        int replayed = 0;
+        for (Buffer message : messages) {
+            if (!channel.isActive()) {
+                message.close();
+                continue;
+            }
+
+            Buffer encodedFrame = allocator.compose(List.of(commandLine.get().send(), message.send()));
+            try {
+                deliver(subscription, encodedFrame);
+                replayed++;
+            } catch (Throwable cause) {
+                encodedFrame.close();
+                logger.warn("Failed to replay a message to {}", subscription, cause);
+            }
+        }
+        channel.flush();
+
+        return replayed;
+    }
+
+    private void evictOverLimit() {
+        // A single thread evicts at a time, holding the lock of one destination at a time. A thread failing to get
+        // the eviction lock leaves the work to the thread holding it, which checks the limit again once released.
+        while (retainedBytes.get() > maxBytes && evictionLock.tryLock()) {
+            try {
+                while (retainedBytes.get() > maxBytes) {
+                    Allocation oldest = allocations.poll();
+                    if (oldest == null) {
+                        return;
+                    }
+
+                    // The older allocations of the destination were polled first, so this one is its oldest chunk
+                    // unless it was already released.
+                    synchronized (oldest.history) {
+                        if (!oldest.released) {
+                            oldest.history.evictOldestChunk();
+                        }
+                    }
+                    releasedAllocations.decrementAndGet();
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes the allocations released by their destination from the queue once they outnumber the chunks which can
+     * be retained, so that the queue does not grow while the limit is not reached.
+     */
+    private void purgeReleasedAllocations() {
+        if (releasedAllocations.get() > Math.max(INITIAL_CHUNKS, maxBytes / chunkSize) && evictionLock.tryLock()) {
+            try {
+                allocations.removeIf(allocation -> {
+                    if (allocation.released) {
+                        releasedAllocations.decrementAndGet();
+                        return true;
+                    }
+                    return false;
+                });
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case ':':
+                    replacement = "\\c";
+                    break;
+                default:
+                    replacement = null;
+            }
+
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+
+        return escaped != null ? escaped.toString() : value;
+    }
+
+    /**
+     * The memory allocated for a chunk of a destination, queued for eviction until it is released.
+     */
+    private static final class Allocation {
+
+        final History history;
+        final int size;
+        volatile boolean released;
+
+        Allocation(History history, int size) {
+            this.history = history;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A read-only chunk holding consecutive messages of a destination, starting at a logical offset.
+     */
+    private static final class Chunk {
+
+        final Buffer buffer;
+        final long start;
+        final Allocation allocation;
+
+        Chunk(Buffer buffer, long start, Allocation allocation) {
+            this.buffer = buffer;
+            this.start = start;
+            this.allocation = allocation;
+        }
+
+        long end() {
+            return start + buffer.capacity();
+        }
+    }
+
+    /**
+     * The retained messages of one destination, guarded by its monitor. Messages are written into the active chunk,
+     * which is split into a read-only chunk when it is full. Positions are logical offsets over the sequence of chunks
+     * of the destination, so the chunk holding a message is found by a binary search.
+     */
+    private final class History {
+
+        private Chunk[] chunks = new Chunk[INITIAL_CHUNKS];
+        private int chunkHead;
+        private int chunkCount;
+        private Buffer active;
+        private long activeStart;
+        private Allocation activeAllocation;
+        private long[] offsets = new long[INITIAL_ENTRIES];
+        private int[] lengths = new int[INITIAL_ENTRIES];
+        private int head;
+        private int count;
+        private long firstSequence;
+
+        boolean hasChunks() {
+            return chunkCount > 0 || active != null;
+        }
+
+        /**
+         * Retains the encoded message after a {@value #SEQUENCE_HEADER} header line, returning its sequence.
+         */
+        long add(Buffer encoded) {
+            long sequence = firstSequence + count;
+            String sequenceLine = SEQUENCE_HEADER + ':' + sequence + '\n';
+            int length = sequenceLine.length() + encoded.readableBytes();
+            if (length > maxBytes) {
+                // Never retained, and the sequences of the retained messages must stay consecutive.
+                while (hasChunks()) {
+                    evictOldestChunk();
+                }
+                firstSequence++;
+                return sequence;
+            }
+
+            if (active == null || active.writableBytes() < length) {
+                retireActive();
+                int size = Math.max(chunkSize, length);
+                retainedBytes.addAndGet(size);
+                active = allocator.allocate(size);
+                activeAllocation = new Allocation(this, size);
+                allocations.add(activeAllocation);
+            }
+
+            if (count == maxMessages) {
+                evictOldestMessage();
+            }
+            if (count == offsets.length) {
+                grow();
+            }
+
+            int index = (head + count) % offsets.length;
+            offsets[index] = activeStart + active.writerOffset();
+            lengths[index] = length;
+            count++;
+            active.writeCharSequence(sequenceLine, US_ASCII);
+            active.writeBytes(encoded);
+            return sequence;
+        }
+
+        void slices(int maxCount, long fromSequence, List<Buffer> slices) {
+            int skip = fromSequence >= 0 ? (int) Math.min(count, Math.max(0, fromSequence - firstSequence)) :
+                    Math.max(0, count - maxCount);
+            if (skip == count) {
+                return;
+            }
+
+            int chunkIndex = -1;
+            for (int i = skip; i < count; i++) {
+                int index = (head + i) % offsets.length;
+                long offset = offsets[index];
+                if (active != null && offset >= activeStart) {
+                    // The active chunk is still written, so it can not be shared.
+                    slices.add(active.copy((int) (offset - activeStart), lengths[index], true));
+                    continue;
+                }
+
+                if (chunkIndex < 0) {
+                    chunkIndex = findChunk(offset);
+                }
+                Chunk chunk = chunkAt(chunkIndex);
+                while (offset >= chunk.end()) {
+                    chunk = chunkAt(++chunkIndex);
+                }
+                slices.add(chunk.buffer.copy((int) (offset - chunk.start), lengths[index], true));
+            }
+        }
+
+        void evictOldestChunk() {
+            long end;
+            if (chunkCount > 0) {
+                Chunk chunk = removeFirstChunk();
+                end = chunk.end();
+                release(chunk.allocation);
+                chunk.buffer.close();
+            } else {
+                end = Long.MAX_VALUE;
+                release(activeAllocation);
+                active.close();
+                active = null;
+            }
+
+            while (count > 0 && offsets[head] < end) {
+                removeHead();
+            }
+        }
+
+        void clear() {
+            while (hasChunks()) {
+                evictOldestChunk();
+            }
+        }
+
+        private void evictOldestMessage() {
+            removeHead();
+            if (chunkCount > 0 && (count == 0 || offsets[head] >= chunks[chunkHead].end())) {
+                Chunk oldest = removeFirstChunk();
+                release(oldest.allocation);
+                oldest.buffer.close();
+            }
+        }
+
+        private void release(Allocation allocation) {
+            retainedBytes.addAndGet(-allocation.size);
+            allocation.released = true;
+            releasedAllocations.incrementAndGet();
+        }
+
+        private void removeHead() {
+            head = (head + 1) % offsets.length;
+            count--;
+            firstSequence++;
+        }
+
+        /**
+         * Moves the written part of the full active chunk into a read-only chunk. Its unused end shares the same
+         * memory, so it is accounted and released along with it.
+         */
+        private void retireActive() {
+            if (active == null) {
+                return;
+            }
+
+            int written = active.writerOffset();
+            if (written > 0) {
+                Buffer sealed = active.split().makeReadOnly();
+                addChunk(new Chunk(sealed, activeStart, activeAllocation));
+                activeStart += written;
+            } else {
+                release(activeAllocation);
+            }
+            active.close();
+            active = null;
+        }
+
+        private int findChunk(long offset) {
+            int low = 0;
+            int high = chunkCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (chunkAt(middle).start <= offset) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        private Chunk chunkAt(int index) {
+            return chunks[(chunkHead + index) % chunks.length];
+        }
+
+        private void addChunk(Chunk chunk) {
+            if (chunkCount == chunks.length) {
+                Chunk[] newChunks = new Chunk[chunks.length << 1];
+                for (int i = 0; i < chunkCount; i++) {
+                    newChunks[i] = chunkAt(i);
+                }
+                chunks = newChunks;
+                chunkHead = 0;
+            }
+            chunks[(chunkHead + chunkCount) % chunks.length] = chunk;
+            chunkCount++;
+        }
+
+        private Chunk removeFirstChunk() {
+            Chunk chunk = chunks[chunkHead];
+            chunks[chunkHead] = null;
+            chunkHead = (chunkHead + 1) % chunks.length;
+            chunkCount--;
+            return chunk;
+        }
+
+        private void grow() {
+            int capacity = Math.min(maxMessages, offsets.length << 1);
+            long[] newOffsets = new long[capacity];
+            int[] newLengths = new int[capacity];
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) % offsets.length;
+                newOffsets[i] = offsets[index];
+                newLengths[i] = lengths[index];
+            }
+            offsets = newOffsets;
+            lengths = newLengths;
+            head = 0;
+        }
+    }
+}
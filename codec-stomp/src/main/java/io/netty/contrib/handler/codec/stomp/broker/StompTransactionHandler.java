@@ -0,0 +1,267 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelFutureListeners;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelPipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ChannelHandler} implementing the STOMP transactions of a server-side connection.
+ * <p>
+ * {@code BEGIN}, {@code COMMIT} and {@code ABORT} frames are consumed by this handler. {@code SEND}, {@code ACK} and
+ * {@code NACK} frames carrying a {@code transaction} header are kept as they are, without copying their payload,
+ * until the transaction ends. On {@code COMMIT} all buffered {@code SEND} frames are published to the
+ * {@link StompBroker} of the {@link StompTransactionManager} and dispatched by a single {@link StompBroker#flush}, and
+ * the buffered {@code ACK} and {@code NACK} frames are passed on to the next handlers; on {@code ABORT} they are all
+ * discarded. Frames without {@code transaction} header are passed on unchanged.
+ * <p>
+ * The bytes of the open transactions are limited per connection and across all connections of the manager. Each
+ * buffered frame counts for its payload, its header lines and a fixed cost of {@value #FRAME_OVERHEAD} bytes, so
+ * that frames without payload are limited as well. A protocol violation, such as a {@code SEND} frame without
+ * {@code destination} header, an exceeded limit or a failure to publish a committed frame is answered with an
+ * {@code ERROR} frame and closes the connection.
+ * Insert this handler after the {@link io.netty.contrib.handler.codec.stomp.StompFrameAggregator} in the
+ * {@link ChannelPipeline}, in front of {@link StompFlowControlHandler}.
+ */
+public class StompTransactionHandler implements ChannelHandler {
+
+    /**
+     * The number of bytes a buffered frame counts for in addition to its payload and headers.
+     */
+    public static final int FRAME_OVERHEAD = 64;
+
+    private final StompTransactionManager manager;
+    private final Map<String, List<FullStompFrame>> transactions = new HashMap<>();
+    private long connectionBytes;
+
+    public StompTransactionHandler(StompTransactionManager manager) {
+        this.manager = requireNonNull(manager, "manager");
+    }
+
+    /**
+     * Returns the number of bytes buffered by the open transactions of this connection.
+     */
+    public long connectionBytes() {
+        return connectionBytes;
+    }
+
+    /**
+     * Returns the number of open transactions of this connection.
+     */
+    public int openTransactions() {
+        return transactions.size();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullStompFrame)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        FullStompFrame frame = (FullStompFrame) msg;
+        switch (frame.command()) {
+            case BEGIN:
+                try (frame) {
+                    onBegin(ctx, frame);
+                }
+                break;
+            case COMMIT:
+                try (frame) {
+                    onCommit(ctx, frame);
+                }
+                break;
+            case ABORT:
+                try (frame) {
+                    onAbort(ctx, frame);
+                }
+                break;
+            case SEND:
+            case ACK:
+            case NACK:
+                String transaction = frame.headers().getAsString(StompHeaders.TRANSACTION);
+                if (transaction == null) {
+                    ctx.fireChannelRead(frame);
+                } else {
+                    buffer(ctx, transaction, frame);
+                }
+                break;
+            default:
+                ctx.fireChannelRead(frame);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        abortAll();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        abortAll();
+    }
+
+    private void onBegin(ChannelHandlerContext ctx, FullStompFrame frame) {
+        String transaction = frame.headers().getAsString(StompHeaders.TRANSACTION);
+        if (transaction == null) {
+            sendError(ctx, "missing transaction header");
+            return;
+        }
+
+        if (transactions.putIfAbsent(transaction, new ArrayList<>()) != null) {
+            sendError(ctx, "transaction already started: " + transaction);
+            return;
+        }
+
+        sendReceipt(ctx, frame);
+    }
+
+    private void onCommit(ChannelHandlerContext ctx, FullStompFrame frame) {
+        String transaction = frame.headers().getAsString(StompHeaders.TRANSACTION);
+        List<FullStompFrame> frames = transaction != null ? transactions.remove(transaction) : null;
+        if (frames == null) {
+            sendError(ctx, "unknown transaction: " + transaction);
+            return;
+        }
+
+        StompBroker broker = manager.broker();
+        boolean published = false;
+        long bytes = 0;
+        try {
+            for (int i = 0; i < frames.size(); i++) {
+                FullStompFrame bufferedFrame = frames.set(i, null);
+                bytes += bufferedSize(bufferedFrame);
+                if (bufferedFrame.command() == StompCommand.SEND) {
+                    try (bufferedFrame) {
+                        broker.publish(ctx, bufferedFrame);
+                        published = true;
+                    }
+                } else {
+                    ctx.fireChannelRead(bufferedFrame);
+                }
+            }
+        } catch (RuntimeException e) {
+            // The frames published so far can not be taken back, the client learns the commit failed part way.
+            abortAll();
+            sendError(ctx, "failed to commit transaction " + transaction + ": " + e.getMessage());
+            return;
+        } finally {
+            release(frames, bytes);
+            if (published) {
+                broker.flush(ctx);
+            }
+        }
+
+        sendReceipt(ctx, frame);
+    }
+
+    private void onAbort(ChannelHandlerContext ctx, FullStompFrame frame) {
+        String transaction = frame.headers().getAsString(StompHeaders.TRANSACTION);
+        List<FullStompFrame> frames = transaction != null ? transactions.remove(transaction) : null;
+        if (frames == null) {
+            sendError(ctx, "unknown transaction: " + transaction);
+            return;
+        }
+
+        release(frames, 0);
+        sendReceipt(ctx, frame);
+    }
+
+    private void buffer(ChannelHandlerContext ctx, String transaction, FullStompFrame frame) {
+        List<FullStompFrame> frames = transactions.get(transaction);
+        if (frames == null) {
+            frame.close();
+            sendError(ctx, "unknown transaction: " + transaction);
+            return;
+        }
+
+        if (frame.command() == StompCommand.SEND && !frame.headers().contains(StompHeaders.DESTINATION)) {
+            frame.close();
+            abortAll();
+            sendError(ctx, "missing destination header");
+            return;
+        }
+
+        int bytes = bufferedSize(frame);
+        if (connectionBytes + bytes > manager.maxConnectionBytes() || !manager.tryReserve(bytes)) {
+            frame.close();
+            abortAll();
+            sendError(ctx, "transaction too large: " + transaction);
+            return;
+        }
+
+        connectionBytes += bytes;
+        frames.add(frame);
+    }
+
+    private void release(List<FullStompFrame> frames, long releasedBytes) {
+        long bytes = releasedBytes;
+        for (FullStompFrame frame : frames) {
+            if (frame != null) {
+                bytes += bufferedSize(frame);
+                frame.close();
+            }
+        }
+
+        connectionBytes -= bytes;
+        manager.release(bytes);
+    }
+
+    private static int bufferedSize(FullStompFrame frame) {
+        int size = FRAME_OVERHEAD + frame.payload().readableBytes();
+        for (Entry<CharSequence, CharSequence> header : frame.headers()) {
+            size += header.getKey().length() + header.getValue().length() + 2;
+        }
+        return size;
+    }
+
+    private void abortAll() {
+        for (List<FullStompFrame> frames : transactions.values()) {
+            release(frames, 0);
+        }
+        transactions.clear();
+    }
+
+    private static void sendReceipt(ChannelHandlerContext ctx, FullStompFrame frame) {
+        String receiptId = frame.headers().getAsString(StompHeaders.RECEIPT);
+        if (receiptId != null) {
+            FullStompFrame receiptFrame = new DefaultFullStompFrame(StompCommand.RECEIPT);
+            receiptFrame.headers().set(StompHeaders.RECEIPT_ID, receiptId);
+            ctx.writeAndFlush(receiptFrame);
+        }
+    }
+
+    private static void sendError(ChannelHandlerContext ctx, String message) {
+        FullStompFrame errorFrame = new DefaultFullStompFrame(StompCommand.ERROR);
+        errorFrame.headers().set(StompHeaders.MESSAGE, message);
+        ctx.writeAndFlush(errorFrame).addListener(ctx, ChannelFutureListeners.CLOSE);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty5.util.internal.ObjectUtil;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The state shared by the {@link StompTransactionHandler}s of a broker: the {@link StompBroker} committed messages
+ * are published to, and the byte limits of the buffered transactions.
+ */
+public final class StompTransactionManager {
+
+    private final StompBroker broker;
+    private final long maxConnectionBytes;
+    private final long maxGlobalBytes;
+    private final AtomicLong globalBytes = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param broker             the broker committed {@code SEND} frames are published to
+     * @param maxConnectionBytes the maximum number of bytes buffered by the open transactions of a connection
+     * @param maxGlobalBytes     the maximum number of bytes buffered by all open transactions
+     */
+    public StompTransactionManager(StompBroker broker, long maxConnectionBytes, long maxGlobalBytes) {
+        this.broker = requireNonNull(broker, "broker");
+        this.maxConnectionBytes = ObjectUtil.checkPositive(maxConnectionBytes, "maxConnectionBytes");
+        this.maxGlobalBytes = ObjectUtil.checkPositive(maxGlobalBytes, "maxGlobalBytes");
+    }
+
+    /**
+     * Creates the handler of a new connection.
+     */
+    public StompTransactionHandler newHandler() {
+        return new StompTransactionHandler(this);
+    }
+
+    public StompBroker broker() {
+        return broker;
+    }
+
+    public long maxConnectionBytes() {
+        return maxConnectionBytes;
+    }
+
+    public long maxGlobalBytes() {
+        return maxGlobalBytes;
+    }
+
+    /**
+     * Returns the number of bytes currently buffered by all open transactions.
+     */
+    public long globalBytes() {
+        return globalBytes.get();
+    }
+
+    boolean tryReserve(long bytes) {
+        for (;;) {
+            long current = globalBytes.get();
+            long next = current + bytes;
+            if (next > maxGlobalBytes) {
+                return false;
+            }
+            if (globalBytes.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long bytes) {
+        if (bytes > 0) {
+            globalBytes.addAndGet(-bytes);
+        }
+    }
+}
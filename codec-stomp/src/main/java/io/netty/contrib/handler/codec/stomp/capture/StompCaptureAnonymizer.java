@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.capture;
+
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+
+import java.util.Set;
+
+/**
+ * Replaces the header values of a STOMP byte stream by {@code x} characters in place, keeping track of the frame
+ * boundaries across reads. Only the lengths of the bodies are needed, which come from the {@code content-length}
+ * header or from the {@code NUL} octet ending the frame.
+ */
+final class StompCaptureAnonymizer {
+
+    private enum State {
+        FRAME_START,
+        COMMAND,
+        HEADER_START,
+        HEADER_NAME,
+        HEADER_VALUE,
+        BODY_LENGTH,
+        BODY_END
+    }
+
+    private static final byte MASK = 'x';
+
+    private final Set<String> preservedHeaders;
+    private final StringBuilder headerName = new StringBuilder(32);
+    private State state = State.FRAME_START;
+    private boolean preserveValue;
+    private boolean contentLengthValue;
+    private long contentLength = -1;
+    private long remainingBodyBytes;
+
+    StompCaptureAnonymizer(Set<String> preservedHeaders) {
+        this.preservedHeaders = preservedHeaders;
+    }
+
+    void anonymize(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            switch (state) {
+                case FRAME_START:
+                    if (b != '\n' && b != '\r') {
+                        state = State.COMMAND;
+                    }
+                    break;
+                case COMMAND:
+                    if (b == '\n') {
+                        state = State.HEADER_START;
+                    }
+                    break;
+                case HEADER_START:
+                    if (b == '\n') {
+                        startBody();
+                    } else if (b != '\r') {
+                        headerName.setLength(0);
+                        headerName.append((char) (b & 0xFF));
+                        state = State.HEADER_NAME;
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        startHeaderValue();
+                    } else if (b == '\n') {
+                        state = State.HEADER_START;
+                    } else {
+                        headerName.append((char) (b & 0xFF));
+                    }
+                    break;
+                case HEADER_VALUE:
+                    if (b == '\n') {
+                        contentLengthValue = false;
+                        state = State.HEADER_START;
+                    } else if (contentLengthValue) {
+                        if (b >= '0' && b <= '9') {
+                            contentLength = contentLength * 10 + (b - '0');
+                        }
+                    } else if (!preserveValue && b != '\r') {
+                        bytes[i] = MASK;
+                    }
+                    break;
+                case BODY_LENGTH:
+                    int skipped = (int) Math.min(remainingBodyBytes, length - i);
+                    remainingBodyBytes -= skipped;
+                    i += skipped - 1;
+                    if (remainingBodyBytes == 0) {
+                        state = State.BODY_END;
+                    }
+                    break;
+                case BODY_END:
+                    if (b == 0) {
+                        state = State.FRAME_START;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state: " + state);
+            }
+        }
+    }
+
+    private void startHeaderValue() {
+        String name = headerName.toString();
+        // The first content-length header wins, as with any repeated header.
+        contentLengthValue = contentLength < 0 && StompHeaders.CONTENT_LENGTH.contentEquals(name);
+        if (contentLengthValue) {
+            contentLength = 0;
+        }
+        preserveValue = contentLengthValue || preservedHeaders.contains(name);
+        state = State.HEADER_VALUE;
+    }
+
+    private void startBody() {
+        if (contentLength > 0) {
+            remainingBodyBytes = contentLength;
+            state = State.BODY_LENGTH;
+        } else {
+            state = State.BODY_END;
+        }
+        contentLength = -1;
+    }
+}
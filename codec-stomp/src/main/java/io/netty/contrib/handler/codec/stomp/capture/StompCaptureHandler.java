@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.capture;
+
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelPipeline;
+import io.netty5.util.internal.logging.InternalLogger;
+import io.netty5.util.internal.logging.InternalLoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ChannelHandler} which records the inbound byte stream of its channel into a capture file, one record per
+ * read along with its time, so it can be replayed later by {@link StompCaptureReplayer}.
+ * <p>
+ * Insert this handler right before the {@link StompFrameDecoder} in the {@link ChannelPipeline}. The inbound buffers
+ * are passed on untouched. Optionally the values of all headers but the preserved ones are replaced by as many
+ * {@code x} characters, so the capture keeps the sizes of the frames and of their headers but not their content. The
+ * {@code content-length} header is always preserved, as it is needed to find the end of the bodies. Bodies are
+ * recorded as they are.
+ * <p>
+ * The file is written through a buffer from the event loop, so this handler is meant to capture a limited amount of
+ * traffic for benchmarks, not to run permanently. A capture file contains the {@link #MAGIC} bytes followed by one
+ * record per read: the nanoseconds elapsed since the previous read and the length of the read as variable-length
+ * integers, then the bytes read.
+ */
+public class StompCaptureHandler implements ChannelHandler {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(StompCaptureHandler.class);
+
+    /**
+     * The first bytes of a capture file, including its format version.
+     */
+    static final byte[] MAGIC = { 'S', 'T', 'C', 'P', 1 };
+
+    /**
+     * The headers whose values are preserved by default when anonymizing: the ones describing the protocol and the
+     * content rather than the application.
+     */
+    public static final Set<String> DEFAULT_PRESERVED_HEADERS = Set.of(StompHeaders.ACCEPT_VERSION.toString(),
+            StompHeaders.VERSION.toString(), StompHeaders.HEART_BEAT.toString(),
+            StompHeaders.CONTENT_LENGTH.toString(), StompHeaders.CONTENT_TYPE.toString());
+
+    private final Path file;
+    private final StompCaptureAnonymizer anonymizer;
+    private DataOutputStream out;
+    private byte[] scratch = new byte[0];
+    private long lastReadNanos;
+
+    /**
+     * Creates a new instance recording the byte stream as it is.
+     */
+    public StompCaptureHandler(Path file) {
+        this.file = requireNonNull(file, "file");
+        anonymizer = null;
+    }
+
+    /**
+     * Creates a new instance anonymizing the values of all headers but the given ones.
+     *
+     * @param file              the capture file, replaced if it exists
+     * @param preservedHeaders  the names of the headers whose values are recorded as they are, for example
+     *                          {@link #DEFAULT_PRESERVED_HEADERS}
+     */
+    public StompCaptureHandler(Path file, Set<String> preservedHeaders) {
+        this.file = requireNonNull(file, "file");
+        anonymizer = new StompCaptureAnonymizer(requireNonNull(preservedHeaders, "preservedHeaders"));
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.write(MAGIC);
+        lastReadNanos = System.nanoTime();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        closeFile();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        closeFile();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (out != null && msg instanceof Buffer) {
+            record((Buffer) msg);
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    private void record(Buffer buffer) {
+        int length = buffer.readableBytes();
+        if (length == 0) {
+            return;
+        }
+
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.copyInto(buffer.readerOffset(), scratch, 0, length);
+        if (anonymizer != null) {
+            anonymizer.anonymize(scratch, length);
+        }
+
+        long now = System.nanoTime();
+        try {
+            writeVarLong(out, now - lastReadNanos);
+            writeVarLong(out, length);
+            out.write(scratch, 0, length);
+            lastReadNanos = now;
+        } catch (IOException e) {
+            logger.warn("Failed to write to the capture file {}, stopping the capture", file, e);
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        DataOutputStream out = this.out;
+        if (out != null) {
+            this.out = null;
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the capture file {}", file, e);
+            }
+        }
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.capture;
+
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.HeadersStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Replays a file recorded by {@link StompCaptureHandler} into an {@link EmbeddedChannel}, for example through a
+ * {@link StompFrameDecoder} and a {@link StompFrameAggregator}.
+ * <p>
+ * The whole capture is loaded in memory as read-only buffers of the given allocator, so a replay only measures the
+ * handlers of the channel. Reads are fed either as fast as possible or with the pacing they were recorded with.
+ */
+public final class StompCaptureReplayer {
+
+    /**
+     * How reads are spaced during a replay.
+     */
+    public enum Pacing {
+        /**
+         * Every read is fed right after the previous one.
+         */
+        MAX_SPEED,
+        /**
+         * Every read is fed as long after the previous one as it was captured.
+         */
+        ORIGINAL
+    }
+
+    private final Supplier<Buffer>[] reads;
+    private final long[] delaysNanos;
+    private final long totalBytes;
+
+    private StompCaptureReplayer(Supplier<Buffer>[] reads, long[] delaysNanos, long totalBytes) {
+        this.reads = reads;
+        this.delaysNanos = delaysNanos;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Loads a capture file.
+     *
+     * @throws IOException if the file cannot be read or is not a capture file
+     */
+    @SuppressWarnings("unchecked")
+    public static StompCaptureReplayer load(Path file, BufferAllocator allocator) throws IOException {
+        requireNonNull(allocator, "allocator");
+        List<Supplier<Buffer>> reads = new ArrayList<>();
+        long[] delaysNanos = new long[16];
+        long totalBytes = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] magic = new byte[StompCaptureHandler.MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, StompCaptureHandler.MAGIC)) {
+                throw new IOException("Not a STOMP capture file: " + file);
+            }
+
+            int first;
+            while ((first = in.read()) >= 0) {
+                long delayNanos = readVarLong(in, first);
+                int length = Math.toIntExact(readVarLong(in, in.readUnsignedByte()));
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+
+                if (reads.size() == delaysNanos.length) {
+                    delaysNanos = Arrays.copyOf(delaysNanos, delaysNanos.length * 2);
+                }
+                delaysNanos[reads.size()] = delayNanos;
+                reads.add(allocator.constBufferSupplier(bytes));
+                totalBytes += length;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated STOMP capture file: " + file, e);
+        }
+
+        return new StompCaptureReplayer(reads.toArray(new Supplier[0]), Arrays.copyOf(delaysNanos, reads.size()),
+                totalBytes);
+    }
+
+    /**
+     * Returns the number of captured reads.
+     */
+    public int reads() {
+        return reads.length;
+    }
+
+    /**
+     * Returns the number of captured bytes.
+     */
+    public long bytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the nanoseconds between the first and the last captured read.
+     */
+    public long durationNanos() {
+        long duration = 0;
+        for (int i = 1; i < delaysNanos.length; i++) {
+            duration += delaysNanos[i];
+        }
+        return duration;
+    }
+
+    /**
+     * Replays the capture through a new {@link StompFrameDecoder} and {@link StompFrameAggregator}, see
+     * {@link #replay(EmbeddedChannel, Pacing)}.
+     */
+    public long replay(Pacing pacing, int maxContentLength) {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameDecoder(),
+                new StompFrameAggregator<>(maxContentLength));
+        try {
+            return replay(channel, pacing);
+        } finally {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    /**
+     * Feeds every captured read to the channel and releases what comes out of it.
+     *
+     * @return the number of {@link HeadersStompFrame}s, including {@link FullStompFrame}s, read from the channel
+     */
+    public long replay(EmbeddedChannel channel, Pacing pacing) {
+        requireNonNull(channel, "channel");
+        requireNonNull(pacing, "pacing");
+        long frames = 0;
+        long dueNanos = System.nanoTime();
+        for (int i = 0; i < reads.length; i++) {
+            if (pacing == Pacing.ORIGINAL && i > 0) {
+                dueNanos += delaysNanos[i];
+                long waitNanos;
+                while ((waitNanos = dueNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+            }
+
+            channel.writeInbound(reads[i].get());
+            Object msg;
+            while ((msg = channel.readInbound()) != null) {
+                if (msg instanceof HeadersStompFrame) {
+                    frames++;
+                }
+                Resource.dispose(msg);
+            }
+        }
+        return frames;
+    }
+
+    private static long readVarLong(InputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+}
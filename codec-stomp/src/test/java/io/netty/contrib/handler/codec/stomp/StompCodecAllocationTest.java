@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks the heap allocated per encoded or decoded frame against a budget, so changes to the hot paths cannot
+ * silently allocate more. The budgets include the bookkeeping of {@link EmbeddedChannel} and the frame objects
+ * themselves; lower them when an optimization lands and only raise them for a good reason.
+ */
+class StompCodecAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 20_000;
+    private static final int MEASURED_ITERATIONS = 10_000;
+
+    // Measured on JDK 17 with about 25% headroom for other JVMs, in bytes per frame.
+    private static final long ENCODE_SEND_BUDGET = 2048;
+    private static final long ENCODE_MESSAGE_BUDGET = 2560;
+    private static final long DECODE_SEND_BUDGET = 2304;
+    private static final long DECODE_MESSAGE_BUDGET = 3584;
+    private static final long DECODE_AGGREGATE_MESSAGE_BUDGET = 4096;
+
+    private static final byte[] BODY = new byte[1024];
+
+    private static com.sun.management.ThreadMXBean threadMXBean;
+
+    @BeforeAll
+    static void checkAllocationMeasurement() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "thread allocation measurement is not available");
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported(), "thread allocation measurement is not supported");
+        assumeTrue(!Boolean.getBoolean("io.netty5.buffer.lifecycleTracingEnabled"),
+                "buffer lifecycle tracing allocates on every buffer operation");
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void shouldEncodeSendFrameWithinBudget() {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameEncoder());
+        Supplier<Buffer> body = channel.bufferAllocator().constBufferSupplier("hello".getBytes(UTF_8));
+
+        assertAllocation("encode SEND", ENCODE_SEND_BUDGET, () -> {
+            channel.writeOutbound(sendFrame(body.get()));
+            Resource.dispose(channel.readOutbound());
+        });
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldEncodeMessageFrameWithinBudget() {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameEncoder());
+        Supplier<Buffer> body = channel.bufferAllocator().constBufferSupplier(BODY);
+
+        assertAllocation("encode MESSAGE", ENCODE_MESSAGE_BUDGET, () -> {
+            channel.writeOutbound(messageFrame(body.get()));
+            Resource.dispose(channel.readOutbound());
+        });
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDecodeSendFrameWithinBudget() {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameDecoder());
+        Supplier<Buffer> input = encoded(channel, sendFrame(channel.bufferAllocator().copyOf("hello", UTF_8)));
+
+        assertAllocation("decode SEND", DECODE_SEND_BUDGET, () -> {
+            channel.writeInbound(input.get());
+            disposeInbound(channel);
+        });
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDecodeMessageFrameWithinBudget() {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameDecoder());
+        Supplier<Buffer> input = encoded(channel, messageFrame(channel.bufferAllocator().copyOf(BODY)));
+
+        assertAllocation("decode MESSAGE", DECODE_MESSAGE_BUDGET, () -> {
+            channel.writeInbound(input.get());
+            disposeInbound(channel);
+        });
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDecodeAndAggregateMessageFrameWithinBudget() {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameDecoder(),
+                new StompFrameAggregator<>(BODY.length));
+        Supplier<Buffer> input = encoded(channel, messageFrame(channel.bufferAllocator().copyOf(BODY)));
+
+        assertAllocation("decode and aggregate MESSAGE", DECODE_AGGREGATE_MESSAGE_BUDGET, () -> {
+            channel.writeInbound(input.get());
+            disposeInbound(channel);
+        });
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static void assertAllocation(String description, long budget, Runnable iteration) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            iteration.run();
+        }
+        long allocatedPerFrame = (threadMXBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_ITERATIONS;
+
+        assertThat(allocatedPerFrame)
+                .as("bytes allocated per frame to %s", description)
+                .isLessThanOrEqualTo(budget);
+    }
+
+    private static Supplier<Buffer> encoded(EmbeddedChannel channel, FullStompFrame frame) {
+        try (frame; Buffer buffer = new StompFrameEncoder().encode(frame, channel.bufferAllocator())) {
+            byte[] bytes = new byte[buffer.readableBytes()];
+            buffer.copyInto(buffer.readerOffset(), bytes, 0, bytes.length);
+            return channel.bufferAllocator().constBufferSupplier(bytes);
+        }
+    }
+
+    private static void disposeInbound(EmbeddedChannel channel) {
+        Object msg;
+        while ((msg = channel.readInbound()) != null) {
+            Resource.dispose(msg);
+        }
+    }
+
+    private static FullStompFrame sendFrame(Buffer body) {
+        FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND, body);
+        frame.headers()
+                .set(StompHeaders.DESTINATION, "/queue/a")
+                .set(StompHeaders.CONTENT_TYPE, "text/plain")
+                .set(StompHeaders.CONTENT_LENGTH, "5");
+        return frame;
+    }
+
+    private static FullStompFrame messageFrame(Buffer body) {
+        FullStompFrame frame = new DefaultFullStompFrame(StompCommand.MESSAGE, body);
+        frame.headers()
+                .set(StompHeaders.SUBSCRIPTION, "7")
+                .set(StompHeaders.MESSAGE_ID, "007")
+                .set(StompHeaders.DESTINATION, "/queue/chat")
+                .set(StompHeaders.CONTENT_TYPE, "application/octet-stream")
+                .set(StompHeaders.CONTENT_LENGTH, "1024")
+                .set(StompHeaders.ACK, "1")
+                .set("timestamp", "1640995200000");
+        return frame;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.handler.codec.DecoderException;
+import io.netty5.util.Resource;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static io.netty.contrib.handler.codec.stomp.StompTestConstants.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompCodecMetricsTest {
+
+    @Test
+    void shouldCountDecodedAndAggregatedFrames() {
+        StompCodecMetrics metrics = new StompCodecMetrics();
+        StompFrameDecoder decoder = new StompFrameDecoder(1024, 8);
+        decoder.setMetrics(metrics);
+        StompFrameAggregator<?> aggregator = new StompFrameAggregator<>(1024);
+        aggregator.setMetrics(metrics);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, aggregator);
+
+        writeInbound(channel, CONNECT_FRAME + '\n');
+        for (String part : SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS) {
+            writeInbound(channel, part);
+        }
+        writeInbound(channel, "\n" + SEND_FRAME_WITH_CONTENT_LENGTH);
+        disposeInbound(channel);
+
+        StompCodecMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.decodedFrames(StompCommand.CONNECT)).isOne();
+        assertThat(snapshot.decodedBytes(StompCommand.CONNECT)).isEqualTo(CONNECT_FRAME.length());
+        assertThat(snapshot.decodedFrames(StompCommand.SEND)).isEqualTo(2);
+        assertThat(snapshot.decodedBytes(StompCommand.SEND)).isEqualTo(
+                String.join("", SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS).length() +
+                SEND_FRAME_WITH_CONTENT_LENGTH.length() - 1);
+        assertThat(snapshot.decodedHeaders()).isEqualTo(2 + 2 + 3);
+        assertThat(snapshot.chunkedFrames()).isEqualTo(2);
+        assertThat(snapshot.singleBufferFrames()).isOne();
+        assertThat(snapshot.aggregatedFrames()).isEqualTo(3);
+        assertThat(snapshot.aggregatedBytes()).isEqualTo(38 + 17);
+        assertThat(snapshot.aggregatedSizes()[0]).isOne();
+        assertThat(snapshot.aggregatedSizes()[5]).isOne();
+        assertThat(snapshot.aggregatedSizes()[6]).isOne();
+        assertThat(snapshot.decodeFailures()).isEmpty();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldCountDecodeFailuresByCause() {
+        StompCodecMetrics metrics = new StompCodecMetrics();
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        decoder.setMetrics(metrics);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+
+        writeInbound(channel, "INVALID\n\n\0");
+        disposeInbound(channel);
+
+        Map<String, Long> failures = metrics.snapshot().decodeFailures();
+        assertThat(failures).containsExactly(Map.entry(DecoderException.class.getName(), 1L));
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldSumEncodedFramesOfAllThreads() throws Exception {
+        StompCodecMetrics metrics = new StompCodecMetrics();
+        CompletableFuture.runAsync(() -> encodeSendFrame(metrics)).get();
+        encodeSendFrame(metrics);
+
+        StompCodecMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.encodedFrames(StompCommand.SEND)).isEqualTo(2);
+        assertThat(snapshot.encodedBytes(StompCommand.SEND)).isEqualTo(2L * SEND_FRAME_UTF8.getBytes(UTF_8).length);
+        assertThat(snapshot.encodedFrames(StompCommand.MESSAGE)).isZero();
+    }
+
+    private static void encodeSendFrame(StompCodecMetrics metrics) {
+        StompFrameEncoder encoder = new StompFrameEncoder();
+        encoder.setMetrics(metrics);
+        EmbeddedChannel channel = new EmbeddedChannel(encoder);
+        FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND,
+                channel.bufferAllocator().copyOf("body", UTF_8));
+        frame.headers().set(StompHeaders.DESTINATION, "/queue/№11±♛нетти♕")
+                .set(StompHeaders.CONTENT_TYPE, "text/plain");
+        channel.writeOutbound(frame);
+        try (Buffer buffer = channel.readOutbound()) {
+            assertThat(buffer.toString(UTF_8)).isEqualTo(SEND_FRAME_UTF8);
+        }
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static void writeInbound(EmbeddedChannel channel, String content) {
+        channel.writeInbound(channel.bufferAllocator().copyOf(content, UTF_8));
+    }
+
+    private static void disposeInbound(EmbeddedChannel channel) {
+        Object msg;
+        while ((msg = channel.readInbound()) != null) {
+            Resource.dispose(msg);
+        }
+    }
+}
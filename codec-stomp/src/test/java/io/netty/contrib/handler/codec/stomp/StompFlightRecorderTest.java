@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static io.netty.contrib.handler.codec.stomp.StompTestConstants.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompFlightRecorderTest {
+
+    private static final String DECODED = "io.netty.contrib.stomp.FrameDecoded";
+    private static final String AGGREGATED = "io.netty.contrib.stomp.FrameAggregated";
+    private static final String ENCODED = "io.netty.contrib.stomp.FrameEncoded";
+
+    @Test
+    void shouldNotBeginEventsWithoutRecording() {
+        assertThat(StompFlightRecorder.beginDecoded()).isNull();
+        assertThat(StompFlightRecorder.beginAggregated()).isNull();
+        assertThat(StompFlightRecorder.beginEncoded()).isNull();
+    }
+
+    @Test
+    void shouldEmitEventsOfEachStage(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("stomp.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(DECODED).withThreshold(Duration.ZERO);
+            recording.enable(AGGREGATED).withThreshold(Duration.ZERO);
+            recording.enable(ENCODED).withThreshold(Duration.ZERO);
+            recording.start();
+
+            EmbeddedChannel inbound = new EmbeddedChannel(new StompFrameDecoder(1024, 8),
+                    new StompFrameAggregator<>(1024));
+            for (String part : SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS) {
+                inbound.writeInbound(inbound.bufferAllocator().copyOf(part, UTF_8));
+            }
+            Resource.dispose(inbound.readInbound());
+            assertThat(inbound.finish()).isFalse();
+
+            EmbeddedChannel outbound = new EmbeddedChannel(new StompFrameEncoder());
+            FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND,
+                    outbound.bufferAllocator().copyOf("body", UTF_8));
+            frame.headers().set(StompHeaders.DESTINATION, "/queue/№11±♛нетти♕")
+                    .set(StompHeaders.CONTENT_TYPE, "text/plain");
+            outbound.writeOutbound(frame);
+            try (Buffer buffer = outbound.readOutbound()) {
+                assertThat(buffer.readableBytes()).isEqualTo(SEND_FRAME_UTF8.getBytes(UTF_8).length);
+            }
+            assertThat(outbound.finish()).isFalse();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        RecordedEvent decoded = single(events, DECODED);
+        assertThat(decoded.getString("command")).isEqualTo("SEND");
+        assertThat(decoded.getLong("size"))
+                .isEqualTo(String.join("", SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS).length());
+        assertThat(decoded.getInt("headers")).isEqualTo(2);
+        assertThat(decoded.getInt("chunks")).isEqualTo(2);
+
+        RecordedEvent aggregated = single(events, AGGREGATED);
+        assertThat(aggregated.getString("command")).isEqualTo("SEND");
+        assertThat(aggregated.getLong("size")).isEqualTo(38);
+        assertThat(aggregated.getInt("headers")).isEqualTo(2);
+        assertThat(aggregated.getInt("chunks")).isEqualTo(2);
+
+        RecordedEvent encoded = single(events, ENCODED);
+        assertThat(encoded.getString("command")).isEqualTo("SEND");
+        assertThat(encoded.getLong("size")).isEqualTo(SEND_FRAME_UTF8.getBytes(UTF_8).length);
+        assertThat(encoded.getInt("headers")).isEqualTo(2);
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .reduce((first, second) -> {
+                    throw new AssertionError("More than one " + name + " event");
+                })
+                .orElseThrow(() -> new AssertionError("No " + name + " event"));
+    }
+}
@@ -16,11 +16,17 @@
 package io.netty.contrib.handler.codec.stomp;
 
 import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static io.netty.contrib.handler.codec.stomp.StompTestConstants.*;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Map.entry;
@@ -355,4 +361,196 @@ public class StompFrameDecoderTest {
 
         assertThat((Object) channel.readInbound()).isNull();
     }
+
+    @Test
+    void shouldDeliverFramesDecodedFromSingleBufferAsOneBatch() {
+        List<Integer> batchSizes = new ArrayList<>();
+        List<StompFrame> frames = new ArrayList<>();
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        decoder.setBatchDecode(true);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, new BatchCollector(batchSizes, frames));
+
+        Buffer incoming = channel.bufferAllocator().allocate(256);
+        incoming.writeBytes(CONNECT_FRAME.getBytes(UTF_8));
+        incoming.writeBytes(SEND_FRAME_WITH_CONTENT_LENGTH.getBytes(UTF_8));
+        assertThat(channel.writeInbound(incoming)).isFalse();
+
+        assertThat(batchSizes).containsExactly(4);
+        assertThat(frames.get(0)).isInstanceOf(HeadersStompFrame.class)
+                .extracting(frame -> ((HeadersStompFrame) frame).command())
+                .isEqualTo(StompCommand.CONNECT);
+        assertThat(frames.get(1)).isInstanceOf(EmptyLastContentStompFrame.class);
+        assertThat(frames.get(2)).isInstanceOf(HeadersStompFrame.class)
+                .extracting(frame -> ((HeadersStompFrame) frame).command())
+                .isEqualTo(StompCommand.SEND);
+        try (LastContentStompFrame<?> content = (LastContentStompFrame<?>) frames.get(3)) {
+            assertThat(content.payload().toString(UTF_8)).isEqualTo("hello, queue a!!!");
+        }
+        ((EmptyLastContentStompFrame) frames.get(1)).close();
+
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDeliverBatchOnlyWhenFramesDecoded() {
+        List<Integer> batchSizes = new ArrayList<>();
+        List<StompFrame> frames = new ArrayList<>();
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        decoder.setBatchDecode(true);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, new BatchCollector(batchSizes, frames));
+
+        for (String framePart : SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS) {
+            channel.writeInbound(channel.bufferAllocator().copyOf(framePart.getBytes(UTF_8)));
+        }
+
+        assertThat(batchSizes).containsExactly(1, 1, 1);
+        assertThat(frames.get(0)).isInstanceOf(HeadersStompFrame.class);
+        assertThat(frames.get(2)).isInstanceOf(LastContentStompFrame.class);
+        for (StompFrame frame : frames) {
+            if (frame instanceof ContentStompFrame) {
+                ((ContentStompFrame<?>) frame).close();
+            }
+        }
+
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldCountHeartbeatsBetweenFrames() {
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        assertThat(decoder.heartbeatCount()).isZero();
+        assertThat(decoder.lastInboundActivityNanos()).isZero();
+
+        channel.writeInbound(channel.bufferAllocator().copyOf("\n\r\n\n".getBytes(UTF_8)));
+        assertThat(decoder.heartbeatCount()).isEqualTo(3);
+        assertThat(decoder.lastInboundActivityNanos()).isNotZero();
+        assertThat((Object) channel.readInbound()).isNull();
+
+        channel.writeInbound(channel.bufferAllocator().copyOf(CONNECTED_FRAME.getBytes(UTF_8)));
+        HeadersStompFrame headersFrame = channel.readInbound();
+        assertThat(headersFrame.command()).isEqualTo(StompCommand.CONNECTED);
+        try (ContentStompFrame<?> contentFrame = channel.readInbound()) {
+            assertThat(contentFrame).isInstanceOf(LastContentStompFrame.class);
+        }
+
+        channel.writeInbound(channel.bufferAllocator().copyOf("\n".getBytes(UTF_8)));
+        assertThat(decoder.heartbeatCount()).isEqualTo(5);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldFireHeartbeatEventsWhenEnabled() {
+        List<Object> events = new ArrayList<>();
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        decoder.setFireHeartbeatEvents(true);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, new ChannelHandler() {
+            @Override
+            public void channelInboundEvent(ChannelHandlerContext ctx, Object evt) {
+                events.add(evt);
+            }
+        });
+
+        channel.writeInbound(channel.bufferAllocator().copyOf("\n\n".getBytes(UTF_8)));
+        channel.writeInbound(channel.bufferAllocator().copyOf("\r\n".getBytes(UTF_8)));
+        assertThat(events).containsExactly(StompHeartbeatEvent.RECEIVED, StompHeartbeatEvent.RECEIVED);
+        assertThat(decoder.heartbeatCount()).isEqualTo(3);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldFireHeartbeatEventsAfterBatchedFrames() {
+        List<Object> events = new ArrayList<>();
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        decoder.setBatchDecode(true);
+        decoder.setFireHeartbeatEvents(true);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, new ChannelHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                for (StompFrame frame : (StompFrameBatch) msg) {
+                    events.add(frame.getClass().getSimpleName());
+                    Resource.dispose(frame);
+                }
+            }
+
+            @Override
+            public void channelInboundEvent(ChannelHandlerContext ctx, Object evt) {
+                events.add(evt);
+            }
+        });
+
+        channel.writeInbound(channel.bufferAllocator().copyOf((CONNECTED_FRAME + "\n\n").getBytes(UTF_8)));
+        assertThat(events).containsExactly(
+                "DefaultHeadersStompFrame", "EmptyLastContentStompFrame", StompHeartbeatEvent.RECEIVED);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldAdaptChunkSizeToBodySizes() {
+        StompFrameDecoder decoder = new StompFrameDecoder(1024, 65536);
+        decoder.setAdaptiveChunkSize(true);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        assertThat(decoder.chunkSize()).isEqualTo(4096);
+
+        channel.writeInbound(channel.bufferAllocator().copyOf(
+                "SEND\ncontent-length:10000\n\n" + "a".repeat(10000) + '\0', UTF_8));
+        assertThat(readContentSizes(channel)).containsExactly(10000);
+        assertThat(decoder.chunkSize()).isEqualTo(16384);
+
+        channel.writeInbound(channel.bufferAllocator().copyOf("SEND\n\nhello\0", UTF_8));
+        assertThat(readContentSizes(channel)).containsExactly(5);
+        assertThat(decoder.chunkSize()).isEqualTo(16384);
+        channel.writeInbound(channel.bufferAllocator().copyOf("SEND\n\nhello\0", UTF_8));
+        assertThat(readContentSizes(channel)).containsExactly(5);
+        assertThat(decoder.chunkSize()).isEqualTo(8192);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldSplitBodyNotReadableYetAtAdaptiveChunkSize() {
+        StompFrameDecoder decoder = new StompFrameDecoder(1024, 65536);
+        decoder.setAdaptiveChunkSize(true);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+
+        channel.writeInbound(channel.bufferAllocator().copyOf(
+                "SEND\ncontent-length:10000\n\n" + "a".repeat(5000), UTF_8));
+        assertThat(readContentSizes(channel)).containsExactly(4096, 904);
+        channel.writeInbound(channel.bufferAllocator().copyOf("a".repeat(5000) + '\0', UTF_8));
+        assertThat(readContentSizes(channel)).containsExactly(5000);
+        assertThat(decoder.chunkSize()).isEqualTo(16384);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static List<Integer> readContentSizes(EmbeddedChannel channel) {
+        List<Integer> sizes = new ArrayList<>();
+        StompFrame frame;
+        while ((frame = channel.readInbound()) != null) {
+            if (frame instanceof ContentStompFrame) {
+                try (ContentStompFrame<?> content = (ContentStompFrame<?>) frame) {
+                    sizes.add(content.payload().readableBytes());
+                }
+            }
+        }
+        return sizes;
+    }
+
+    private static final class BatchCollector implements ChannelHandler {
+
+        private final List<Integer> batchSizes;
+        private final List<StompFrame> frames;
+
+        BatchCollector(List<Integer> batchSizes, List<StompFrame> frames) {
+            this.batchSizes = batchSizes;
+            this.frames = frames;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            StompFrameBatch batch = (StompFrameBatch) msg;
+            batchSizes.add(batch.size());
+            for (StompFrame frame : batch) {
+                frames.add(frame);
+            }
+        }
+    }
 }
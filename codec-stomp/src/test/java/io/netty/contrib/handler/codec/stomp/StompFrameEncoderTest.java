@@ -64,6 +64,20 @@ public class StompFrameEncoderTest {
         aggregatedBuffer.close();
     }
 
+    @Test
+    void shouldEncodeFullFrameOutsideOfPipeline() {
+        try (FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND,
+                channel.bufferAllocator().copyOf("body".getBytes(UTF_8)))) {
+            frame.headers().set(StompHeaders.DESTINATION, "/queue/№11±♛нетти♕")
+                    .set(StompHeaders.CONTENT_TYPE, "text/plain");
+
+            try (Buffer encoded = new StompFrameEncoder().encode(frame, channel.bufferAllocator())) {
+                assertThat(encoded.toString(UTF_8)).isEqualTo(SEND_FRAME_UTF8);
+            }
+            assertThat(frame.payload().readableBytes()).isEqualTo(4);
+        }
+    }
+
     @Test
     void shouldEncodeHeadersInUtf8Charset() {
         FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND, channel.bufferAllocator().copyOf("body".getBytes(UTF_8)));
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.CompositeBuffer;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.handler.codec.DecoderException;
+import io.netty5.handler.codec.TooLongFrameException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.contrib.handler.codec.stomp.StompTestConstants.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Map.entry;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class StompFrameListenerDecoderTest {
+
+    private final List<String> events = new ArrayList<>();
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setup() {
+        channel = new EmbeddedChannel(new StompFrameListenerDecoder(new RecordingListener(events)));
+    }
+
+    @AfterEach
+    void teardown() {
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldNotifyListenerWithoutCreatingFrames() {
+        Buffer incoming = channel.bufferAllocator().allocate(256);
+        incoming.writeBytes(CONNECT_FRAME.getBytes(UTF_8));
+        incoming.writeBytes(SEND_FRAME_WITH_CONTENT_LENGTH.getBytes(UTF_8));
+        incoming.writeBytes(SEND_FRAME_WITHOUT_CONTENT_LENGTH.getBytes(UTF_8));
+        assertThat(channel.writeInbound(incoming)).isFalse();
+
+        assertThat(events).containsExactly(
+                "CONNECT[host=stomp.github.io, accept-version=1.1,1.2]",
+                "SEND[destination=/queue/a, content-type=text/plain, content-length=17] hello, queue a!!!",
+                "SEND[destination=/queue/a, content-type=text/plain] hello, queue a!");
+    }
+
+    @Test
+    void shouldNotifyListenerWhenFrameSplitAcrossReads() {
+        for (String framePart : SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS) {
+            channel.writeInbound(channel.bufferAllocator().copyOf(framePart.getBytes(UTF_8)));
+        }
+
+        assertThat(events).containsExactly(
+                "SEND[destination=/queue/a, content-type=text/plain] first part of body\nsecond part of body");
+    }
+
+    @Test
+    void shouldFindEndOfBodyReceivedInManyReads() {
+        channel.writeInbound(channel.bufferAllocator().copyOf("SEND\ndestination:/queue/a\n\n", UTF_8));
+        for (int i = 0; i < 5; i++) {
+            channel.writeInbound(channel.bufferAllocator().copyOf("part-" + i + ' ', UTF_8));
+        }
+        channel.writeInbound(channel.bufferAllocator().copyOf("end\0" + SEND_FRAME_WITHOUT_CONTENT_LENGTH, UTF_8));
+
+        assertThat(events).containsExactly(
+                "SEND[destination=/queue/a] part-0 part-1 part-2 part-3 part-4 end",
+                "SEND[destination=/queue/a, content-type=text/plain] hello, queue a!");
+    }
+
+    @Test
+    void shouldNotifyListenerWithUnescapedHeaders() {
+        channel.writeInbound(channel.bufferAllocator().copyOf(ESCAPED_MESSAGE_FRAME.getBytes(UTF_8)));
+
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0)).startsWith("MESSAGE[message-id=100, subscription=1, destination=/queue/a:,");
+    }
+
+    @Test
+    void shouldRetainHeadersOnlyWhenCopied() {
+        List<StompHeaders> copies = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new StompFrameListenerDecoder(new StompFrameAdapter() {
+            @Override
+            public void onConnect(ChannelHandlerContext ctx, StompHeaders headers) {
+                copies.add(headers.copy());
+            }
+        }));
+
+        channel.writeInbound(channel.bufferAllocator().copyOf((CONNECT_FRAME + CONNECT_FRAME).getBytes(UTF_8)));
+
+        assertThat(copies).hasSize(2);
+        assertThat(copies.get(0)).containsExactly(
+                entry("host", "stomp.github.io"),
+                entry("accept-version", "1.1,1.2"));
+        assertThat(copies.get(1)).isEqualTo(copies.get(0));
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldThrowExceptionWhenNullEndingIsMissing() {
+        Buffer incoming = channel.bufferAllocator().copyOf(FRAME_WITHOUT_NULL_ENDING.getBytes(UTF_8));
+        assertThatExceptionOfType(DecoderException.class)
+                .isThrownBy(() -> channel.writeInbound(incoming))
+                .withMessageContaining("Unexpected byte in buffer 1 while expecting NULL byte");
+
+        channel.writeInbound(channel.bufferAllocator().copyOf(CONNECT_FRAME.getBytes(UTF_8)));
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    void shouldThrowExceptionWhenContentLengthExceedsLimit() {
+        EmbeddedChannel channel = new EmbeddedChannel(
+                new StompFrameListenerDecoder(new RecordingListener(events), 1024, 10, false));
+        Buffer incoming = channel.bufferAllocator().copyOf(SEND_FRAME_WITH_CONTENT_LENGTH.getBytes(UTF_8));
+        assertThatExceptionOfType(TooLongFrameException.class)
+                .isThrownBy(() -> channel.writeInbound(incoming));
+        assertThat(events).isEmpty();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldComposeInboundBuffersOfLargeBody() {
+        assertThat(receiveBodyInParts(16)).containsExactly("composite " + "0123456789".repeat(4), "CONNECT");
+    }
+
+    @Test
+    void shouldMergeInboundBuffersOfBodyBelowThreshold() {
+        assertThat(receiveBodyInParts(64)).containsExactly("merged " + "0123456789".repeat(4), "CONNECT");
+    }
+
+    private static List<String> receiveBodyInParts(int compositeCumulationThreshold) {
+        List<String> bodies = new ArrayList<>();
+        StompFrameListenerDecoder decoder = new StompFrameListenerDecoder(new StompFrameAdapter() {
+            @Override
+            public void onConnect(ChannelHandlerContext ctx, StompHeaders headers) {
+                bodies.add("CONNECT");
+            }
+
+            @Override
+            public void onSend(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) {
+                bodies.add((CompositeBuffer.isComposite(body) ? "composite " : "merged ") + body.toString(UTF_8));
+            }
+        });
+        decoder.setCompositeCumulationThreshold(compositeCumulationThreshold);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+
+        channel.writeInbound(channel.bufferAllocator().copyOf(
+                "SEND\ndestination:/queue/a\ncontent-length:40\n\n0123456789", UTF_8));
+        channel.writeInbound(channel.bufferAllocator().copyOf("0123456789", UTF_8));
+        channel.writeInbound(channel.bufferAllocator().copyOf("0123456789", UTF_8));
+        channel.writeInbound(channel.bufferAllocator().copyOf("0123456789\0" + CONNECT_FRAME, UTF_8));
+        assertThat(channel.finish()).isFalse();
+        return bodies;
+    }
+
+    private static final class RecordingListener extends StompFrameAdapter {
+
+        private final List<String> events;
+
+        RecordingListener(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onConnect(ChannelHandlerContext ctx, StompHeaders headers) {
+            record(StompCommand.CONNECT, headers, null);
+        }
+
+        @Override
+        public void onSend(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) {
+            record(StompCommand.SEND, headers, body);
+        }
+
+        @Override
+        public void onMessage(ChannelHandlerContext ctx, StompHeaders headers, Buffer body) {
+            record(StompCommand.MESSAGE, headers, body);
+        }
+
+        private void record(StompCommand command, StompHeaders headers, Buffer body) {
+            StringBuilder event = new StringBuilder().append(command).append('[');
+            headers.forEach(header -> event.append(header.getKey()).append('=').append(header.getValue())
+                    .append(", "));
+            event.setLength(event.length() - 2);
+            event.append(']');
+            if (body != null && body.readableBytes() > 0) {
+                event.append(' ').append(body.toString(UTF_8));
+            }
+            events.add(event.toString());
+        }
+    }
+}
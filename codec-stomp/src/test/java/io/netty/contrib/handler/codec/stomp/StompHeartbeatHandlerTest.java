@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompHeartbeatHandlerTest {
+
+    @Test
+    void shouldAddHeartbeatHeaderToOutboundConnectFrame() {
+        StompHeartbeatHandler handler = new StompHeartbeatHandler(1000, 2000);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        channel.writeOutbound(new DefaultFullStompFrame(StompCommand.CONNECT));
+        try (FullStompFrame connectFrame = channel.readOutbound()) {
+            assertThat(connectFrame.headers().getAsString(StompHeaders.HEART_BEAT)).isEqualTo("1000,2000");
+        }
+
+        assertThat(handler.negotiatedSendIntervalMillis()).isZero();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldNegotiateIntervalsFromConnectAndConnectedFrames() {
+        StompHeartbeatHandler handler = new StompHeartbeatHandler(1000, 1000);
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+        FullStompFrame connectFrame = new DefaultFullStompFrame(StompCommand.CONNECT);
+        connectFrame.headers().set(StompHeaders.HEART_BEAT, "0,5000");
+        channel.writeInbound(connectFrame);
+        channel.writeOutbound(new DefaultFullStompFrame(StompCommand.CONNECTED));
+
+        assertThat(handler.negotiatedSendIntervalMillis()).isEqualTo(5000);
+        assertThat(handler.negotiatedReceiveIntervalMillis()).isZero();
+
+        closeAll(channel.inboundMessages());
+        closeAll(channel.outboundMessages());
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldSendHeartbeatWhenNothingWritten() {
+        EmbeddedChannel channel = new EmbeddedChannel(new StompHeartbeatHandler(1000, 0));
+        channel.freezeTime();
+
+        channel.writeOutbound(new DefaultFullStompFrame(StompCommand.CONNECT));
+        FullStompFrame connectedFrame = new DefaultFullStompFrame(StompCommand.CONNECTED);
+        connectedFrame.headers().set(StompHeaders.HEART_BEAT, "0,1000");
+        channel.writeInbound(connectedFrame);
+        closeAll(channel.inboundMessages());
+        closeAll(channel.outboundMessages());
+
+        advanceTimeBy(channel, 400);
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        advanceTimeBy(channel, 200);
+        try (Buffer heartbeat = channel.readOutbound()) {
+            assertThat(heartbeat.readableBytes()).isEqualTo(1);
+            assertThat(heartbeat.getByte(heartbeat.readerOffset())).isEqualTo(StompConstants.LF);
+        }
+
+        advanceTimeBy(channel, 100);
+        channel.writeOutbound(new DefaultFullStompFrame(StompCommand.SEND));
+        closeAll(channel.outboundMessages());
+
+        advanceTimeBy(channel, 400);
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldCloseChannelWhenHeartbeatMissed() {
+        List<Object> events = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new StompHeartbeatHandler(0, 1000), new ChannelHandler() {
+            @Override
+            public void channelInboundEvent(ChannelHandlerContext ctx, Object evt) {
+                events.add(evt);
+            }
+        });
+        channel.freezeTime();
+
+        channel.writeOutbound(new DefaultFullStompFrame(StompCommand.CONNECT));
+        FullStompFrame connectedFrame = new DefaultFullStompFrame(StompCommand.CONNECTED);
+        connectedFrame.headers().set(StompHeaders.HEART_BEAT, "1000,0");
+        channel.writeInbound(connectedFrame);
+        closeAll(channel.inboundMessages());
+        closeAll(channel.outboundMessages());
+
+        advanceTimeBy(channel, 1000);
+        channel.writeInbound(channel.bufferAllocator().copyOf(new byte[] { StompConstants.LF }));
+        closeAll(channel.inboundMessages());
+
+        advanceTimeBy(channel, 1000);
+        assertThat(channel.isActive()).isTrue();
+        assertThat(events).isEmpty();
+
+        advanceTimeBy(channel, 1500);
+        assertThat(events).containsExactly(StompHeartbeatEvent.MISSED);
+        assertThat(channel.isActive()).isFalse();
+
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static void advanceTimeBy(EmbeddedChannel channel, long millis) {
+        for (long elapsed = 0; elapsed < millis; elapsed += StompHeartbeatWheel.TICK_MILLIS) {
+            channel.advanceTimeBy(StompHeartbeatWheel.TICK_MILLIS, TimeUnit.MILLISECONDS);
+            channel.runScheduledPendingTasks();
+        }
+    }
+
+    private static void closeAll(Queue<Object> messages) {
+        Object message;
+        while ((message = messages.poll()) != null) {
+            Resource.dispose(message);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp;
+
+import io.netty.contrib.handler.codec.stomp.StompLatencyTracer.Snapshot;
+import io.netty.contrib.handler.codec.stomp.StompLatencyTracer.Stage;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompLatencyTracerTest {
+
+    @Test
+    void shouldSampleFramesAnsweredOnTheirChannel() {
+        StompLatencyTracer tracer = new StompLatencyTracer(2);
+        EmbeddedChannel channel = newChannel(tracer);
+
+        for (int i = 0; i < 4; i++) {
+            writeInbound(channel, "SEND\ndestination:/queue/a\nreceipt:r-" + i + "\n\nbody\0");
+        }
+        disposeOutbound(channel);
+
+        Snapshot snapshot = tracer.snapshot();
+        for (Stage stage : Stage.values()) {
+            assertThat(snapshot.count(stage)).as(stage.name()).isEqualTo(2);
+            assertThat(Arrays.stream(snapshot.histogram(stage)).sum()).as(stage.name()).isEqualTo(2);
+        }
+        assertThat(snapshot.maxNanos(Stage.TOTAL)).isGreaterThanOrEqualTo(snapshot.maxNanos(Stage.DECODE));
+        assertThat(snapshot.percentileNanos(Stage.TOTAL, 100)).isEqualTo(snapshot.maxNanos(Stage.TOTAL));
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldRecordInboundStagesOfUnansweredFrames() {
+        StompLatencyTracer tracer = new StompLatencyTracer();
+        EmbeddedChannel channel = newChannel(tracer);
+
+        writeInbound(channel, "SEND\ndestination:/queue/a\n\nfirst\0");
+        writeInbound(channel, "SEND\ndestination:/queue/a\n\nsecond\0");
+
+        Snapshot snapshot = tracer.snapshot();
+        assertThat(snapshot.count(Stage.DECODE)).isOne();
+        assertThat(snapshot.count(Stage.AGGREGATE)).isOne();
+        assertThat(snapshot.count(Stage.HANDLE)).isZero();
+        assertThat(snapshot.count(Stage.TOTAL)).isZero();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldEndSampledTraceWithNextFrameOnly() {
+        StompLatencyTracer tracer = new StompLatencyTracer(2);
+        EmbeddedChannel channel = newChannel(tracer);
+
+        for (int i = 0; i < 4; i++) {
+            writeInbound(channel, "SEND\ndestination:/queue/a\n\nbody-" + i + '\0');
+        }
+
+        // The first and third frames are sampled, each trace is ended by the frame after it.
+        assertThat(tracer.snapshot().count(Stage.DECODE)).isEqualTo(2);
+        assertThat(channel.attr(StompLatencyTracer.TRACE_KEY).get()).isNull();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static EmbeddedChannel newChannel(StompLatencyTracer tracer) {
+        StompFrameEncoder encoder = new StompFrameEncoder();
+        encoder.setLatencyTracer(tracer);
+        StompFrameDecoder decoder = new StompFrameDecoder();
+        decoder.setLatencyTracer(tracer);
+        StompFrameAggregator<?> aggregator = new StompFrameAggregator<>(1024);
+        aggregator.setLatencyTracer(tracer);
+        return new EmbeddedChannel(encoder, decoder, aggregator, new ReceiptHandler());
+    }
+
+    private static void writeInbound(EmbeddedChannel channel, String content) {
+        channel.writeInbound(channel.bufferAllocator().copyOf(content, UTF_8));
+    }
+
+    private static void disposeOutbound(EmbeddedChannel channel) {
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            Resource.dispose(msg);
+        }
+    }
+
+    private static final class ReceiptHandler implements ChannelHandler {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try (FullStompFrame frame = (FullStompFrame) msg) {
+                String receipt = frame.headers().getAsString(StompHeaders.RECEIPT);
+                if (receipt != null) {
+                    FullStompFrame response = new DefaultFullStompFrame(StompCommand.RECEIPT,
+                            ctx.bufferAllocator().allocate(0));
+                    response.headers().set(StompHeaders.RECEIPT_ID, receipt);
+                    ctx.writeAndFlush(response);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompAckTrackerTest {
+
+    private final StompAckTracker tracker = new StompAckTracker();
+
+    @Test
+    void shouldAssignMonotonicSequences() {
+        for (long i = 0; i < 200; i++) {
+            assertThat(tracker.track()).isEqualTo(i);
+        }
+
+        assertThat(tracker.outstanding()).isEqualTo(200);
+        assertThat(tracker.isOutstanding(199)).isTrue();
+        assertThat(tracker.isOutstanding(200)).isFalse();
+    }
+
+    @Test
+    void shouldAcknowledgeIndividually() {
+        track(130);
+
+        assertThat(tracker.ack(64)).isTrue();
+        assertThat(tracker.ack(64)).isFalse();
+        assertThat(tracker.ack(500)).isFalse();
+        assertThat(tracker.isOutstanding(64)).isFalse();
+        assertThat(tracker.outstanding()).isEqualTo(129);
+        assertThat(tracker.nextOutstanding(64)).isEqualTo(65);
+    }
+
+    @Test
+    void shouldAcknowledgeCumulatively() {
+        track(300);
+
+        assertThat(tracker.ack(10)).isTrue();
+        assertThat(tracker.ackCumulative(127)).isEqualTo(127);
+        assertThat(tracker.outstanding()).isEqualTo(172);
+        assertThat(tracker.nextOutstanding(0)).isEqualTo(128);
+        assertThat(tracker.ackCumulative(127)).isZero();
+
+        assertThat(tracker.ackCumulative(1000)).isEqualTo(172);
+        assertThat(tracker.outstanding()).isZero();
+        assertThat(tracker.nextOutstanding(0)).isEqualTo(-1);
+    }
+
+    @Test
+    void shouldGrowWhileOldestMessageIsUnacknowledged() {
+        track(1);
+        for (int i = 1; i < 10_000; i++) {
+            tracker.track();
+            tracker.ack(i);
+        }
+
+        assertThat(tracker.outstanding()).isOne();
+        List<Long> outstanding = new ArrayList<>();
+        tracker.forEachOutstanding(outstanding::add);
+        assertThat(outstanding).containsExactly(0L);
+
+        assertThat(tracker.ack(0)).isTrue();
+        assertThat(tracker.track()).isEqualTo(10_000);
+        assertThat(tracker.nextOutstanding(0)).isEqualTo(10_000);
+    }
+
+    private void track(int count) {
+        for (int i = 0; i < count; i++) {
+            tracker.track();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.SimpleChannelInboundHandler;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class StompBrokerTest {
+
+    private final StompBroker broker = new StompBroker();
+
+    @Test
+    void shouldDeliverToLocalSubscribersOnFlush() {
+        EmbeddedChannel channel = new EmbeddedChannel(new PublishingHandler(broker));
+        broker.registry().subscribe(channel, "sub-1", "/topic/#");
+
+        FullStompFrame sendFrame = sendFrame(channel, "/topic/a", "hello");
+        sendFrame.headers().set(StompHeaders.RECEIPT, "r-1").set(StompHeaders.CONTENT_TYPE, "text/plain");
+        channel.pipeline().fireChannelRead(sendFrame);
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        channel.pipeline().fireChannelReadComplete();
+        try (FullStompFrame messageFrame = channel.readOutbound()) {
+            assertThat(messageFrame.command()).isEqualTo(StompCommand.MESSAGE);
+            assertThat(messageFrame.headers().getAsString(StompHeaders.SUBSCRIPTION)).isEqualTo("sub-1");
+            assertThat(messageFrame.headers().getAsString(StompHeaders.DESTINATION)).isEqualTo("/topic/a");
+            assertThat(messageFrame.headers().getAsString(StompHeaders.CONTENT_TYPE)).isEqualTo("text/plain");
+            assertThat(messageFrame.headers().getAsString(StompHeaders.CONTENT_LENGTH)).isEqualTo("5");
+            assertThat(messageFrame.headers().getAsString(StompHeaders.MESSAGE_ID)).isNotNull();
+            assertThat(messageFrame.headers().contains(StompHeaders.RECEIPT)).isFalse();
+            assertThat(messageFrame.payload().readOnly()).isTrue();
+            assertThat(messageFrame.payload().toString(UTF_8)).isEqualTo("hello");
+        }
+
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldBatchDeliveriesToOtherEventLoops() {
+        EmbeddedChannel publisher = new EmbeddedChannel(new PublishingHandler(broker));
+        EmbeddedChannel subscriber = new EmbeddedChannel();
+        broker.registry().subscribe(subscriber, "sub-1", "/queue/a");
+        broker.registry().subscribe(subscriber, "sub-2", "/queue/*");
+
+        publisher.pipeline().fireChannelRead(sendFrame(publisher, "/queue/a", "first"));
+        publisher.pipeline().fireChannelRead(sendFrame(publisher, "/queue/a", "second"));
+
+        subscriber.runPendingTasks();
+        assertThat((Object) subscriber.readOutbound()).isNull();
+
+        publisher.pipeline().fireChannelReadComplete();
+        subscriber.runPendingTasks();
+        assertThat(subscriber.outboundMessages()).hasSize(4);
+        for (String body : new String[] { "first", "second" }) {
+            for (int i = 0; i < 2; i++) {
+                try (FullStompFrame messageFrame = subscriber.readOutbound()) {
+                    assertThat(messageFrame.payload().toString(UTF_8)).isEqualTo(body);
+                }
+            }
+        }
+
+        assertThat((Object) publisher.readOutbound()).isNull();
+        assertThat(publisher.finish()).isFalse();
+        assertThat(subscriber.finish()).isFalse();
+    }
+
+    @Test
+    void shouldRejectSendFrameWithoutDestination() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        try (FullStompFrame sendFrame = new DefaultFullStompFrame(StompCommand.SEND)) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> broker.publish(channel.pipeline().firstContext(), sendFrame));
+        }
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static final class PublishingHandler extends SimpleChannelInboundHandler<FullStompFrame> {
+
+        private final StompBroker broker;
+
+        PublishingHandler(StompBroker broker) {
+            this.broker = broker;
+        }
+
+        @Override
+        protected void messageReceived(ChannelHandlerContext ctx, FullStompFrame sendFrame) {
+            broker.publish(ctx, sendFrame);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            broker.flush(ctx);
+        }
+    }
+
+    private static FullStompFrame sendFrame(EmbeddedChannel channel, String destination, String body) {
+        FullStompFrame sendFrame = new DefaultFullStompFrame(StompCommand.SEND,
+                channel.bufferAllocator().copyOf(body.getBytes(UTF_8)));
+        sendFrame.headers().set(StompHeaders.DESTINATION, destination);
+        return sendFrame;
+    }
+}
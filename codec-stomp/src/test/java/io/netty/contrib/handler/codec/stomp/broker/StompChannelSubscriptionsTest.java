@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class StompChannelSubscriptionsTest {
+
+    private final StompSubscriptionRegistry registry = new StompSubscriptionRegistry();
+
+    @Test
+    void shouldIndexSubscriptionsById() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        StompSubscription first = registry.subscribe(channel, "1", "/queue/a");
+        StompSubscription second = registry.subscribe(channel, "2", "/queue/b");
+        assertThat(registry.subscribe(channel, "1", "/queue/c")).isNull();
+
+        StompChannelSubscriptions subscriptions = StompChannelSubscriptions.get(channel);
+        assertThat(subscriptions.registry()).isSameAs(registry);
+        assertThat(subscriptions.get("1")).isSameAs(first);
+        assertThat(subscriptions).containsExactlyInAnyOrder(first, second);
+        assertThat(registry.match("/queue/c")).isEmpty();
+
+        assertThat(registry.unsubscribe(channel, "1")).isSameAs(first);
+        assertThat(registry.unsubscribe(channel, "1")).isNull();
+        assertThat(subscriptions.size()).isOne();
+        assertThat(registry.match("/queue/a")).isEmpty();
+        assertThat(registry.match("/queue/b")).containsExactly(second);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldUnsubscribeAllWhenChannelClosed() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        EmbeddedChannel otherChannel = new EmbeddedChannel();
+        registry.subscribe(channel, "1", "/queue/a");
+        registry.subscribe(channel, "2", "/topic/#");
+        StompSubscription other = registry.subscribe(otherChannel, "1", "/queue/a");
+        assertThat(registry.size()).isEqualTo(3);
+
+        channel.close();
+
+        assertThat(registry.size()).isOne();
+        assertThat(registry.match("/queue/a")).containsExactly(other);
+        assertThat(StompChannelSubscriptions.get(channel).size()).isZero();
+        assertThat(registry.unsubscribeAll(otherChannel)).isOne();
+        assertThat(registry.size()).isZero();
+        assertThat(otherChannel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldRejectChannelOfAnotherRegistry() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        registry.subscribe(channel, "1", "/queue/a");
+
+        StompSubscriptionRegistry otherRegistry = new StompSubscriptionRegistry();
+        assertThatIllegalStateException().isThrownBy(() -> otherRegistry.subscribe(channel, "2", "/queue/a"));
+        assertThat(otherRegistry.unsubscribe(channel, "1")).isNull();
+        assertThat(registry.size()).isOne();
+        assertThat(channel.finish()).isFalse();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.ClosedChannelException;
+
+import static io.netty5.buffer.DefaultBufferAllocators.preferredAllocator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompConflationHandlerTest {
+
+    private final StompConflationHandler handler = new StompConflationHandler();
+    private boolean writable = true;
+    private final EmbeddedChannel channel = new EmbeddedChannel(handler) {
+        @Override
+        public boolean isWritable() {
+            return writable;
+        }
+    };
+
+    @Test
+    void shouldKeepNewestFramePerKeyWhileNotWritable() {
+        writable = false;
+        Future<Void> first = channel.write(messageFrame("sub-1", "EURUSD", "1.01"));
+        channel.write(messageFrame("sub-1", "GBPUSD", "1.21"));
+        Future<Void> second = channel.write(messageFrame("sub-1", "EURUSD", "1.02"));
+        channel.write(messageFrame("sub-2", "EURUSD", "1.02"));
+        channel.writeAndFlush(messageFrame("sub-1", null, "news"));
+
+        assertThat(first.isSuccess()).isTrue();
+        assertThat(second.isDone()).isFalse();
+        assertThat(handler.pendingCount()).isEqualTo(3);
+        assertThat(handler.conflatedCount()).isOne();
+        assertThat(readBodies()).containsExactly("sub-1 news");
+
+        writable = true;
+        channel.pipeline().fireChannelWritabilityChanged();
+        assertThat(readBodies()).containsExactly("sub-1 1.02", "sub-1 1.21", "sub-2 1.02");
+        assertThat(second.isSuccess()).isTrue();
+        assertThat(handler.pendingCount()).isZero();
+
+        channel.writeAndFlush(messageFrame("sub-1", "EURUSD", "1.03"));
+        assertThat(readBodies()).containsExactly("sub-1 1.03");
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldNotHoldAcknowledgedFrames() {
+        writable = false;
+        FullStompFrame frame = messageFrame("sub-1", "EURUSD", "1.01");
+        frame.headers().set(StompHeaders.ACK, "0-0");
+        channel.writeAndFlush(frame);
+
+        assertThat(handler.pendingCount()).isZero();
+        assertThat(readBodies()).containsExactly("sub-1 1.01");
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldFailHeldFramesWhenChannelClosed() {
+        writable = false;
+        Future<Void> future = channel.write(messageFrame("sub-1", "EURUSD", "1.01"));
+        channel.close();
+
+        assertThat(future.cause()).isInstanceOf(ClosedChannelException.class);
+        assertThat(handler.pendingCount()).isZero();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private String[] readBodies() {
+        String[] bodies = new String[channel.outboundMessages().size()];
+        for (int i = 0; i < bodies.length; i++) {
+            try (FullStompFrame frame = channel.readOutbound()) {
+                bodies[i] = frame.headers().getAsString(StompHeaders.SUBSCRIPTION) + ' ' +
+                        frame.payload().toString(UTF_8);
+            }
+        }
+        return bodies;
+    }
+
+    private static FullStompFrame messageFrame(String subscription, String key, String body) {
+        FullStompFrame frame = new DefaultFullStompFrame(StompCommand.MESSAGE,
+                preferredAllocator().copyOf(body.getBytes(UTF_8)));
+        frame.headers().set(StompHeaders.SUBSCRIPTION, subscription);
+        if (key != null) {
+            frame.headers().set(StompConflationHandler.CONFLATION_KEY_HEADER, key);
+        }
+        return frame;
+    }
+}
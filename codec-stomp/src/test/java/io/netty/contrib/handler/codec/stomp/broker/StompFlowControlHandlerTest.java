@@ -0,0 +1,244 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.DefaultStompHeaders;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompFlowControlHandlerTest {
+
+    private StompFlowControlHandler handler;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setup() {
+        handler = new StompFlowControlHandler();
+        channel = new EmbeddedChannel(handler);
+    }
+
+    @AfterEach
+    void teardown() {
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldStopDispatchingWhenCreditsRunOut() {
+        subscribe("sub-1", "client-individual", "2");
+
+        Future<Void> first = channel.writeAndFlush(messageFrame("sub-1", "m-1"));
+        Future<Void> second = channel.writeAndFlush(messageFrame("sub-1", "m-2"));
+        Future<Void> third = channel.writeAndFlush(messageFrame("sub-1", "m-3"));
+
+        assertThat(first.isSuccess()).isTrue();
+        assertThat(second.isSuccess()).isTrue();
+        assertThat(third.isDone()).isFalse();
+        assertThat(handler.inFlightCount("sub-1")).isEqualTo(2);
+        assertThat(handler.pendingCount("sub-1")).isOne();
+        List<String> ackIds = assertMessages("m-1", "m-2");
+
+        ack(ackIds.get(1));
+        assertThat(third.isSuccess()).isTrue();
+        assertThat(handler.inFlightCount("sub-1")).isEqualTo(2);
+        assertThat(handler.pendingCount("sub-1")).isZero();
+        assertMessages("m-3");
+    }
+
+    @Test
+    void shouldReleaseCreditsCumulativelyInClientMode() {
+        subscribe("sub-1", "client", "2");
+
+        for (int i = 1; i <= 4; i++) {
+            channel.writeAndFlush(messageFrame("sub-1", "m-" + i));
+        }
+        List<String> ackIds = assertMessages("m-1", "m-2");
+
+        ack(ackIds.get(1));
+        assertThat(handler.inFlightCount("sub-1")).isEqualTo(2);
+        ackIds = assertMessages("m-3", "m-4");
+
+        ack(ackIds.get(1));
+        assertThat(handler.inFlightCount("sub-1")).isZero();
+        assertThat(handler.ackTracker("sub-1").nextOutstanding(0)).isEqualTo(-1);
+    }
+
+    @Test
+    void shouldTrackUnacknowledgedMessagesWithoutLimit() {
+        subscribe("sub-1", "client-individual", "0");
+
+        for (int i = 1; i <= 3; i++) {
+            channel.writeAndFlush(messageFrame("sub-1", "m-" + i));
+        }
+        List<String> ackIds = assertMessages("m-1", "m-2", "m-3");
+
+        ack(ackIds.get(1));
+        ack(ackIds.get(1));
+        ack("unknown");
+        StompAckTracker tracker = handler.ackTracker("sub-1");
+        assertThat(tracker.outstanding()).isEqualTo(2);
+        List<Long> redeliveryCandidates = new ArrayList<>();
+        tracker.forEachOutstanding(redeliveryCandidates::add);
+        assertThat(redeliveryCandidates).containsExactly(0L, 2L);
+    }
+
+    @Test
+    void shouldNotLimitAutoAcknowledgedSubscriptions() {
+        subscribe("sub-1", "auto", "1");
+
+        channel.writeAndFlush(messageFrame("sub-1", "m-1"));
+        channel.writeAndFlush(messageFrame("sub-1", "m-2"));
+
+        assertThat(handler.inFlightCount("sub-1")).isEqualTo(-1);
+        for (String messageId : new String[] { "m-1", "m-2" }) {
+            try (FullStompFrame messageFrame = channel.readOutbound()) {
+                assertThat(messageFrame.headers().getAsString(StompHeaders.MESSAGE_ID)).isEqualTo(messageId);
+                assertThat(messageFrame.headers().contains(StompHeaders.ACK)).isFalse();
+            }
+        }
+    }
+
+    @Test
+    void shouldDiscardPendingMessagesOnUnsubscribe() {
+        subscribe("sub-1", "client-individual", "1");
+        channel.writeAndFlush(messageFrame("sub-1", "m-1"));
+        Future<Void> pending = channel.writeAndFlush(messageFrame("sub-1", "m-2"));
+        assertMessages("m-1");
+
+        FullStompFrame unsubscribeFrame = new DefaultFullStompFrame(StompCommand.UNSUBSCRIBE);
+        unsubscribeFrame.headers().set(StompHeaders.ID, "sub-1");
+        channel.writeInbound(unsubscribeFrame);
+        closeInbound();
+
+        assertThat(pending.isFailed()).isTrue();
+        assertThat(pending.cause()).isInstanceOf(ClosedChannelException.class);
+        assertThat(handler.pendingCount("sub-1")).isEqualTo(-1);
+    }
+
+    @Test
+    void shouldFailMessagesBeyondPendingLimit() {
+        replaceHandler(new StompFlowControlHandler(0, 4));
+        subscribe("sub-1", "client-individual", "1");
+
+        List<Future<Void>> writes = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            writes.add(channel.writeAndFlush(messageFrame("sub-1", "m-" + i)));
+        }
+
+        assertThat(handler.pendingCount("sub-1")).isEqualTo(4);
+        assertThat(handler.acceptsMessage("sub-1")).isFalse();
+        assertThat(writes.get(0).isSuccess()).isTrue();
+        assertThat(writes.subList(1, 5)).noneMatch(Future::isDone);
+        assertThat(writes.subList(5, 100)).allMatch(Future::isFailed);
+        List<String> ackIds = assertMessages("m-1");
+
+        ack(ackIds.get(0));
+        assertThat(handler.acceptsMessage("sub-1")).isTrue();
+        assertMessages("m-2");
+    }
+
+    @Test
+    void shouldNotDeliverBrokerMessagesBeyondPendingLimit() {
+        replaceHandler(new StompFlowControlHandler(0, 4));
+        subscribe("sub-1", "client-individual", "1");
+        StompBroker broker = new StompBroker();
+        broker.registry().subscribe(channel, "sub-1", "/queue/a");
+
+        StompHeaders headers = new DefaultStompHeaders();
+        channel.executor().execute(() -> {
+            for (int i = 0; i < 1000; i++) {
+                try (Buffer payload = channel.bufferAllocator().copyOf("message " + i, UTF_8)) {
+                    broker.publish(channel.executor(), "/queue/a", headers, payload);
+                }
+            }
+            broker.flush(channel.executor());
+        });
+        channel.runPendingTasks();
+
+        assertThat(handler.inFlightCount("sub-1")).isOne();
+        assertThat(handler.pendingCount("sub-1")).isEqualTo(4);
+        try (FullStompFrame messageFrame = channel.readOutbound()) {
+            assertThat(messageFrame.payload().toString(UTF_8)).isEqualTo("message 0");
+        }
+        assertThat((Object) channel.readOutbound()).isNull();
+    }
+
+    private void replaceHandler(StompFlowControlHandler handler) {
+        assertThat(channel.finish()).isFalse();
+        this.handler = handler;
+        channel = new EmbeddedChannel(handler);
+    }
+
+    private void subscribe(String id, String ackMode, String prefetchCount) {
+        FullStompFrame subscribeFrame = new DefaultFullStompFrame(StompCommand.SUBSCRIBE);
+        subscribeFrame.headers()
+                .set(StompHeaders.ID, id)
+                .set(StompHeaders.DESTINATION, "/queue/a")
+                .set(StompHeaders.ACK, ackMode)
+                .set(StompFlowControlHandler.PREFETCH_COUNT_HEADER, prefetchCount);
+        channel.writeInbound(subscribeFrame);
+        closeInbound();
+    }
+
+    private void ack(String id) {
+        FullStompFrame ackFrame = new DefaultFullStompFrame(StompCommand.ACK);
+        ackFrame.headers().set(StompHeaders.ID, id);
+        channel.writeInbound(ackFrame);
+        closeInbound();
+    }
+
+    private void closeInbound() {
+        FullStompFrame frame;
+        while ((frame = channel.readInbound()) != null) {
+            frame.close();
+        }
+    }
+
+    private List<String> assertMessages(String... messageIds) {
+        List<String> ackIds = new ArrayList<>();
+        for (String messageId : messageIds) {
+            try (FullStompFrame messageFrame = channel.readOutbound()) {
+                assertThat(messageFrame.headers().getAsString(StompHeaders.MESSAGE_ID)).isEqualTo(messageId);
+                assertThat(messageFrame.headers().getAsString(StompHeaders.ACK)).isNotNull();
+                ackIds.add(messageFrame.headers().getAsString(StompHeaders.ACK));
+            }
+        }
+        assertThat((Object) channel.readOutbound()).isNull();
+        return ackIds;
+    }
+
+    private static FullStompFrame messageFrame(String subscriptionId, String messageId) {
+        FullStompFrame messageFrame = new DefaultFullStompFrame(StompCommand.MESSAGE);
+        messageFrame.headers()
+                .set(StompHeaders.SUBSCRIPTION, subscriptionId)
+                .set(StompHeaders.MESSAGE_ID, messageId);
+        return messageFrame;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.netty5.buffer.DefaultBufferAllocators.preferredAllocator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompSlowConsumerHandlerTest {
+
+    // Each frame of the tests is estimated to 4 bytes of payload and 2 headers of 34 bytes.
+    private static final int FRAME_SIZE = 72;
+
+    private boolean writable = true;
+
+    @Test
+    void shouldHoldFramesUntilWritableThenDropNewest() {
+        StompSlowConsumerMonitor monitor = monitor(StompSlowConsumerPolicy.DROP_NEWEST, 2 * FRAME_SIZE);
+        StompSlowConsumerHandler handler = monitor.newHandler();
+        EmbeddedChannel channel = newChannel(handler);
+
+        channel.writeAndFlush(messageFrame("a", "m-01"));
+        writable = false;
+        channel.writeAndFlush(messageFrame("a", "m-02"));
+        channel.writeAndFlush(messageFrame("a", "m-03"));
+        Future<Void> dropped = channel.writeAndFlush(messageFrame("a", "m-04"));
+        channel.writeAndFlush(new DefaultFullStompFrame(StompCommand.RECEIPT));
+
+        assertThat(dropped.isFailed()).isTrue();
+        assertThat(handler.isSlow()).isTrue();
+        assertThat(handler.pendingCount()).isEqualTo(2);
+        assertThat(handler.pendingBytes()).isEqualTo(2 * FRAME_SIZE);
+        assertThat(readBodies(channel)).containsExactly("m-01", "RECEIPT");
+
+        writable = true;
+        channel.pipeline().fireChannelWritabilityChanged();
+        assertThat(readBodies(channel)).containsExactly("m-02", "m-03");
+        assertThat(handler.isSlow()).isFalse();
+        assertThat(monitor.slowConsumerCount()).isOne();
+        assertThat(monitor.droppedNewestCount()).isOne();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDropOldest() {
+        StompSlowConsumerMonitor monitor = monitor(StompSlowConsumerPolicy.DROP_OLDEST, 2 * FRAME_SIZE);
+        EmbeddedChannel channel = newChannel(monitor.newHandler());
+
+        writable = false;
+        Future<Void> dropped = channel.writeAndFlush(messageFrame("a", "m-01"));
+        for (int i = 2; i <= 4; i++) {
+            channel.writeAndFlush(messageFrame("a", "m-0" + i));
+        }
+
+        assertThat(dropped.isFailed()).isTrue();
+        writable = true;
+        channel.pipeline().fireChannelWritabilityChanged();
+        assertThat(readBodies(channel)).containsExactly("m-03", "m-04");
+        assertThat(monitor.droppedOldestCount()).isEqualTo(2);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldConflateFramesWithSameKey() {
+        StompSlowConsumerMonitor monitor = monitor(StompSlowConsumerPolicy.CONFLATE, 2 * FRAME_SIZE);
+        EmbeddedChannel channel = newChannel(monitor.newHandler());
+
+        writable = false;
+        Future<Void> conflated = channel.writeAndFlush(messageFrame("a", "a-01"));
+        channel.writeAndFlush(messageFrame("b", "b-01"));
+        channel.writeAndFlush(messageFrame("a", "a-02"));
+        channel.writeAndFlush(messageFrame("c", "c-01"));
+
+        assertThat(conflated.isSuccess()).isTrue();
+        writable = true;
+        channel.pipeline().fireChannelWritabilityChanged();
+        // a-02 took the place of a-01 at the head of the queue, so it was the oldest when c-01 did not fit.
+        assertThat(readBodies(channel)).containsExactly("b-01", "c-01");
+        assertThat(monitor.conflatedCount()).isOne();
+        assertThat(monitor.droppedOldestCount()).isOne();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDisconnectWhenNotWritableForTooLong() throws Exception {
+        StompSlowConsumerMonitor monitor = new StompSlowConsumerMonitor(StompSlowConsumerPolicy.DISCONNECT,
+                1 << 20, 1, TimeUnit.MILLISECONDS);
+        EmbeddedChannel channel = newChannel(monitor.newHandler());
+
+        writable = false;
+        Future<Void> held = channel.writeAndFlush(messageFrame("a", "m-01"));
+        Thread.sleep(5);
+        channel.writeAndFlush(messageFrame("a", "m-02"));
+
+        assertThat(held.isFailed()).isTrue();
+        assertThat(channel.isActive()).isFalse();
+        assertThat(readBodies(channel)).containsExactly("ERROR");
+        assertThat(monitor.disconnectedCount()).isOne();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDisconnectWhenNotWritableForTooLongWithoutFurtherWrites() throws Exception {
+        StompSlowConsumerMonitor monitor = new StompSlowConsumerMonitor(StompSlowConsumerPolicy.DISCONNECT,
+                1 << 20, 1, TimeUnit.MILLISECONDS);
+        StompSlowConsumerHandler handler = monitor.newHandler();
+        EmbeddedChannel channel = newChannel(handler);
+
+        writable = false;
+        Future<Void> held = channel.writeAndFlush(messageFrame("a", "m-01"));
+        assertThat(handler.pendingCount()).isOne();
+        Thread.sleep(5);
+        channel.runScheduledPendingTasks();
+
+        assertThat(held.isFailed()).isTrue();
+        assertThat(handler.isSlow()).isTrue();
+        assertThat(channel.isActive()).isFalse();
+        assertThat(readBodies(channel)).containsExactly("ERROR");
+        assertThat(monitor.disconnectedCount()).isOne();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static StompSlowConsumerMonitor monitor(StompSlowConsumerPolicy policy, long maxPendingBytes) {
+        return new StompSlowConsumerMonitor(policy, maxPendingBytes, 1, TimeUnit.HOURS);
+    }
+
+    private EmbeddedChannel newChannel(StompSlowConsumerHandler handler) {
+        return new EmbeddedChannel(handler) {
+            @Override
+            public boolean isWritable() {
+                return writable;
+            }
+        };
+    }
+
+    private static List<String> readBodies(EmbeddedChannel channel) {
+        List<String> bodies = new ArrayList<>();
+        FullStompFrame next;
+        while ((next = channel.readOutbound()) != null) {
+            try (FullStompFrame frame = next) {
+                bodies.add(frame.command() == StompCommand.MESSAGE ? frame.payload().toString(UTF_8) :
+                        frame.command().name());
+            }
+        }
+        return bodies;
+    }
+
+    private static FullStompFrame messageFrame(String key, String body) {
+        FullStompFrame frame = new DefaultFullStompFrame(StompCommand.MESSAGE,
+                preferredAllocator().copyOf(body.getBytes(UTF_8)));
+        frame.headers()
+                .set(StompHeaders.SUBSCRIPTION, "sub-1")
+                .set(StompConflationHandler.CONFLATION_KEY_HEADER, key);
+        return frame;
+    }
+}
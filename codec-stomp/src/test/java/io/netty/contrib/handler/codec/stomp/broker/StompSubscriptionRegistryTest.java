@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class StompSubscriptionRegistryTest {
+
+    private final StompSubscriptionRegistry registry = new StompSubscriptionRegistry();
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+
+    @AfterEach
+    void teardown() {
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldMatchExactDestination() {
+        StompSubscription queueA = subscribe("1", "/queue/a");
+        StompSubscription queueB = subscribe("2", "/queue/b");
+
+        assertThat(registry.match("/queue/a")).containsExactly(queueA);
+        assertThat(registry.match("queue.b")).containsExactly(queueB);
+        assertThat(registry.match("/queue")).isEmpty();
+        assertThat(registry.match("/queue/a/b")).isEmpty();
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldMatchSingleSegmentWildcard() {
+        StompSubscription wildcard = subscribe("1", "/topic/*/eur");
+
+        assertThat(registry.match("/topic/prices/eur")).containsExactly(wildcard);
+        assertThat(registry.match("/topic/rates/eur")).containsExactly(wildcard);
+        assertThat(registry.match("/topic/eur")).isEmpty();
+        assertThat(registry.match("/topic/prices/usd")).isEmpty();
+    }
+
+    @Test
+    void shouldMatchMultiSegmentWildcard() {
+        StompSubscription wildcard = subscribe("1", "/topic/#");
+        StompSubscription all = subscribe("2", "#");
+        StompSubscription exact = subscribe("3", "/topic/prices/eur");
+
+        assertThat(registry.match("/topic")).containsExactlyInAnyOrder(wildcard, all);
+        assertThat(registry.match("/topic/prices/eur")).containsExactlyInAnyOrder(wildcard, all, exact);
+        assertThat(registry.match("/queue/a")).containsExactly(all);
+    }
+
+    @Test
+    void shouldRejectDuplicateSubscription() {
+        subscribe("1", "/queue/a");
+
+        assertThat(registry.subscribe(new StompSubscription("1", "/queue/a", channel))).isFalse();
+        assertThat(registry.size()).isOne();
+    }
+
+    @Test
+    void shouldRejectInvalidWildcards() {
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> registry.subscribe(new StompSubscription("1", "/topic/#/eur", channel)));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> registry.subscribe(new StompSubscription("1", "/topic/pri*", channel)));
+        assertThat(registry.size()).isZero();
+    }
+
+    @Test
+    void shouldUnsubscribe() {
+        StompSubscription queueA = subscribe("1", "/queue/a");
+        StompSubscription wildcard = subscribe("2", "/queue/*");
+
+        assertThat(registry.unsubscribe(queueA)).isTrue();
+        assertThat(registry.unsubscribe(queueA)).isFalse();
+        assertThat(registry.match("/queue/a")).containsExactly(wildcard);
+
+        assertThat(registry.unsubscribe(wildcard)).isTrue();
+        assertThat(registry.match("/queue/a")).isEmpty();
+        assertThat(registry.size()).isZero();
+    }
+
+    private StompSubscription subscribe(String id, String destination) {
+        StompSubscription subscription = new StompSubscription(id, destination, channel);
+        assertThat(registry.subscribe(subscription)).isTrue();
+        return subscription;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultStompHeaders;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty5.buffer.DefaultBufferAllocators.preferredAllocator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompTopicHistoryTest {
+
+    private final StompTopicHistory history = new StompTopicHistory(
+            destination -> destination.startsWith("/topic/"), 3, 1024, 128, preferredAllocator());
+    private final StompBroker broker = new StompBroker(new StompSubscriptionRegistry(), history);
+    private final EmbeddedChannel publisher = new EmbeddedChannel();
+
+    @AfterEach
+    void tearDown() {
+        history.close();
+        assertThat(history.retainedBytes()).isZero();
+        assertThat(publisher.finish()).isFalse();
+    }
+
+    @Test
+    void shouldReplayLastMessagesToNewSubscriber() {
+        for (int i = 0; i < 5; i++) {
+            publish("/topic/prices", "price-" + i);
+        }
+        publish("/queue/orders", "order");
+        assertThat(history.size("/topic/prices")).isEqualTo(3);
+        assertThat(history.size("/queue/orders")).isZero();
+
+        EmbeddedChannel subscriber = new EmbeddedChannel();
+        StompSubscription subscription = broker.registry().subscribe(subscriber, "sub:1", "/topic/prices");
+        StompHeaders subscribeHeaders = new DefaultStompHeaders().set(StompTopicHistory.REPLAY_LAST_HEADER, "2");
+        int[] replayed = new int[1];
+        subscriber.executor().execute(() -> replayed[0] = history.replay(subscription, subscribeHeaders));
+        subscriber.runPendingTasks();
+
+        assertThat(replayed[0]).isEqualTo(2);
+        assertThat(decode(subscriber)).containsExactly(
+                "MESSAGE sub:1 /topic/prices 3 price-3", "MESSAGE sub:1 /topic/prices 4 price-4");
+
+        publish("/topic/prices", "price-5");
+        assertThat(decode(subscriber)).containsExactly("MESSAGE sub:1 /topic/prices 5 price-5");
+        assertThat(subscriber.finish()).isFalse();
+    }
+
+    @Test
+    void shouldReplayFromSequence() {
+        for (int i = 0; i < 4; i++) {
+            publish("/topic/prices", "price-" + i);
+        }
+
+        EmbeddedChannel subscriber = new EmbeddedChannel();
+        StompSubscription subscription = broker.registry().subscribe(subscriber, "sub-1", "/topic/prices");
+        int[] replayed = new int[3];
+        subscriber.executor().execute(() -> {
+            replayed[0] = history.replayFrom(subscription, 2);
+            replayed[1] = history.replayFrom(subscription, 0);
+            replayed[2] = history.replayFrom(subscription, 4);
+        });
+        subscriber.runPendingTasks();
+
+        assertThat(replayed).containsExactly(2, 3, 0);
+        assertThat(decode(subscriber)).containsExactly(
+                "MESSAGE sub-1 /topic/prices 2 price-2", "MESSAGE sub-1 /topic/prices 3 price-3",
+                "MESSAGE sub-1 /topic/prices 1 price-1", "MESSAGE sub-1 /topic/prices 2 price-2",
+                "MESSAGE sub-1 /topic/prices 3 price-3");
+        assertThat(subscriber.finish()).isFalse();
+    }
+
+    @Test
+    void shouldReplayMessagesOfTheChunkBeingWritten() {
+        EmbeddedChannel subscriber = new EmbeddedChannel();
+        StompSubscription subscription = broker.registry().subscribe(subscriber, "sub-1", "/topic/prices");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            publish("/topic/prices", "price-" + i);
+            expected.add("MESSAGE sub-1 /topic/prices " + i + " price-" + i);
+            subscriber.executor().execute(() -> history.replayLast(subscription, 3));
+            subscriber.runPendingTasks();
+            List<String> frames = decode(subscriber);
+            int replayed = Math.min(3, i + 1);
+            assertThat(frames.subList(1, frames.size()))
+                    .containsExactlyElementsOf(expected.subList(expected.size() - replayed, expected.size()));
+        }
+        // Each message is retained once, whatever the number of replays.
+        assertThat(history.retainedBytes()).isLessThanOrEqualTo(4 * 128);
+        assertThat(subscriber.finish()).isFalse();
+    }
+
+    @Test
+    void shouldEvictOldestChunksOverGlobalLimit() {
+        for (int i = 0; i < 3; i++) {
+            publish("/topic/old", "old-" + i);
+        }
+        for (int i = 0; i < 30; i++) {
+            publish("/topic/new-" + i % 10, "new-" + i);
+            assertThat(history.retainedBytes()).isLessThanOrEqualTo(1024);
+        }
+
+        assertThat(history.size("/topic/old")).isZero();
+        assertThat(history.size("/topic/new-9")).isOne();
+
+        EmbeddedChannel subscriber = new EmbeddedChannel();
+        StompSubscription subscription = broker.registry().subscribe(subscriber, "sub-1", "/topic/new-9");
+        subscriber.executor().execute(() -> history.replayLast(subscription, 10));
+        subscriber.runPendingTasks();
+        assertThat(decode(subscriber)).containsExactly("MESSAGE sub-1 /topic/new-9 2 new-29");
+        assertThat(subscriber.finish()).isFalse();
+    }
+
+    private void publish(String destination, String body) {
+        publisher.executor().execute(() -> {
+            try (Buffer payload = preferredAllocator().copyOf(body.getBytes(UTF_8))) {
+                broker.publish(publisher.executor(), destination, new DefaultStompHeaders(), payload);
+                broker.flush(publisher.executor());
+            }
+        });
+        publisher.runPendingTasks();
+    }
+
+    private static List<String> decode(EmbeddedChannel subscriber) {
+        subscriber.runPendingTasks();
+        EmbeddedChannel decoder = new EmbeddedChannel(new StompFrameDecoder(), new StompFrameAggregator<>(1024));
+        List<String> frames = new ArrayList<>();
+        for (Object message; (message = subscriber.readOutbound()) != null;) {
+            if (message instanceof Buffer) {
+                decoder.writeInbound(message);
+                message = decoder.readInbound();
+            }
+            try (FullStompFrame frame = (FullStompFrame) message) {
+                assertThat(frame.command()).isEqualTo(StompCommand.MESSAGE);
+                frames.add(frame.command() + " " + frame.headers().getAsString(StompHeaders.SUBSCRIPTION) + ' ' +
+                        frame.headers().getAsString(StompHeaders.DESTINATION) + ' ' +
+                        frame.headers().getAsString(StompTopicHistory.SEQUENCE_HEADER) + ' ' +
+                        frame.payload().toString(UTF_8));
+            }
+        }
+        assertThat(decoder.finish()).isFalse();
+        return frames;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.broker;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompTransactionHandlerTest {
+
+    private final StompBroker broker = new StompBroker();
+    private final StompTransactionManager manager = new StompTransactionManager(broker, 512, 4096);
+    private StompTransactionHandler handler;
+    private EmbeddedChannel channel;
+
+    @BeforeEach
+    void setup() {
+        handler = manager.newHandler();
+        channel = new EmbeddedChannel(handler);
+        broker.registry().subscribe(channel, "sub-1", "/queue/a");
+    }
+
+    @Test
+    void shouldPublishBufferedFramesOnCommit() {
+        channel.writeInbound(frame(StompCommand.BEGIN, "tx-1", null));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "first"));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "second"));
+        channel.writeInbound(frame(StompCommand.ACK, "tx-1", null));
+
+        assertThat((Object) channel.readInbound()).isNull();
+        assertThat((Object) channel.readOutbound()).isNull();
+        // Payloads, header lines and the fixed cost of each frame: (5 + 38 + 64) + (6 + 38 + 64) + (17 + 64).
+        assertThat(handler.connectionBytes()).isEqualTo(296);
+        assertThat(manager.globalBytes()).isEqualTo(296);
+
+        FullStompFrame commitFrame = frame(StompCommand.COMMIT, "tx-1", null);
+        commitFrame.headers().set(StompHeaders.RECEIPT, "r-1");
+        channel.writeInbound(commitFrame);
+
+        for (String body : new String[] { "first", "second" }) {
+            try (FullStompFrame messageFrame = channel.readOutbound()) {
+                assertThat(messageFrame.command()).isEqualTo(StompCommand.MESSAGE);
+                assertThat(messageFrame.headers().contains(StompHeaders.TRANSACTION)).isFalse();
+                assertThat(messageFrame.payload().toString(UTF_8)).isEqualTo(body);
+            }
+        }
+        try (FullStompFrame receiptFrame = channel.readOutbound()) {
+            assertThat(receiptFrame.command()).isEqualTo(StompCommand.RECEIPT);
+            assertThat(receiptFrame.headers().getAsString(StompHeaders.RECEIPT_ID)).isEqualTo("r-1");
+        }
+        try (FullStompFrame ackFrame = channel.readInbound()) {
+            assertThat(ackFrame.command()).isEqualTo(StompCommand.ACK);
+        }
+
+        assertThat(handler.openTransactions()).isZero();
+        assertThat(handler.connectionBytes()).isZero();
+        assertThat(manager.globalBytes()).isZero();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldDiscardBufferedFramesOnAbort() {
+        channel.writeInbound(frame(StompCommand.BEGIN, "tx-1", null));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "first"));
+        channel.writeInbound(frame(StompCommand.ABORT, "tx-1", null));
+
+        assertThat((Object) channel.readOutbound()).isNull();
+        assertThat(manager.globalBytes()).isZero();
+
+        channel.writeInbound(frame(StompCommand.SEND, null, "plain"));
+        try (FullStompFrame sendFrame = channel.readInbound()) {
+            assertThat(sendFrame.payload().toString(UTF_8)).isEqualTo("plain");
+        }
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldCloseConnectionWhenLimitExceeded() {
+        channel.writeInbound(frame(StompCommand.BEGIN, "tx-1", null));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "0123456789".repeat(20)));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "0123456789".repeat(20)));
+
+        assertError("transaction too large: tx-1");
+        assertThat(manager.globalBytes()).isZero();
+    }
+
+    @Test
+    void shouldLimitFramesWithoutPayload() {
+        channel.writeInbound(frame(StompCommand.BEGIN, "tx-1", null));
+        for (int i = 0; i < 6; i++) {
+            channel.writeInbound(frame(StompCommand.ACK, "tx-1", null));
+        }
+        assertThat(handler.connectionBytes()).isEqualTo(6 * 81);
+        assertThat((Object) channel.readOutbound()).isNull();
+
+        channel.writeInbound(frame(StompCommand.ACK, "tx-1", null));
+        assertError("transaction too large: tx-1");
+        assertThat(manager.globalBytes()).isZero();
+    }
+
+    @Test
+    void shouldCloseConnectionWhenBufferedSendHasNoDestination() {
+        channel.writeInbound(frame(StompCommand.BEGIN, "tx-1", null));
+        FullStompFrame sendFrame = frame(StompCommand.SEND, "tx-1", "body");
+        sendFrame.headers().remove(StompHeaders.DESTINATION);
+        channel.writeInbound(sendFrame);
+
+        assertError("missing destination header");
+        assertThat(manager.globalBytes()).isZero();
+    }
+
+    @Test
+    void shouldSendErrorWhenCommitFails() {
+        assertThat(channel.finish()).isFalse();
+        StompTransactionManager manager = new StompTransactionManager(new StompBroker() {
+            @Override
+            public int publish(ChannelHandlerContext ctx, FullStompFrame sendFrame) {
+                throw new IllegalStateException("broker stopped");
+            }
+        }, 512, 4096);
+        channel = new EmbeddedChannel(manager.newHandler());
+
+        channel.writeInbound(frame(StompCommand.BEGIN, "tx-1", null));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "first"));
+        channel.writeInbound(frame(StompCommand.SEND, "tx-1", "second"));
+        FullStompFrame commitFrame = frame(StompCommand.COMMIT, "tx-1", null);
+        commitFrame.headers().set(StompHeaders.RECEIPT, "r-1");
+        channel.writeInbound(commitFrame);
+
+        assertError("failed to commit transaction tx-1: broker stopped");
+        assertThat(manager.globalBytes()).isZero();
+    }
+
+    @Test
+    void shouldCloseConnectionOnUnknownTransaction() {
+        channel.writeInbound(frame(StompCommand.COMMIT, "tx-1", null));
+
+        assertError("unknown transaction: tx-1");
+    }
+
+    private void assertError(String message) {
+        try (FullStompFrame errorFrame = channel.readOutbound()) {
+            assertThat(errorFrame.command()).isEqualTo(StompCommand.ERROR);
+            assertThat(errorFrame.headers().getAsString(StompHeaders.MESSAGE)).isEqualTo(message);
+        }
+        assertThat(channel.isActive()).isFalse();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private FullStompFrame frame(StompCommand command, String transaction, String body) {
+        FullStompFrame frame = body == null ? new DefaultFullStompFrame(command)
+                : new DefaultFullStompFrame(command, channel.bufferAllocator().copyOf(body.getBytes(UTF_8)));
+        if (transaction != null) {
+            frame.headers().set(StompHeaders.TRANSACTION, transaction);
+        }
+        if (command == StompCommand.SEND) {
+            frame.headers().set(StompHeaders.DESTINATION, "/queue/a");
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.capture;
+
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty.contrib.handler.codec.stomp.StompTestConstants;
+import io.netty.contrib.handler.codec.stomp.capture.StompCaptureReplayer.Pacing;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.contrib.handler.codec.stomp.StompTestConstants.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompCaptureTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldReplayCapturedReads() throws Exception {
+        Path file = directory.resolve("capture.bin");
+        capture(new StompCaptureHandler(file), SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS);
+
+        EmbeddedChannel channel = newReplayChannel();
+        StompCaptureReplayer replayer = StompCaptureReplayer.load(file, channel.bufferAllocator());
+        assertThat(replayer.reads()).isEqualTo(SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS.length);
+        assertThat(replayer.bytes()).isEqualTo(String.join("", SEND_FRAME_WITHOUT_CONTENT_LENGTH_PARTS).length());
+
+        assertThat(replayer.replay(channel, Pacing.ORIGINAL)).isOne();
+        assertThat(replayer.replay(channel, Pacing.MAX_SPEED)).isOne();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    void shouldAnonymizeHeaderValues() throws Exception {
+        Path file = directory.resolve("capture.bin");
+        String withContentLength = StompTestConstants.SEND_FRAME_WITH_CONTENT_LENGTH;
+        capture(new StompCaptureHandler(file, StompCaptureHandler.DEFAULT_PRESERVED_HEADERS),
+                CONNECT_FRAME,
+                withContentLength.substring(0, 30), withContentLength.substring(30, 60),
+                withContentLength.substring(60),
+                SEND_FRAME_WITHOUT_CONTENT_LENGTH);
+
+        List<String> frames = new ArrayList<>();
+        EmbeddedChannel channel = newReplayChannel();
+        channel.pipeline().addLast(new ChannelHandler() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                FullStompFrame frame = (FullStompFrame) msg;
+                StompHeaders headers = frame.headers();
+                frames.add(frame.command() + " " + headers.getAsString(StompHeaders.DESTINATION) + ' ' +
+                        headers.getAsString(StompHeaders.HOST) + ' ' + headers.getAsString(StompHeaders.CONTENT_TYPE) +
+                        ' ' + headers.getAsString(StompHeaders.CONTENT_LENGTH) + ' ' + frame.payload().toString(UTF_8));
+                ctx.fireChannelRead(msg);
+            }
+        });
+        StompCaptureReplayer replayer = StompCaptureReplayer.load(file, channel.bufferAllocator());
+
+        assertThat(replayer.replay(channel, Pacing.MAX_SPEED)).isEqualTo(3);
+        assertThat(frames).containsExactly(
+                "CONNECT null xxxxxxxxxxxxxxx null null ",
+                "SEND xxxxxxxx null text/plain 17 hello, queue a!!!",
+                "SEND xxxxxxxx null text/plain null hello, queue a!");
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static void capture(StompCaptureHandler handler, String... reads) {
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        for (String read : reads) {
+            channel.writeInbound(channel.bufferAllocator().copyOf(read, UTF_8));
+            try (Buffer buffer = channel.readInbound()) {
+                assertThat(buffer.toString(UTF_8)).isEqualTo(read);
+            }
+        }
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static EmbeddedChannel newReplayChannel() {
+        return new EmbeddedChannel(new StompFrameDecoder(), new StompFrameAggregator<>(1024));
+    }
+}
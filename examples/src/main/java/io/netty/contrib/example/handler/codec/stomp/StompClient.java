@@ -18,6 +18,7 @@ package io.netty.contrib.example.handler.codec.stomp;
 import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
 import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
 import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeartbeatHandler;
 import io.netty5.bootstrap.Bootstrap;
 import io.netty5.channel.ChannelInitializer;
 import io.netty5.channel.ChannelPipeline;
@@ -38,6 +39,7 @@ public final class StompClient {
     static final String LOGIN = System.getProperty("login", "guest");
     static final String PASSCODE = System.getProperty("passcode", "guest");
     static final String TOPIC = System.getProperty("topic", "jms.topic.exampleTopic");
+    static final long HEARTBEAT_MILLIS = Long.parseLong(System.getProperty("heartbeat", "10000"));
 
     public static void main(String[] args) throws Exception {
         EventLoopGroup group = new MultithreadEventLoopGroup(NioHandler.newFactory());
@@ -51,6 +53,7 @@ public final class StompClient {
                     pipeline.addLast("decoder", new StompFrameDecoder());
                     pipeline.addLast("encoder", new StompFrameEncoder());
                     pipeline.addLast("aggregator", new StompFrameAggregator<>(1048576));
+                    pipeline.addLast("heartbeat", new StompHeartbeatHandler(HEARTBEAT_MILLIS, HEARTBEAT_MILLIS));
                     pipeline.addLast("handler", new StompClientHandler());
                 }
             });
@@ -18,26 +18,27 @@ package io.netty.contrib.example.handler.codec.stomp.websocket;
 import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
 import io.netty.contrib.handler.codec.stomp.FullStompFrame;
 import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.broker.StompBroker;
+import io.netty.contrib.handler.codec.stomp.broker.StompSubscription;
+import io.netty.contrib.handler.codec.stomp.broker.StompSubscriptionRegistry;
 import io.netty5.buffer.Buffer;
 import io.netty5.channel.ChannelFutureListeners;
 import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.channel.SimpleChannelInboundHandler;
 import io.netty5.handler.codec.DecoderResult;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
 import static io.netty.contrib.handler.codec.stomp.StompHeaders.*;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class StompChatHandler extends SimpleChannelInboundHandler<FullStompFrame> {
 
-    private final ConcurrentMap<String, Set<StompSubscription>> chatDestinations = new ConcurrentHashMap<>();
+    private final StompBroker broker;
+    private final StompSubscriptionRegistry chatDestinations;
+
+    public StompChatHandler(StompBroker broker) {
+        this.broker = broker;
+        chatDestinations = broker.registry();
+    }
 
     @Override
     public boolean isSharable() {
@@ -69,6 +70,10 @@ public class StompChatHandler extends SimpleChannelInboundHandler<FullStompFrame
             case DISCONNECT:
                 onDisconnect(ctx, inboundFrame);
                 break;
+            case ACK:
+            case NACK:
+                // credits are released by StompFlowControlHandler
+                break;
             default:
                 sendErrorFrame("unsupported command",
                         "Received unsupported command " + inboundFrame.command(), ctx);
@@ -84,26 +89,20 @@ public class StompChatHandler extends SimpleChannelInboundHandler<FullStompFrame
             return;
         }
 
-        Set<StompSubscription> subscriptions = chatDestinations.get(destination);
-        if (subscriptions == null) {
-            subscriptions = new HashSet<>();
-            Set<StompSubscription> previousSubscriptions = chatDestinations.putIfAbsent(destination, subscriptions);
-            if (previousSubscriptions != null) {
-                subscriptions = previousSubscriptions;
-            }
+        final StompSubscription subscription;
+        try {
+            subscription = chatDestinations.subscribe(ctx.channel(), subscriptionId, destination);
+        } catch (IllegalArgumentException e) {
+            sendErrorFrame("invalid destination", e.getMessage(), ctx);
+            return;
         }
 
-        final StompSubscription subscription = new StompSubscription(subscriptionId, destination, ctx.channel());
-        if (subscriptions.contains(subscription)) {
+        if (subscription == null) {
             sendErrorFrame("duplicate subscription",
                     "Received duplicate subscription id=" + subscriptionId, ctx);
             return;
         }
 
-        subscriptions.add(subscription);
-        ctx.channel().closeFuture()
-                .addListener(future -> chatDestinations.get(subscription.destination()).remove(subscription));
-
         String receiptId = inboundFrame.headers().getAsString(RECEIPT);
         if (receiptId != null) {
             FullStompFrame receiptFrame = new DefaultFullStompFrame(StompCommand.RECEIPT);
@@ -119,25 +118,12 @@ public class StompChatHandler extends SimpleChannelInboundHandler<FullStompFrame
             return;
         }
 
-        Set<StompSubscription> subscriptions = chatDestinations.get(destination);
-        for (StompSubscription subscription : subscriptions) {
-            subscription.channel()
-                    .writeAndFlush(transformToMessage(inboundFrame, subscription));
-        }
+        broker.publish(ctx, inboundFrame);
     }
 
     private void onUnsubscribe(ChannelHandlerContext ctx, FullStompFrame inboundFrame) {
         String subscriptionId = inboundFrame.headers().getAsString(SUBSCRIPTION);
-        for (Entry<String, Set<StompSubscription>> entry : chatDestinations.entrySet()) {
-            Iterator<StompSubscription> iterator = entry.getValue().iterator();
-            while (iterator.hasNext()) {
-                StompSubscription subscription = iterator.next();
-                if (subscription.id().equals(subscriptionId) && subscription.channel().equals(ctx.channel())) {
-                    iterator.remove();
-                    return;
-                }
-            }
-        }
+        chatDestinations.unsubscribe(ctx.channel(), subscriptionId);
     }
 
     private static void onConnect(ChannelHandlerContext ctx, FullStompFrame inboundFrame) {
@@ -152,8 +138,8 @@ public class StompChatHandler extends SimpleChannelInboundHandler<FullStompFrame
         FullStompFrame connectedFrame = new DefaultFullStompFrame(StompCommand.CONNECTED);
         connectedFrame.headers()
                 .set(VERSION, handshakeAcceptVersion.version())
-                .set(SERVER, "Netty-Server")
-                .set(HEART_BEAT, "0,0");
+                .set(SERVER, "Netty-Server");
+        // The heart-beat header is added by the StompHeartbeatHandler, which negotiates it with the CONNECT frame.
         ctx.writeAndFlush(connectedFrame);
     }
 
@@ -182,20 +168,10 @@ public class StompChatHandler extends SimpleChannelInboundHandler<FullStompFrame
         ctx.writeAndFlush(errorFrame).addListener(ctx, ChannelFutureListeners.CLOSE);
     }
 
-    private static FullStompFrame transformToMessage(FullStompFrame sendFrame, StompSubscription subscription) {
-        FullStompFrame messageFrame = new DefaultFullStompFrame(StompCommand.MESSAGE, sendFrame.payload().copy(true));
-        String id = UUID.randomUUID().toString();
-        messageFrame.headers()
-                .set(MESSAGE_ID, id)
-                .set(SUBSCRIPTION, subscription.id())
-                .set(CONTENT_LENGTH, Integer.toString(messageFrame.payload().readableBytes()));
-
-        CharSequence contentType = sendFrame.headers().get(CONTENT_TYPE);
-        if (contentType != null) {
-            messageFrame.headers().set(CONTENT_TYPE, contentType);
-        }
-
-        return messageFrame;
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        broker.flush(ctx);
+        ctx.fireChannelReadComplete();
     }
 
     @Override
@@ -18,15 +18,24 @@ package io.netty.contrib.example.handler.codec.stomp.websocket;
 import io.netty.contrib.handler.codec.stomp.StompFrame;
 import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
 import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompHeartbeatHandler;
+import io.netty.contrib.handler.codec.stomp.broker.StompBroker;
+import io.netty.contrib.handler.codec.stomp.broker.StompFlowControlHandler;
+import io.netty.contrib.handler.codec.stomp.broker.StompTransactionManager;
+import io.netty5.buffer.Buffer;
 import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.handler.codec.MessageToMessageCodec;
 import io.netty5.handler.codec.http.websocketx.*;
 
 import java.util.List;
 
-public class StompWebSocketProtocolCodec extends MessageToMessageCodec<WebSocketFrame, StompFrame> {
+public class StompWebSocketProtocolCodec extends MessageToMessageCodec<WebSocketFrame, Object> {
 
-    private final StompChatHandler stompChatHandler = new StompChatHandler();
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 10000;
+
+    private final StompBroker broker = new StompBroker();
+    private final StompTransactionManager transactionManager = new StompTransactionManager(broker, 1 << 20, 64 << 20);
+    private final StompChatHandler stompChatHandler = new StompChatHandler(broker);
     private final StompWebSocketFrameEncoder stompWebSocketFrameEncoder = new StompWebSocketFrameEncoder();
 
     @Override
@@ -42,7 +51,10 @@ public class StompWebSocketProtocolCodec extends MessageToMessageCodec<WebSocket
             ctx.pipeline()
                 .addLast(new WebSocketFrameAggregator(65536))
                 .addLast(new StompFrameDecoder())
+                .addLast(new StompHeartbeatHandler(HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_INTERVAL_MILLIS))
                 .addLast(new StompFrameAggregator<>(65536))
+                .addLast(transactionManager.newHandler())
+                .addLast(new StompFlowControlHandler())
                 .addLast(stompChatHandler)
                 .remove(StompWebSocketClientPageHandler.INSTANCE);
         } else {
@@ -51,8 +63,18 @@ public class StompWebSocketProtocolCodec extends MessageToMessageCodec<WebSocket
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, StompFrame stompFrame, List<Object> out) throws Exception {
-        stompWebSocketFrameEncoder.encode(ctx, stompFrame, out);
+    public boolean acceptOutboundMessage(Object msg) {
+        return msg instanceof StompFrame || msg instanceof Buffer;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        if (msg instanceof Buffer) {
+            // A heart-beat written by StompHeartbeatHandler.
+            out.add(new TextWebSocketFrame(((Buffer) msg).split()));
+        } else {
+            stompWebSocketFrameEncoder.encode(ctx, (StompFrame) msg, out);
+        }
     }
 
     @Override
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.harness.stomp;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.Resource;
+import io.netty5.util.concurrent.Future;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Publishes a fixed number of {@code SEND} frames once connected, each one carrying its send time in the
+ * {@link StompLoopbackHarness#SEND_NANOS_HEADER} header.
+ * <p>
+ * Without a rate, frames are written as long as the channel is writable. With a rate, frames are written on a fixed
+ * schedule whether the channel is writable or not, and each one is stamped with the time it was due rather than the
+ * time it was written, so the latency of a stalled server is not hidden by a stalled publisher.
+ */
+final class HarnessPublisherHandler implements ChannelHandler {
+
+    private static final long PACING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String destination;
+    private final int messages;
+    private final byte[] payload;
+    private final int ratePerSecond;
+    private Supplier<Buffer> payloadSupplier;
+    private Future<Void> pacingFuture;
+    private long startNanos;
+    private int sent;
+
+    HarnessPublisherHandler(String destination, int messages, byte[] payload, int ratePerSecond) {
+        this.destination = destination;
+        this.messages = messages;
+        this.payload = payload;
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        payloadSupplier = ctx.bufferAllocator().constBufferSupplier(payload);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        FullStompFrame connectFrame = new DefaultFullStompFrame(StompCommand.CONNECT);
+        connectFrame.headers()
+                .set(StompHeaders.ACCEPT_VERSION, "1.2")
+                .set(StompHeaders.HOST, "localhost");
+        ctx.writeAndFlush(connectFrame);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (pacingFuture != null) {
+            pacingFuture.cancel();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        try {
+            if (msg instanceof FullStompFrame && ((FullStompFrame) msg).command() == StompCommand.CONNECTED) {
+                startNanos = System.nanoTime();
+                if (ratePerSecond > 0) {
+                    pacingFuture = ctx.executor().scheduleAtFixedRate(() -> sendDue(ctx), 0,
+                            PACING_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+                } else {
+                    sendWhileWritable(ctx);
+                }
+            }
+        } finally {
+            Resource.dispose(msg);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ratePerSecond == 0 && startNanos != 0 && ctx.channel().isWritable()) {
+            sendWhileWritable(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private void sendWhileWritable(ChannelHandlerContext ctx) {
+        while (sent < messages && ctx.channel().isWritable()) {
+            send(ctx, System.nanoTime());
+        }
+        ctx.flush();
+    }
+
+    private void sendDue(ChannelHandlerContext ctx) {
+        long due = Math.min(messages, (System.nanoTime() - startNanos) * ratePerSecond / 1_000_000_000L + 1);
+        while (sent < due) {
+            send(ctx, startNanos + sent * 1_000_000_000L / ratePerSecond);
+        }
+        ctx.flush();
+
+        if (sent == messages) {
+            pacingFuture.cancel();
+        }
+    }
+
+    private void send(ChannelHandlerContext ctx, long sendNanos) {
+        FullStompFrame sendFrame = new DefaultFullStompFrame(StompCommand.SEND, payloadSupplier.get());
+        sendFrame.headers()
+                .set(StompHeaders.DESTINATION, destination)
+                .setLong(StompLoopbackHarness.SEND_NANOS_HEADER, sendNanos);
+        ctx.write(sendFrame);
+        sent++;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.harness.stomp;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty.contrib.handler.codec.stomp.broker.StompBroker;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.Resource;
+
+/**
+ * The server side of the harness: a minimal broker which answers {@code CONNECT}, registers {@code SUBSCRIBE} frames
+ * and routes {@code SEND} frames through a {@link StompBroker}.
+ */
+final class HarnessServerHandler implements ChannelHandler {
+
+    private final StompBroker broker;
+
+    HarnessServerHandler(StompBroker broker) {
+        this.broker = broker;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof FullStompFrame)) {
+            Resource.dispose(msg);
+            return;
+        }
+
+        try (FullStompFrame frame = (FullStompFrame) msg) {
+            StompHeaders headers = frame.headers();
+            switch (frame.command()) {
+                case CONNECT:
+                case STOMP:
+                    FullStompFrame connectedFrame = new DefaultFullStompFrame(StompCommand.CONNECTED);
+                    connectedFrame.headers().set(StompHeaders.VERSION, "1.2");
+                    ctx.write(connectedFrame);
+                    break;
+                case SUBSCRIBE:
+                    broker.registry().subscribe(ctx.channel(), headers.getAsString(StompHeaders.ID),
+                            headers.getAsString(StompHeaders.DESTINATION));
+                    writeReceipt(ctx, headers);
+                    break;
+                case SEND:
+                    broker.publish(ctx, frame);
+                    break;
+                case DISCONNECT:
+                    ctx.close();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        broker.flush(ctx);
+        ctx.flush();
+    }
+
+    private static void writeReceipt(ChannelHandlerContext ctx, StompHeaders headers) {
+        String receipt = headers.getAsString(StompHeaders.RECEIPT);
+        if (receipt != null) {
+            FullStompFrame receiptFrame = new DefaultFullStompFrame(StompCommand.RECEIPT);
+            receiptFrame.headers().set(StompHeaders.RECEIPT_ID, receipt);
+            ctx.write(receiptFrame);
+        }
+    }
+}
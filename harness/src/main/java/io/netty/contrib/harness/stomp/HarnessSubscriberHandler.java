@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.harness.stomp;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.Resource;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Subscribes to the destination once connected and records the latency of every {@code MESSAGE} frame received after
+ * the warm-up, from the time in its {@link StompLoopbackHarness#SEND_NANOS_HEADER} header.
+ * <p>
+ * The histogram and the counters are only written from the event loop of the channel and must only be read once
+ * {@code received} has been counted down. A channel closed early counts down the latches it has not counted down
+ * yet and marks the handler as {@linkplain #failed() failed}, so the harness does not wait for it.
+ */
+final class HarnessSubscriberHandler implements ChannelHandler {
+
+    private final Histogram histogram = new Histogram(3);
+    private final String destination;
+    private final long expectedMessages;
+    private final long warmupMessages;
+    private final CountDownLatch subscribed;
+    private final CountDownLatch received;
+    private long receivedMessages;
+    private long firstMeasuredNanos;
+    private long lastReceivedNanos;
+    private boolean subscriptionReceipted;
+    private volatile boolean failed;
+
+    HarnessSubscriberHandler(String destination, long expectedMessages, long warmupMessages,
+                             CountDownLatch subscribed, CountDownLatch received) {
+        this.destination = destination;
+        this.expectedMessages = expectedMessages;
+        this.warmupMessages = warmupMessages;
+        this.subscribed = subscribed;
+        this.received = received;
+    }
+
+    Histogram histogram() {
+        return histogram;
+    }
+
+    long measuredMessages() {
+        return receivedMessages - warmupMessages;
+    }
+
+    long firstMeasuredNanos() {
+        return firstMeasuredNanos;
+    }
+
+    long lastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    /**
+     * Returns {@code true} if the channel was closed before the subscription or before all messages were received.
+     */
+    boolean failed() {
+        return failed;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        FullStompFrame connectFrame = new DefaultFullStompFrame(StompCommand.CONNECT);
+        connectFrame.headers()
+                .set(StompHeaders.ACCEPT_VERSION, "1.2")
+                .set(StompHeaders.HOST, "localhost");
+        ctx.write(connectFrame);
+
+        FullStompFrame subscribeFrame = new DefaultFullStompFrame(StompCommand.SUBSCRIBE);
+        subscribeFrame.headers()
+                .set(StompHeaders.ID, "0")
+                .set(StompHeaders.DESTINATION, destination)
+                .set(StompHeaders.RECEIPT, "subscribed");
+        ctx.writeAndFlush(subscribeFrame);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        try {
+            if (!(msg instanceof FullStompFrame)) {
+                return;
+            }
+
+            FullStompFrame frame = (FullStompFrame) msg;
+            switch (frame.command()) {
+                case MESSAGE:
+                    onMessage(frame.headers().getLong(StompLoopbackHarness.SEND_NANOS_HEADER, 0));
+                    break;
+                case RECEIPT:
+                    if (!subscriptionReceipted) {
+                        subscriptionReceipted = true;
+                        subscribed.countDown();
+                    }
+                    break;
+                case ERROR:
+                    System.err.println("Received an ERROR frame: " + frame.headers());
+                    ctx.close();
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            Resource.dispose(msg);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (receivedMessages < expectedMessages) {
+            failed = true;
+            if (!subscriptionReceipted) {
+                subscriptionReceipted = true;
+                subscribed.countDown();
+            }
+            received.countDown();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    private void onMessage(long sendNanos) {
+        long now = System.nanoTime();
+        lastReceivedNanos = now;
+        if (++receivedMessages > warmupMessages) {
+            if (firstMeasuredNanos == 0) {
+                firstMeasuredNanos = now;
+            }
+            histogram.recordValue(Math.max(0, now - sendNanos));
+        }
+
+        if (receivedMessages == expectedMessages) {
+            received.countDown();
+        }
+    }
+}
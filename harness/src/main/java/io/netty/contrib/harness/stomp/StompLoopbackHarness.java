@@ -0,0 +1,204 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.harness.stomp;
+
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.broker.StompBroker;
+import io.netty5.bootstrap.Bootstrap;
+import io.netty5.bootstrap.ServerBootstrap;
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelInitializer;
+import io.netty5.channel.EventLoopGroup;
+import io.netty5.channel.IoHandlerFactory;
+import io.netty5.channel.MultithreadEventLoopGroup;
+import io.netty5.channel.ServerChannel;
+import io.netty5.channel.epoll.Epoll;
+import io.netty5.channel.epoll.EpollHandler;
+import io.netty5.channel.epoll.EpollServerSocketChannel;
+import io.netty5.channel.epoll.EpollSocketChannel;
+import io.netty5.channel.nio.NioHandler;
+import io.netty5.channel.socket.nio.NioServerSocketChannel;
+import io.netty5.channel.socket.nio.NioSocketChannel;
+import io.netty5.util.NetUtil;
+import org.HdrHistogram.Histogram;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Starts a STOMP server and its client connections over the loopback interface of a single machine, publishes
+ * messages to a single destination and reports the delivered messages per second and the latency percentiles.
+ * <p>
+ * Every {@code SEND} frame carries its {@link System#nanoTime()} in a header, which the subscribers compare with their
+ * own clock, so all connections have to live in the same JVM. The server and the clients run on separate event loop
+ * groups. Everything is configured by system properties: {@code transport} ({@code nio} or {@code epoll}),
+ * {@code scenario}, {@code connections}, {@code messages} and {@code warmupMessages} per publisher,
+ * {@code payloadSize}, {@code rate} in messages per second per publisher ({@code 0} to publish as fast as the channel
+ * is writable), {@code threads} per event loop group, {@code distribution} to print the whole percentile distribution
+ * and {@code timeoutSeconds} to give up waiting for the subscriptions or the messages. The {@code harness} profile
+ * packages a runnable jar next to its dependencies, for example:
+ * <pre>
+ * mvn -Pharness -pl harness -am package -DskipTests
+ * java -Dscenario=FAN_OUT -Dconnections=16 -Dtransport=epoll -jar harness/target/netty-codec-stomp-harness.jar
+ * </pre>
+ */
+public final class StompLoopbackHarness {
+
+    static final String SEND_NANOS_HEADER = "harness-send-nanos";
+
+    static final String TRANSPORT = System.getProperty("transport", "nio");
+    static final Scenario SCENARIO = Scenario.valueOf(System.getProperty("scenario", "ONE_TO_ONE"));
+    static final int CONNECTIONS = Integer.getInteger("connections", 8);
+    static final int MESSAGES = Integer.getInteger("messages", 1_000_000);
+    static final int WARMUP_MESSAGES = Integer.getInteger("warmupMessages", 100_000);
+    static final int PAYLOAD_SIZE = Integer.getInteger("payloadSize", 128);
+    static final int RATE = Integer.getInteger("rate", 0);
+    static final int THREADS = Integer.getInteger("threads", 0);
+    static final boolean DISTRIBUTION = Boolean.getBoolean("distribution");
+    static final int TIMEOUT_SECONDS = Integer.getInteger("timeoutSeconds", 600);
+    static final String DESTINATION = "/topic/harness";
+
+    /**
+     * The publish/subscribe topologies, {@code connections} being the size of the larger side.
+     */
+    public enum Scenario {
+        ONE_TO_ONE,
+        FAN_OUT,
+        FAN_IN;
+
+        int publishers(int connections) {
+            return this == FAN_IN ? connections : 1;
+        }
+
+        int subscribers(int connections) {
+            return this == FAN_OUT ? connections : 1;
+        }
+    }
+
+    private StompLoopbackHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean epoll = "epoll".equals(TRANSPORT);
+        if (epoll) {
+            Epoll.ensureAvailability();
+        }
+        IoHandlerFactory ioHandlerFactory = epoll ? EpollHandler.newFactory() : NioHandler.newFactory();
+        Class<? extends ServerChannel> serverChannelClass = epoll ?
+                EpollServerSocketChannel.class : NioServerSocketChannel.class;
+        Class<? extends Channel> channelClass = epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+
+        EventLoopGroup serverGroup = new MultithreadEventLoopGroup(THREADS, ioHandlerFactory);
+        EventLoopGroup clientGroup = new MultithreadEventLoopGroup(THREADS, ioHandlerFactory);
+        try {
+            StompBroker broker = new StompBroker();
+            Channel serverChannel = new ServerBootstrap()
+                    .group(serverGroup)
+                    .channel(serverChannelClass)
+                    .childHandler(initializer(() -> new HarnessServerHandler(broker)))
+                    .bind(new InetSocketAddress(NetUtil.LOCALHOST, 0)).asStage().get();
+            SocketAddress address = serverChannel.localAddress();
+            Bootstrap bootstrap = new Bootstrap().group(clientGroup).channel(channelClass);
+
+            int publishers = SCENARIO.publishers(CONNECTIONS);
+            int subscribers = SCENARIO.subscribers(CONNECTIONS);
+            long expectedMessages = (long) publishers * (WARMUP_MESSAGES + MESSAGES);
+            CountDownLatch subscribed = new CountDownLatch(subscribers);
+            CountDownLatch received = new CountDownLatch(subscribers);
+            List<HarnessSubscriberHandler> subscriberHandlers = new ArrayList<>(subscribers);
+            for (int i = 0; i < subscribers; i++) {
+                HarnessSubscriberHandler handler = new HarnessSubscriberHandler(DESTINATION, expectedMessages,
+                        (long) publishers * WARMUP_MESSAGES, subscribed, received);
+                subscriberHandlers.add(handler);
+                bootstrap.handler(initializer(() -> handler)).connect(address).asStage().get();
+            }
+            await(subscribed, subscriberHandlers, "subscriptions");
+
+            byte[] payload = new byte[PAYLOAD_SIZE];
+            new Random(PAYLOAD_SIZE).nextBytes(payload);
+            for (int i = 0; i < publishers; i++) {
+                bootstrap.handler(initializer(() -> new HarnessPublisherHandler(DESTINATION,
+                        WARMUP_MESSAGES + MESSAGES, payload, RATE))).connect(address).asStage().get();
+            }
+            await(received, subscriberHandlers, "messages");
+
+            report(publishers, subscriberHandlers);
+            serverChannel.close().asStage().sync();
+        } finally {
+            clientGroup.shutdownGracefully();
+            serverGroup.shutdownGracefully();
+        }
+    }
+
+    private static void await(CountDownLatch latch, List<HarnessSubscriberHandler> subscriberHandlers, String what)
+            throws InterruptedException {
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Timed out after " + TIMEOUT_SECONDS + "s waiting for the " + what);
+        }
+        for (HarnessSubscriberHandler handler : subscriberHandlers) {
+            if (handler.failed()) {
+                throw new IllegalStateException("A subscriber was closed while waiting for the " + what);
+            }
+        }
+    }
+
+    private static ChannelInitializer<Channel> initializer(Supplier<ChannelHandler> handlerSupplier) {
+        return new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline()
+                        .addLast("decoder", new StompFrameDecoder())
+                        .addLast("encoder", new StompFrameEncoder())
+                        .addLast("aggregator", new StompFrameAggregator<>(Math.max(PAYLOAD_SIZE, 1)))
+                        .addLast("handler", handlerSupplier.get());
+            }
+        };
+    }
+
+    private static void report(int publishers, List<HarnessSubscriberHandler> subscriberHandlers) {
+        Histogram histogram = new Histogram(3);
+        long measuredMessages = 0;
+        long firstNanos = Long.MAX_VALUE;
+        long lastNanos = Long.MIN_VALUE;
+        for (HarnessSubscriberHandler handler : subscriberHandlers) {
+            histogram.add(handler.histogram());
+            measuredMessages += handler.measuredMessages();
+            firstNanos = Math.min(firstNanos, handler.firstMeasuredNanos());
+            lastNanos = Math.max(lastNanos, handler.lastReceivedNanos());
+        }
+
+        System.out.printf("%s over %s: %d publisher(s), %d subscriber(s), %d byte payload, rate %s%n",
+                SCENARIO, TRANSPORT, publishers, subscriberHandlers.size(), PAYLOAD_SIZE,
+                RATE > 0 ? RATE + " msgs/s per publisher" : "unbounded");
+        System.out.printf("throughput: %.0f msgs/s delivered%n",
+                measuredMessages * 1e9 / Math.max(1, lastNanos - firstNanos));
+        System.out.printf("latency (us): p50=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+        if (DISTRIBUTION) {
+            histogram.outputPercentileDistribution(System.out, 1000.0);
+        }
+    }
+}
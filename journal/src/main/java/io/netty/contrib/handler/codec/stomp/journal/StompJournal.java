@@ -0,0 +1,780 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.journal;
+
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.HeadersStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompFrameAggregator;
+import io.netty.contrib.handler.codec.stomp.StompFrameDecoder;
+import io.netty.contrib.handler.codec.stomp.StompFrameEncoder;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import io.netty5.util.Resource;
+import io.netty5.util.concurrent.EventExecutor;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.concurrent.Promise;
+import io.netty5.util.internal.ObjectUtil;
+import io.netty5.util.internal.logging.InternalLogger;
+import io.netty5.util.internal.logging.InternalLoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.contrib.handler.codec.stomp.journal.StompJournalSegment.RECORD_HEADER_SIZE;
+import static io.netty5.buffer.DefaultBufferAllocators.preferredAllocator;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An append-only journal of {@link FullStompFrame}s stored in segmented, memory-mapped files.
+ * <p>
+ * Frames are stored as the bytes produced by {@link StompFrameEncoder}, each with a monotonic sequence number and a
+ * checksum, and are read back by {@link #replay(long, StompJournalListener)} with {@link StompFrameDecoder}. A new
+ * segment file is started whenever the next frame does not fit in the current one.
+ * <p>
+ * Appends only copy the frame into the mapped file; the future returned by
+ * {@link #append(EventExecutor, FullStompFrame)} completes once the frame is forced to disk. A background thread
+ * forces the files once per group commit window for all frames appended within that window, so the cost of a
+ * {@code fsync} is shared by all of them and the latency of an append is bounded by the window plus one
+ * {@code fsync}.
+ * <p>
+ * On creation, the journal resumes after the last valid record of the newest segment; a record torn by a crash is
+ * ignored and overwritten.
+ * <p>
+ * The records of each destination are tracked by a memory-mapped {@link StompJournalIndex} in the {@code index}
+ * sub-directory, so {@link #replay(String, long, StompJournalListener)} reads a destination without scanning the
+ * records of the others. The indexes are forced along with the segments and a checkpoint records up to which
+ * sequence they are complete. Records after the checkpoint are only indexed when an index is first needed, so opening
+ * a journal never reads its history.
+ * <p>
+ * Records are {@linkplain #acknowledge(long) acknowledged} once they no longer need to be delivered, and
+ * {@link #compact()} rewrites the full segments which are mostly acknowledged, or deletes them if they are entirely
+ * acknowledged. Acknowledgements which were not compacted yet are lost on restart, and the records are delivered
+ * again.
+ */
+public final class StompJournal implements AutoCloseable {
+
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(StompJournal.class);
+
+    /**
+     * The default size of a segment file, 64 MiB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    /**
+     * The default group commit window in microseconds.
+     */
+    public static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 2000;
+
+    static final String INDEX_DIRECTORY = "index";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long groupCommitWindowNanos;
+    private final BufferAllocator allocator = preferredAllocator();
+    private final StompFrameEncoder encoder = new StompFrameEncoder();
+    private final Object lock = new Object();
+    private final Object compactionLock = new Object();
+    private final List<StompJournalSegment> segments = new ArrayList<>();
+    private final Set<StompJournalSegment> dirtySegments = new LinkedHashSet<>();
+    private final Path indexDirectory;
+    private final Map<String, StompJournalIndex> indexes = new HashMap<>();
+    private final Map<Path, StompJournalIndex> indexFiles = new HashMap<>();
+    private final Set<StompJournalIndex> dirtyIndexes = new LinkedHashSet<>();
+    private final FileChannel checkpointChannel;
+    private final long recoveredCheckpoint;
+    private final Thread flusher;
+    private List<PendingCommit> pendingCommits = new ArrayList<>();
+    private long firstPendingNanos;
+    private long nextSequence;
+    private long indexedSequence;
+    private boolean closed;
+
+    /**
+     * Opens the journal in the directory with the default segment size and group commit window.
+     */
+    public StompJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_GROUP_COMMIT_WINDOW_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Opens the journal in the directory, creating it if needed.
+     *
+     * @param directory         the directory of the segment files
+     * @param segmentSize       the size of a segment file, which bounds the size of an encoded frame
+     * @param groupCommitWindow the time frames may wait for the next {@code fsync}
+     * @param unit              the unit of {@code groupCommitWindow}
+     */
+    public StompJournal(Path directory, int segmentSize, long groupCommitWindow, TimeUnit unit) throws IOException {
+        this.directory = requireNonNull(directory, "directory");
+        this.segmentSize = ObjectUtil.checkPositive(segmentSize, "segmentSize");
+        groupCommitWindowNanos = unit.toNanos(ObjectUtil.checkPositiveOrZero(groupCommitWindow, "groupCommitWindow"));
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + StompJournalSegment.SUFFIX)) {
+            for (Path file : files) {
+                long firstSequence = StompJournalSegment.parseFirstSequence(file);
+                if (firstSequence >= 0) {
+                    segments.add(StompJournalSegment.open(file, firstSequence, segmentSize));
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(StompJournalSegment::firstSequence));
+
+        if (!segments.isEmpty()) {
+            StompJournalSegment last = segments.get(segments.size() - 1);
+            long lastSequence = last.lastSequence();
+            nextSequence = lastSequence >= 0 ? lastSequence + 1 : last.firstSequence();
+        }
+
+        indexDirectory = directory.resolve(INDEX_DIRECTORY);
+        Files.createDirectories(indexDirectory);
+        checkpointChannel = FileChannel.open(indexDirectory.resolve(CHECKPOINT_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer checkpoint = ByteBuffer.allocate(Long.BYTES);
+        recoveredCheckpoint = checkpointChannel.read(checkpoint, 0) == Long.BYTES ?
+                Math.min(checkpoint.getLong(0), nextSequence - 1) : -1;
+        indexedSequence = recoveredCheckpoint;
+
+        flusher = new Thread(this::flushLoop, "stomp-journal-flusher-" + directory.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Returns the sequence the next appended frame will get.
+     */
+    public long nextSequence() {
+        synchronized (lock) {
+            return nextSequence;
+        }
+    }
+
+    /**
+     * Appends the encoded frame to the journal. The frame is neither closed nor consumed.
+     *
+     * @param executor the executor notifying the listeners of the returned future
+     * @return a future completed with the sequence of the frame once it is stored durably
+     */
+    public Future<Long> append(EventExecutor executor, FullStompFrame frame) {
+        Promise<Long> promise = executor.newPromise();
+        try (Buffer encoded = encoder.encode(frame, allocator)) {
+            append(encoded, frame.headers().getAsString(StompHeaders.DESTINATION), promise);
+        } catch (Throwable cause) {
+            promise.tryFailure(cause);
+        }
+
+        return promise.asFuture();
+    }
+
+    /**
+     * Passes every frame with a sequence greater than or equal to {@code fromSequence} to the listener, in sequence
+     * order. Must not run concurrently with appends, typically it is called on restart before any new frame is
+     * appended.
+     *
+     * @return the number of replayed frames
+     */
+    public long replay(long fromSequence, StompJournalListener listener) throws Exception {
+        requireNonNull(listener, "listener");
+        List<StompJournalSegment> snapshot;
+        synchronized (lock) {
+            checkOpen();
+            snapshot = retainSegments();
+        }
+
+        EmbeddedChannel decoder = newDecoder();
+        try {
+            long count = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (i + 1 < snapshot.size() && snapshot.get(i + 1).firstSequence() <= fromSequence) {
+                    continue;
+                }
+
+                StompJournalSegment segment = snapshot.get(i);
+                int end = segment.writePosition();
+                for (int position = 0, length; position < end; position += RECORD_HEADER_SIZE + length) {
+                    length = segment.recordLength(position);
+                    long sequence = segment.recordSequence(position);
+                    if (sequence >= fromSequence) {
+                        listener.onFrame(sequence, decode(decoder, segment.mapped(), position, length));
+                        count++;
+                    }
+                }
+            }
+
+            return count;
+        } finally {
+            decoder.finishAndReleaseAll();
+            release(snapshot);
+        }
+    }
+
+    /**
+     * Passes every frame of the destination with a sequence greater than or equal to {@code fromSequence} to the
+     * listener, in sequence order, skipping the compacted ones. Records which were not indexed yet are indexed first.
+     *
+     * @return the number of replayed frames
+     */
+    public long replay(String destination, long fromSequence, StompJournalListener listener) throws Exception {
+        requireNonNull(destination, "destination");
+        requireNonNull(listener, "listener");
+        List<StompJournalSegment> snapshot;
+        long[] sequences;
+        int[] positions;
+        int count = 0;
+        synchronized (lock) {
+            checkOpen();
+            catchUpIndexes();
+            StompJournalIndex index = index(destination, false);
+            if (index == null) {
+                return 0;
+            }
+
+            int first = index.ceiling(fromSequence);
+            sequences = new long[index.size() - first];
+            positions = new int[sequences.length];
+            for (int entry = first; entry < index.size(); entry++) {
+                int position = index.position(entry);
+                if (position >= 0) {
+                    sequences[count] = index.sequence(entry);
+                    positions[count++] = position;
+                }
+            }
+            snapshot = retainSegments();
+        }
+
+        EmbeddedChannel decoder = newDecoder();
+        try {
+            long replayed = 0;
+            for (int i = 0; i < count; i++) {
+                StompJournalSegment segment = segment(snapshot, sequences[i]);
+                // The position is only a hint, it may be stale if a compaction was interrupted by a crash.
+                int position = segment != null ? segment.find(sequences[i], positions[i]) : -1;
+                if (position >= 0) {
+                    listener.onFrame(sequences[i],
+                            decode(decoder, segment.mapped(), position, segment.recordLength(position)));
+                    replayed++;
+                }
+            }
+
+            return replayed;
+        } finally {
+            decoder.finishAndReleaseAll();
+            release(snapshot);
+        }
+    }
+
+    /**
+     * Marks the frame of the sequence as acknowledged, so it can be removed by the next {@link #compact()}.
+     */
+    public void acknowledge(long sequence) {
+        synchronized (lock) {
+            StompJournalSegment segment = segment(segments, sequence);
+            if (segment != null && sequence < nextSequence) {
+                segment.acknowledge(sequence);
+            }
+        }
+    }
+
+    /**
+     * Compacts the full segments in which at least half of the records are acknowledged: the segments whose records
+     * are all acknowledged are deleted, the others are rewritten without the acknowledged records and their index
+     * entries are updated. Appends are only blocked while a compacted segment is swapped in.
+     *
+     * @return the number of bytes reclaimed, not counting those of segments still read by a replay, which are
+     *         reclaimed once it ends
+     */
+    public long compact() throws IOException {
+        synchronized (compactionLock) {
+            List<StompJournalSegment> candidates = new ArrayList<>();
+            synchronized (lock) {
+                if (closed) {
+                    return 0;
+                }
+
+                catchUpIndexes();
+                for (int i = 0; i < segments.size() - 1; i++) {
+                    StompJournalSegment segment = segments.get(i);
+                    int acknowledgedCount = segment.acknowledgedCount();
+                    if (acknowledgedCount > 0 && acknowledgedCount * 2 >= segment.recordCount()) {
+                        candidates.add(segment);
+                    }
+                }
+            }
+
+            long reclaimed = 0;
+            for (StompJournalSegment segment : candidates) {
+                reclaimed += compact(segment);
+            }
+
+            return reclaimed;
+        }
+    }
+
+    /**
+     * Runs {@link #compact()} periodically on the executor, which must allow blocking I/O.
+     *
+     * @return the future of the periodic task, cancel it to stop compacting
+     */
+    public Future<Void> scheduleCompaction(EventExecutor executor, long interval, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (Throwable cause) {
+                logger.warn("Failed to compact journal {}", directory, cause);
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Forces the pending frames to disk and closes the journal, unmapping its segments and indexes. Waits for a
+     * running {@link #compact()}, while a running replay keeps the segments it reads mapped until it ends.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+
+        flusher.join();
+        synchronized (compactionLock) {
+            synchronized (lock) {
+                release(segments);
+                segments.clear();
+                dirtySegments.clear();
+                for (StompJournalIndex index : indexFiles.values()) {
+                    index.close();
+                }
+                indexFiles.clear();
+                indexes.clear();
+                dirtyIndexes.clear();
+            }
+        }
+    }
+
+    private long compact(StompJournalSegment segment) throws IOException {
+        long firstSequence = segment.firstSequence();
+        long lastSequence;
+        int oldSize;
+        long[] retainedSequences;
+        int[] oldPositions;
+        int retained = 0;
+        int newSize = Integer.BYTES;
+        synchronized (lock) {
+            lastSequence = segment.lastSequence();
+            oldSize = segment.writePosition();
+            retainedSequences = new long[segment.recordCount()];
+            oldPositions = new int[retainedSequences.length];
+            for (int position = 0, length; position < oldSize; position += RECORD_HEADER_SIZE + length) {
+                length = segment.recordLength(position);
+                long sequence = segment.recordSequence(position);
+                if (!segment.isAcknowledged(sequence)) {
+                    retainedSequences[retained] = sequence;
+                    oldPositions[retained++] = position;
+                    newSize += RECORD_HEADER_SIZE + length;
+                }
+            }
+        }
+
+        Path path = segment.path();
+        int[] newPositions = new int[retained];
+        StompJournalSegment compacted = null;
+        if (retained > 0) {
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.deleteIfExists(temporary);
+            StompJournalSegment copy = new StompJournalSegment(temporary, firstSequence, newSize);
+            try {
+                for (int i = 0; i < retained; i++) {
+                    newPositions[i] = copy.writePosition();
+                    copy.copy(segment, oldPositions[i], segment.recordLength(oldPositions[i]));
+                }
+                copy.force();
+            } finally {
+                copy.release();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            compacted = StompJournalSegment.open(path, firstSequence, segmentSize);
+        }
+
+        boolean unmapped;
+        synchronized (lock) {
+            int index = segments.indexOf(segment);
+            if (compacted == null) {
+                segments.remove(index);
+            } else {
+                segments.set(index, compacted);
+                for (int i = 0; i < retained; i++) {
+                    if (segment.isAcknowledged(retainedSequences[i])) {
+                        compacted.acknowledge(retainedSequences[i]);
+                    }
+                }
+            }
+            relocateIndexes(firstSequence, lastSequence, retainedSequences, newPositions, retained);
+            // A replay still reading the segment keeps it mapped, its space is only reclaimed once the replay ends.
+            unmapped = segment.release();
+        }
+
+        if (compacted == null) {
+            Files.deleteIfExists(path);
+            return unmapped ? oldSize : 0;
+        }
+
+        return unmapped ? oldSize - compacted.writePosition() : 0;
+    }
+
+    private void relocateIndexes(long firstSequence, long lastSequence, long[] retainedSequences,
+                                 int[] retainedPositions, int retainedCount) throws IOException {
+        for (StompJournalIndex index : new ArrayList<>(indexFiles.values())) {
+            if (index.relocate(firstSequence, lastSequence, retainedSequences, retainedPositions, retainedCount)) {
+                dirtyIndexes.add(index);
+                if (index.removed() * 2 > index.size()) {
+                    StompJournalIndex rewritten = index.rewrite();
+                    indexFiles.put(rewritten.path(), rewritten);
+                    indexes.replaceAll((destination, value) -> value == index ? rewritten : value);
+                    dirtyIndexes.remove(index);
+                    index.close();
+                }
+            }
+        }
+
+        // The indexes of the other destinations are relocated one at a time rather than kept mapped. Their
+        // changes are not forced, the positions being hints that a stale index only makes slower to follow.
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(indexDirectory, "*" + StompJournalIndex.SUFFIX)) {
+            for (Path file : files) {
+                if (indexFiles.containsKey(file)) {
+                    continue;
+                }
+
+                StompJournalIndex index = StompJournalIndex.open(file, recoveredCheckpoint);
+                try {
+                    if (index.relocate(firstSequence, lastSequence, retainedSequences, retainedPositions,
+                            retainedCount) && index.removed() * 2 > index.size()) {
+                        index.rewrite().close();
+                    }
+                } finally {
+                    index.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the destination, opening or creating it if needed, or {@code null} if it does not exist
+     * and {@code create} is {@code false}. Must be called with the lock held.
+     */
+    private StompJournalIndex index(String destination, boolean create) throws IOException {
+        StompJournalIndex index = indexes.get(destination);
+        if (index == null) {
+            Path path = StompJournalIndex.path(indexDirectory, destination);
+            index = indexFiles.get(path);
+            if (index == null) {
+                if (!create && !Files.exists(path)) {
+                    return null;
+                }
+                // Entries from a previous run are only trusted up to the checkpoint it reached.
+                index = StompJournalIndex.open(path, recoveredCheckpoint);
+                indexFiles.put(path, index);
+                dirtyIndexes.add(index);
+            }
+            indexes.put(destination, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Indexes the records appended after {@link #indexedSequence}. Must be called with the lock held.
+     */
+    private void catchUpIndexes() throws IOException {
+        if (indexedSequence >= nextSequence - 1) {
+            return;
+        }
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new StompFrameDecoder());
+        try {
+            for (StompJournalSegment segment : segments) {
+                if (segment.lastSequence() <= indexedSequence) {
+                    continue;
+                }
+
+                int end = segment.writePosition();
+                for (int position = 0, length; position < end; position += RECORD_HEADER_SIZE + length) {
+                    length = segment.recordLength(position);
+                    long sequence = segment.recordSequence(position);
+                    if (sequence <= indexedSequence) {
+                        continue;
+                    }
+
+                    String destination = decodeDestination(decoder, segment.mapped(), position, length);
+                    if (destination != null) {
+                        StompJournalIndex index = index(destination, true);
+                        if (sequence > index.lastSequence()) {
+                            index.add(sequence, position);
+                            dirtyIndexes.add(index);
+                        }
+                    }
+                    indexedSequence = sequence;
+                }
+            }
+        } finally {
+            decoder.finishAndReleaseAll();
+        }
+    }
+
+    private static StompJournalSegment segment(List<StompJournalSegment> segments, long sequence) {
+        int low = 0;
+        int high = segments.size() - 1;
+        StompJournalSegment floor = null;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            StompJournalSegment segment = segments.get(middle);
+            if (segment.firstSequence() <= sequence) {
+                floor = segment;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return floor;
+    }
+
+    private static String decodeDestination(EmbeddedChannel decoder, MappedByteBuffer mapped, int position,
+                                            int length) {
+        int start = position + RECORD_HEADER_SIZE;
+        decoder.writeInbound(preferredAllocator().copyOf(mapped.duplicate().limit(start + length).position(start)));
+        String destination = null;
+        for (Object message; (message = decoder.readInbound()) != null;) {
+            if (destination == null && message instanceof HeadersStompFrame) {
+                destination = ((HeadersStompFrame) message).headers().getAsString(StompHeaders.DESTINATION);
+            }
+            Resource.dispose(message);
+        }
+
+        return destination;
+    }
+
+    static EmbeddedChannel newDecoder() {
+        return new EmbeddedChannel(new StompFrameDecoder(), new StompFrameAggregator<>(Integer.MAX_VALUE));
+    }
+
+    static FullStompFrame decode(EmbeddedChannel decoder, MappedByteBuffer mapped, int position, int length)
+            throws IOException {
+        int start = position + RECORD_HEADER_SIZE;
+        decoder.writeInbound(preferredAllocator().copyOf(mapped.duplicate().limit(start + length).position(start)));
+        FullStompFrame frame = decoder.readInbound();
+        if (frame == null || frame.decoderResult().isFailure()) {
+            if (frame != null) {
+                frame.close();
+            }
+            throw new IOException("corrupted journal record at position " + position);
+        }
+
+        return frame;
+    }
+
+    private void append(Buffer encoded, String destination, Promise<Long> promise) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + encoded.readableBytes();
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("frame too large for a segment: " + encoded.readableBytes());
+        }
+
+        synchronized (lock) {
+            checkOpen();
+
+            StompJournalSegment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || !segment.hasRoom(recordSize)) {
+                segment = new StompJournalSegment(StompJournalSegment.path(directory, nextSequence), nextSequence,
+                        segmentSize);
+                segments.add(segment);
+            }
+
+            long sequence = nextSequence++;
+            int position = segment.writePosition();
+            segment.append(sequence, encoded);
+            dirtySegments.add(segment);
+            if (indexedSequence == sequence - 1) {
+                index(sequence, position, destination);
+            }
+            if (pendingCommits.isEmpty()) {
+                firstPendingNanos = System.nanoTime();
+                lock.notifyAll();
+            }
+            pendingCommits.add(new PendingCommit(sequence, promise));
+        }
+    }
+
+    /**
+     * Returns the segments, each retained until {@link #release(List)}. Must be called with the lock held.
+     */
+    private List<StompJournalSegment> retainSegments() {
+        List<StompJournalSegment> snapshot = new ArrayList<>(segments.size());
+        for (StompJournalSegment segment : segments) {
+            if (segment.retain()) {
+                snapshot.add(segment);
+            }
+        }
+        return snapshot;
+    }
+
+    private static void release(List<StompJournalSegment> segments) {
+        for (StompJournalSegment segment : segments) {
+            segment.release();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("journal closed");
+        }
+    }
+
+    private void index(long sequence, int position, String destination) {
+        try {
+            if (destination != null) {
+                StompJournalIndex index = index(destination, true);
+                index.add(sequence, position);
+                dirtyIndexes.add(index);
+            }
+            indexedSequence = sequence;
+        } catch (IOException e) {
+            // The record is indexed later on, when the index is needed.
+            logger.warn("Failed to index journal record {}", sequence, e);
+        }
+    }
+
+    private void flushLoop() {
+        long checkpoint = recoveredCheckpoint;
+        for (;;) {
+            List<PendingCommit> commits;
+            List<StompJournalSegment> segmentsToForce;
+            List<StompJournalIndex> indexesToForce;
+            long indexed;
+            boolean exit;
+            synchronized (lock) {
+                try {
+                    while (pendingCommits.isEmpty() && !closed) {
+                        lock.wait();
+                    }
+
+                    long remaining;
+                    while (!closed && (remaining = firstPendingNanos + groupCommitWindowNanos - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    closed = true;
+                }
+
+                commits = pendingCommits;
+                pendingCommits = new ArrayList<>();
+                segmentsToForce = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+                indexesToForce = new ArrayList<>(dirtyIndexes);
+                dirtyIndexes.clear();
+                indexed = indexedSequence;
+                exit = closed;
+            }
+
+            Throwable cause = null;
+            for (StompJournalSegment segment : segmentsToForce) {
+                try {
+                    segment.force();
+                } catch (Throwable t) {
+                    logger.warn("Failed to force journal segment {}", segment.path(), t);
+                    cause = t;
+                }
+            }
+
+            checkpoint = cause == null ? checkpoint(indexesToForce, indexed, checkpoint) : checkpoint;
+            if (checkpoint != indexed) {
+                // Retry with the next commit, the checkpoint must not cover indexes which were not forced.
+                synchronized (lock) {
+                    dirtyIndexes.addAll(indexesToForce);
+                }
+            }
+
+            for (PendingCommit commit : commits) {
+                if (cause == null) {
+                    commit.promise.trySuccess(commit.sequence);
+                } else {
+                    commit.promise.tryFailure(cause);
+                }
+            }
+
+            if (exit) {
+                try {
+                    checkpointChannel.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close journal checkpoint {}", directory, e);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forces the indexes and records the sequence up to which they are complete.
+     *
+     * @return the new checkpoint
+     */
+    private long checkpoint(List<StompJournalIndex> indexesToForce, long indexed, long checkpoint) {
+        try {
+            for (StompJournalIndex index : indexesToForce) {
+                index.force();
+            }
+
+            if (indexed != checkpoint) {
+                checkpointChannel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, indexed), 0);
+                checkpointChannel.force(false);
+            }
+            return indexed;
+        } catch (Throwable t) {
+            // The indexes are rebuilt from the previous checkpoint after a restart.
+            logger.warn("Failed to checkpoint journal indexes {}", directory, t);
+            return checkpoint;
+        }
+    }
+
+    private static final class PendingCommit {
+
+        final long sequence;
+        final Promise<Long> promise;
+
+        PendingCommit(long sequence, Promise<Long> promise) {
+            this.sequence = sequence;
+            this.promise = promise;
+        }
+    }
+}
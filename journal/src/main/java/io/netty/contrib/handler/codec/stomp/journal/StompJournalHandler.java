@@ -0,0 +1,173 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.journal;
+
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.ChannelOption;
+import io.netty5.channel.ChannelPipeline;
+import io.netty5.util.Resource;
+import io.netty5.util.internal.ObjectUtil;
+
+import java.util.ArrayDeque;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ChannelHandler} which stores the {@code SEND} frames of durable destinations in a {@link StompJournal}
+ * before passing them on, so a message is only routed, and its receipt only sent, once it is stored durably.
+ * <p>
+ * The frames read after a durable {@code SEND} frame wait until it is stored, so the order of the frames of the
+ * connection is preserved. Frames passed on asynchronously are followed by a {@code channelReadComplete}. If a frame
+ * cannot be stored, it is released and the failure is fired as an exception. While more than a given number of frames
+ * wait, {@link ChannelOption#AUTO_READ} is turned off, and turned back on once the group commit stored half of them.
+ * Insert this handler after the {@link io.netty.contrib.handler.codec.stomp.StompFrameAggregator} in the
+ * {@link ChannelPipeline}.
+ */
+public class StompJournalHandler implements ChannelHandler {
+
+    /**
+     * The default number of waiting frames above which reading is suspended.
+     */
+    public static final int DEFAULT_MAX_PENDING_FRAMES = 1024;
+
+    private final StompJournal journal;
+    private final Predicate<String> durableDestination;
+    private final int maxPendingFrames;
+    private final ArrayDeque<PendingFrame> pendingFrames = new ArrayDeque<>();
+    private boolean readSuspended;
+
+    /**
+     * Creates a new instance suspending reads above {@value #DEFAULT_MAX_PENDING_FRAMES} waiting frames.
+     *
+     * @param journal            the journal durable frames are appended to
+     * @param durableDestination tests if a destination is durable
+     */
+    public StompJournalHandler(StompJournal journal, Predicate<String> durableDestination) {
+        this(journal, durableDestination, DEFAULT_MAX_PENDING_FRAMES);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param journal            the journal durable frames are appended to
+     * @param durableDestination tests if a destination is durable
+     * @param maxPendingFrames   the number of waiting frames above which reading is suspended
+     */
+    public StompJournalHandler(StompJournal journal, Predicate<String> durableDestination, int maxPendingFrames) {
+        this.journal = requireNonNull(journal, "journal");
+        this.durableDestination = requireNonNull(durableDestination, "durableDestination");
+        this.maxPendingFrames = ObjectUtil.checkPositive(maxPendingFrames, "maxPendingFrames");
+    }
+
+    /**
+     * Returns the number of frames waiting for a durable frame to be stored.
+     */
+    public int pendingFrames() {
+        return pendingFrames.size();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (isDurable(msg)) {
+            PendingFrame pendingFrame = new PendingFrame(msg);
+            pendingFrames.add(pendingFrame);
+            journal.append(ctx.executor(), (FullStompFrame) msg).addListener(future -> {
+                pendingFrame.done = true;
+                pendingFrame.cause = future.isFailed() ? future.cause() : null;
+                drain(ctx);
+            });
+        } else if (pendingFrames.isEmpty()) {
+            ctx.fireChannelRead(msg);
+        } else {
+            PendingFrame pendingFrame = new PendingFrame(msg);
+            pendingFrame.done = true;
+            pendingFrames.add(pendingFrame);
+        }
+
+        if (!readSuspended && pendingFrames.size() > maxPendingFrames) {
+            readSuspended = true;
+            ctx.channel().setOption(ChannelOption.AUTO_READ, false);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        PendingFrame pendingFrame;
+        while ((pendingFrame = pendingFrames.poll()) != null) {
+            Resource.dispose(pendingFrame.msg);
+        }
+        resumeRead(ctx);
+    }
+
+    private boolean isDurable(Object msg) {
+        if (!(msg instanceof FullStompFrame)) {
+            return false;
+        }
+
+        FullStompFrame frame = (FullStompFrame) msg;
+        if (frame.command() != StompCommand.SEND || frame.decoderResult().isFailure()) {
+            return false;
+        }
+
+        String destination = frame.headers().getAsString(StompHeaders.DESTINATION);
+        return destination != null && durableDestination.test(destination);
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        boolean fired = false;
+        PendingFrame pendingFrame;
+        while ((pendingFrame = pendingFrames.peek()) != null && pendingFrame.done) {
+            pendingFrames.poll();
+            if (pendingFrame.cause != null) {
+                Resource.dispose(pendingFrame.msg);
+                ctx.fireChannelExceptionCaught(pendingFrame.cause);
+            } else {
+                ctx.fireChannelRead(pendingFrame.msg);
+                fired = true;
+            }
+        }
+
+        if (fired) {
+            ctx.fireChannelReadComplete();
+        }
+        if (pendingFrames.size() <= maxPendingFrames >>> 1) {
+            resumeRead(ctx);
+        }
+    }
+
+    private void resumeRead(ChannelHandlerContext ctx) {
+        if (readSuspended) {
+            readSuspended = false;
+            ctx.channel().setOption(ChannelOption.AUTO_READ, true);
+        }
+    }
+
+    private static final class PendingFrame {
+
+        final Object msg;
+        boolean done;
+        Throwable cause;
+
+        PendingFrame(Object msg) {
+            this.msg = msg;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.journal;
+
+import io.netty5.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped offset index of the records of one destination in a {@link StompJournal}, mapping the sequence of
+ * each record to its position in its segment. The index only holds the records of its destination, so it is sparse
+ * over the journal and a destination can be read without scanning the records of the others.
+ * <p>
+ * An entry is made of the sequence plus one, so that zero marks a free entry, and the position of the record, or
+ * {@code -1} once the record has been removed by compaction. Entries are kept in sequence order. Only the entries up
+ * to the checkpoint of the journal are trusted when the index is opened, the others are rebuilt from the segments.
+ * <p>
+ * The journal updates the index under its lock, while its flusher forces it without, so replacing or unmapping the
+ * mapping is synchronized with {@link #force()}.
+ */
+final class StompJournalIndex {
+
+    static final String SUFFIX = ".index";
+    static final int ENTRY_SIZE = 12;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Path path;
+    private MappedByteBuffer mapped;
+    private int capacity;
+    private int size;
+    private int removed;
+
+    private StompJournalIndex(Path path, MappedByteBuffer mapped, int capacity) {
+        this.path = path;
+        this.mapped = mapped;
+        this.capacity = capacity;
+    }
+
+    static Path path(Path directory, String destination) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(destination.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Opens or creates the index file, keeping only the entries up to {@code checkpoint} and clearing the others.
+     */
+    static StompJournalIndex open(Path path, long checkpoint) throws IOException {
+        int capacity = INITIAL_CAPACITY;
+        if (Files.exists(path)) {
+            capacity = Math.max(capacity, (int) (Files.size(path) / ENTRY_SIZE));
+        }
+
+        StompJournalIndex index = new StompJournalIndex(path, map(path, capacity), capacity);
+        index.recover(checkpoint);
+        return index;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of entries whose record has been removed.
+     */
+    int removed() {
+        return removed;
+    }
+
+    long sequence(int entry) {
+        return mapped.getLong(entry * ENTRY_SIZE) - 1;
+    }
+
+    int position(int entry) {
+        return mapped.getInt(entry * ENTRY_SIZE + 8);
+    }
+
+    long lastSequence() {
+        return size == 0 ? -1 : sequence(size - 1);
+    }
+
+    /**
+     * Adds the entry of a record whose sequence is greater than the last one.
+     */
+    void add(long sequence, int position) throws IOException {
+        assert sequence > lastSequence();
+        if (size == capacity) {
+            grow();
+        }
+
+        int offset = size * ENTRY_SIZE;
+        mapped.putInt(offset + 8, position);
+        // The sequence is written last, as it marks the entry as used.
+        mapped.putLong(offset, sequence + 1);
+        size++;
+    }
+
+    /**
+     * Returns the first entry whose sequence is greater than or equal to the given one, {@link #size()} if none.
+     */
+    int ceiling(long sequence) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequence(middle) < sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private synchronized void grow() throws IOException {
+        MappedByteBuffer grown = map(path, capacity << 1);
+        PlatformDependent.freeDirectBuffer(mapped);
+        mapped = grown;
+        capacity <<= 1;
+    }
+
+    /**
+     * Updates the positions of the entries of a compacted segment.
+     *
+     * @param firstSequence      the first sequence of the segment
+     * @param lastSequence       the last sequence of the segment before compaction
+     * @param retainedSequences  the sorted sequences of the records left in the segment
+     * @param retainedPositions  the new positions of the records left in the segment
+     * @param retainedCount      the number of records left in the segment
+     * @return {@code true} if an entry was changed
+     */
+    boolean relocate(long firstSequence, long lastSequence, long[] retainedSequences, int[] retainedPositions,
+                     int retainedCount) {
+        boolean changed = false;
+        for (int entry = ceiling(firstSequence); entry < size; entry++) {
+            long sequence = sequence(entry);
+            if (sequence > lastSequence) {
+                break;
+            }
+
+            int oldPosition = position(entry);
+            if (oldPosition < 0) {
+                continue;
+            }
+
+            int retained = Arrays.binarySearch(retainedSequences, 0, retainedCount, sequence);
+            int newPosition = retained >= 0 ? retainedPositions[retained] : -1;
+            if (newPosition != oldPosition) {
+                mapped.putInt(entry * ENTRY_SIZE + 8, newPosition);
+                if (newPosition < 0) {
+                    removed++;
+                }
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Rewrites the index without the entries of removed records. This index must be closed once replaced.
+     *
+     * @return the new index
+     */
+    StompJournalIndex rewrite() throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size - removed)) << 1);
+        MappedByteBuffer rewritten = map(temporary, capacity);
+        int rewrittenSize = 0;
+        try {
+            for (int entry = 0; entry < size; entry++) {
+                int position = position(entry);
+                if (position >= 0) {
+                    rewritten.putInt(rewrittenSize * ENTRY_SIZE + 8, position);
+                    rewritten.putLong(rewrittenSize * ENTRY_SIZE, sequence(entry) + 1);
+                    rewrittenSize++;
+                }
+            }
+            rewritten.force();
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            PlatformDependent.freeDirectBuffer(rewritten);
+            throw e;
+        }
+
+        // The mapping outlives the move, it now maps the file at the path of this index.
+        StompJournalIndex index = new StompJournalIndex(path, rewritten, capacity);
+        index.size = rewrittenSize;
+        return index;
+    }
+
+    synchronized void force() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /**
+     * Unmaps the file. The index must no longer be used, except for {@link #force()} which then does nothing.
+     */
+    synchronized void close() {
+        if (mapped != null) {
+            PlatformDependent.freeDirectBuffer(mapped);
+            mapped = null;
+        }
+    }
+
+    private void recover(long checkpoint) {
+        // Trusted entries form a sorted prefix, followed by free entries or entries written after the checkpoint.
+        int low = 0;
+        int high = capacity;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long stored = mapped.getLong(middle * ENTRY_SIZE);
+            if (stored != 0 && stored - 1 <= checkpoint) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        size = low;
+
+        // Clear untrusted entries, they may refer to records which never reached the disk.
+        for (int entry = size; entry < capacity && mapped.getLong(entry * ENTRY_SIZE) != 0; entry++) {
+            mapped.putLong(entry * ENTRY_SIZE, 0);
+        }
+
+        for (int entry = 0; entry < size; entry++) {
+            if (position(entry) < 0) {
+                removed++;
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(MapMode.READ_WRITE, 0, (long) capacity * ENTRY_SIZE);
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.journal;
+
+import io.netty5.buffer.Buffer;
+import io.netty5.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32C;
+
+/**
+ * A memory-mapped file of a {@link StompJournal}, holding the records of consecutive sequences starting at
+ * {@link #firstSequence()}. A record is made of its length, a CRC32C checksum, its sequence and the encoded frame;
+ * a zero length marks the end of the records.
+ * <p>
+ * Once compacted, a segment only holds the records which were not acknowledged, so its sequences are no longer
+ * consecutive. Acknowledgements are only kept in memory.
+ * <p>
+ * The journal holds a reference to each of its segments and replays {@linkplain #retain() retain} the segments they
+ * read, so a segment swapped out by compaction is only unmapped once the last replay reading it is done.
+ */
+final class StompJournalSegment {
+
+    static final String SUFFIX = ".journal";
+    static final int RECORD_HEADER_SIZE = 16;
+
+    private final Path path;
+    private final long firstSequence;
+    private final int size;
+    private final BitSet acknowledged = new BitSet();
+    private MappedByteBuffer mapped;
+    private int references = 1;
+    private int writePosition = -1;
+    private long lastSequence = -1;
+    private int recordCount;
+    private int acknowledgedCount;
+
+    StompJournalSegment(Path path, long firstSequence, int size) {
+        this.path = path;
+        this.firstSequence = firstSequence;
+        this.size = size;
+    }
+
+    /**
+     * Opens an existing segment file, keeping its size as it may have been shrunk by compaction.
+     */
+    static StompJournalSegment open(Path path, long firstSequence, int defaultSize) throws IOException {
+        long size = Files.size(path);
+        return new StompJournalSegment(path, firstSequence,
+                size > RECORD_HEADER_SIZE ? (int) Math.min(size, Integer.MAX_VALUE) : defaultSize);
+    }
+
+    static Path path(Path directory, long firstSequence) {
+        return directory.resolve(String.format("%020d%s", firstSequence, SUFFIX));
+    }
+
+    /**
+     * Returns the first sequence of the segment file name, or {@code -1} if it is not a segment file.
+     */
+    static long parseFirstSequence(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException ignore) {
+            return -1;
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long firstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Returns the sequence of the last record, {@code -1} if the segment is empty.
+     */
+    long lastSequence() throws IOException {
+        recover();
+        return lastSequence;
+    }
+
+    /**
+     * Returns the position after the last record.
+     */
+    int writePosition() throws IOException {
+        recover();
+        return writePosition;
+    }
+
+    /**
+     * Returns the number of records in the segment.
+     */
+    int recordCount() throws IOException {
+        recover();
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of records acknowledged since the segment was opened.
+     */
+    int acknowledgedCount() {
+        return acknowledgedCount;
+    }
+
+    /**
+     * Marks the record of the sequence as acknowledged, returns {@code false} if it already was.
+     */
+    boolean acknowledge(long sequence) {
+        int index = (int) (sequence - firstSequence);
+        if (acknowledged.get(index)) {
+            return false;
+        }
+
+        acknowledged.set(index);
+        acknowledgedCount++;
+        return true;
+    }
+
+    boolean isAcknowledged(long sequence) {
+        return acknowledged.get((int) (sequence - firstSequence));
+    }
+
+    /**
+     * Returns the size of the segment file.
+     */
+    int size() {
+        return size;
+    }
+
+    synchronized MappedByteBuffer mapped() throws IOException {
+        if (references == 0) {
+            throw new IllegalStateException("segment released: " + path);
+        }
+        if (mapped == null) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                mapped = channel.map(MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        return mapped;
+    }
+
+    boolean hasRoom(int recordSize) throws IOException {
+        return writePosition() + recordSize <= size;
+    }
+
+    void append(long sequence, Buffer encoded) throws IOException {
+        MappedByteBuffer mapped = mapped();
+        int position = writePosition();
+        int length = encoded.readableBytes();
+        encoded.copyInto(encoded.readerOffset(), mapped, position + RECORD_HEADER_SIZE, length);
+        mapped.putLong(position + 8, sequence);
+        mapped.putInt(position + 4, checksum(mapped, position, length));
+
+        int next = position + RECORD_HEADER_SIZE + length;
+        if (next + 4 <= size) {
+            mapped.putInt(next, 0);
+        }
+        // The length is written last, so a torn record is never seen as complete.
+        mapped.putInt(position, length);
+
+        writePosition = next;
+        lastSequence = sequence;
+        recordCount++;
+    }
+
+    /**
+     * Copies a valid record of another segment as is, keeping its sequence and checksum.
+     */
+    void copy(StompJournalSegment source, int sourcePosition, int length) throws IOException {
+        MappedByteBuffer mapped = mapped();
+        int position = writePosition();
+        int recordSize = RECORD_HEADER_SIZE + length;
+        mapped.duplicate().position(position + 4).put(
+                source.mapped().duplicate().limit(sourcePosition + recordSize).position(sourcePosition + 4));
+        int next = position + recordSize;
+        if (next + 4 <= size) {
+            mapped.putInt(next, 0);
+        }
+        mapped.putInt(position, length);
+
+        writePosition = next;
+        lastSequence = recordSequence(position);
+        recordCount++;
+    }
+
+    /**
+     * Returns the position of the record of the sequence, checking {@code hint} first, or {@code -1} if the segment
+     * has no such record.
+     */
+    int find(long sequence, int hint) throws IOException {
+        if (hint >= 0 && recordLength(hint) > 0 && recordSequence(hint) == sequence) {
+            return hint;
+        }
+
+        int end = writePosition();
+        for (int position = 0, length; position < end; position += RECORD_HEADER_SIZE + length) {
+            length = recordLength(position);
+            long recordSequence = recordSequence(position);
+            if (recordSequence == sequence) {
+                return position;
+            }
+            if (recordSequence > sequence) {
+                break;
+            }
+        }
+
+        return -1;
+    }
+
+    void force() throws IOException {
+        mapped().force();
+    }
+
+    /**
+     * Adds a reference to the segment, so it stays mapped until {@link #release()}.
+     *
+     * @return {@code false} if the segment has already been unmapped
+     */
+    synchronized boolean retain() {
+        if (references == 0) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Releases a reference to the segment and unmaps the file once there are none left. The mapped buffer must no
+     * longer be used by the caller.
+     *
+     * @return {@code true} if the file has been unmapped
+     */
+    synchronized boolean release() {
+        if (references == 0 || --references > 0) {
+            return false;
+        }
+
+        if (mapped != null) {
+            PlatformDependent.freeDirectBuffer(mapped);
+            mapped = null;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the valid record at the position, or {@code -1} if there is none.
+     */
+    int recordLength(int position) throws IOException {
+        if (position + RECORD_HEADER_SIZE > size) {
+            return -1;
+        }
+
+        MappedByteBuffer mapped = mapped();
+        int length = mapped.getInt(position);
+        if (length <= 0 || length > size - position - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+
+        return checksum(mapped, position, length) == mapped.getInt(position + 4) ? length : -1;
+    }
+
+    long recordSequence(int position) throws IOException {
+        return mapped().getLong(position + 8);
+    }
+
+    private static int checksum(MappedByteBuffer mapped, int position, int length) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(mapped.duplicate().limit(position + RECORD_HEADER_SIZE + length).position(position + 8));
+        return (int) checksum.getValue();
+    }
+
+    private void recover() throws IOException {
+        if (writePosition >= 0) {
+            return;
+        }
+
+        int position = 0;
+        long sequence = -1;
+        int count = 0;
+        for (int length; (length = recordLength(position)) > 0; position += RECORD_HEADER_SIZE + length) {
+            sequence = recordSequence(position);
+            count++;
+        }
+
+        writePosition = position;
+        lastSequence = sequence;
+        recordCount = count;
+    }
+}
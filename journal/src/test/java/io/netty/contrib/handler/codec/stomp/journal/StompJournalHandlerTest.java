@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.journal;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.channel.ChannelOption;
+import io.netty5.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StompJournalHandlerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldPassDurableFramesOnInOrderOnceStored() throws Exception {
+        try (StompJournal journal = new StompJournal(directory, 1 << 16, 10, TimeUnit.MILLISECONDS)) {
+            EmbeddedChannel channel = new EmbeddedChannel(
+                    new StompJournalHandler(journal, destination -> destination.startsWith("/queue/durable")));
+
+            channel.writeInbound(sendFrame(channel, "/queue/durable", "first"));
+            channel.writeInbound(sendFrame(channel, "/queue/transient", "second"));
+            assertThat((Object) channel.readInbound()).isNull();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (channel.inboundMessages().size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+                channel.runPendingTasks();
+            }
+
+            for (String body : new String[] { "first", "second" }) {
+                try (FullStompFrame frame = channel.readInbound()) {
+                    assertThat(frame.payload().toString(UTF_8)).isEqualTo(body);
+                }
+            }
+            assertThat(channel.finish()).isFalse();
+            assertThat(journal.nextSequence()).isOne();
+        }
+    }
+
+    @Test
+    void shouldSuspendReadingWhileTooManyFramesWait() throws Exception {
+        try (StompJournal journal = new StompJournal(directory, 1 << 16, 500, TimeUnit.MILLISECONDS)) {
+            StompJournalHandler handler = new StompJournalHandler(journal, destination -> true, 2);
+            EmbeddedChannel channel = new EmbeddedChannel(handler);
+
+            channel.writeInbound(sendFrame(channel, "/queue/durable", "first"));
+            channel.writeInbound(sendFrame(channel, "/queue/durable", "second"));
+            assertThat(channel.getOption(ChannelOption.AUTO_READ)).isTrue();
+            channel.writeInbound(sendFrame(channel, "/queue/durable", "third"));
+            assertThat(handler.pendingFrames()).isEqualTo(3);
+            assertThat(channel.getOption(ChannelOption.AUTO_READ)).isFalse();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (channel.inboundMessages().size() < 3 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+                channel.runPendingTasks();
+            }
+
+            assertThat(handler.pendingFrames()).isZero();
+            assertThat(channel.getOption(ChannelOption.AUTO_READ)).isTrue();
+            for (String body : new String[] { "first", "second", "third" }) {
+                try (FullStompFrame frame = channel.readInbound()) {
+                    assertThat(frame.payload().toString(UTF_8)).isEqualTo(body);
+                }
+            }
+            assertThat(channel.finish()).isFalse();
+        }
+    }
+
+    private static FullStompFrame sendFrame(EmbeddedChannel channel, String destination, String body) {
+        FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND,
+                channel.bufferAllocator().copyOf(body.getBytes(UTF_8)));
+        frame.headers().set(StompHeaders.DESTINATION, destination);
+        return frame;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2022 The Netty Project
+ *
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package io.netty.contrib.handler.codec.stomp.journal;
+
+import io.netty.contrib.handler.codec.stomp.DefaultFullStompFrame;
+import io.netty.contrib.handler.codec.stomp.FullStompFrame;
+import io.netty.contrib.handler.codec.stomp.StompCommand;
+import io.netty.contrib.handler.codec.stomp.StompHeaders;
+import io.netty5.util.concurrent.Future;
+import io.netty5.util.concurrent.ImmediateEventExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.netty5.buffer.DefaultBufferAllocators.preferredAllocator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StompJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldReplayAppendedFramesAfterRestart() throws Exception {
+        try (StompJournal journal = new StompJournal(directory)) {
+            assertThat(append(journal, "first")).isZero();
+            assertThat(append(journal, "second")).isOne();
+        }
+
+        try (StompJournal journal = new StompJournal(directory)) {
+            assertThat(journal.nextSequence()).isEqualTo(2);
+            assertThat(replay(journal, 0)).containsExactly("0:/queue/first:first", "1:/queue/second:second");
+            assertThat(append(journal, "third")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void shouldRejectReplayAfterClose() throws Exception {
+        StompJournal journal = new StompJournal(directory);
+        append(journal, "first");
+        assertThat(replay(journal, 0)).containsExactly("0:/queue/first:first");
+        journal.close();
+        journal.close();
+
+        assertThatThrownBy(() -> replay(journal, 0)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> journal.replay("/queue/first", 0, (sequence, frame) -> frame.close()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldRollSegmentsAndReplayFromSequence() throws Exception {
+        try (StompJournal journal = new StompJournal(directory, 256, 0, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 10; i++) {
+                append(journal, "message-" + i);
+            }
+
+            assertThat(segmentFiles()).hasSizeGreaterThan(2);
+            assertThat(replay(journal, 7)).containsExactly(
+                    "7:/queue/message-7:message-7", "8:/queue/message-8:message-8", "9:/queue/message-9:message-9");
+        }
+    }
+
+    @Test
+    void shouldIgnoreTornRecord() throws Exception {
+        try (StompJournal journal = new StompJournal(directory)) {
+            append(journal, "first");
+            append(journal, "second");
+        }
+
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long secondRecordEnd = 0;
+            for (int i = 0; i < 2; i++) {
+                ByteBuffer length = ByteBuffer.allocate(4);
+                channel.read(length, secondRecordEnd);
+                secondRecordEnd += StompJournalSegment.RECORD_HEADER_SIZE + length.flip().getInt();
+            }
+            channel.write(ByteBuffer.wrap(new byte[] { 'X' }), secondRecordEnd - 3);
+        }
+
+        try (StompJournal journal = new StompJournal(directory)) {
+            assertThat(journal.nextSequence()).isOne();
+            assertThat(replay(journal, 0)).containsExactly("0:/queue/first:first");
+            assertThat(append(journal, "third")).isOne();
+            assertThat(replay(journal, 0)).containsExactly("0:/queue/first:first", "1:/queue/third:third");
+        }
+    }
+
+    @Test
+    void shouldReplayDestinationFromIndex() throws Exception {
+        try (StompJournal journal = new StompJournal(directory, 256, 0, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 6; i++) {
+                append(journal, destination(i), "message-" + i);
+            }
+
+            assertThat(replay(journal, "/queue/odd", 2)).containsExactly(
+                    "3:/queue/odd:message-3", "5:/queue/odd:message-5");
+            assertThat(replay(journal, "/queue/none", 0)).isEmpty();
+        }
+
+        try (StompJournal journal = new StompJournal(directory, 256, 0, TimeUnit.MILLISECONDS)) {
+            assertThat(replay(journal, "/queue/even", 0)).containsExactly(
+                    "0:/queue/even:message-0", "2:/queue/even:message-2", "4:/queue/even:message-4");
+        }
+    }
+
+    @Test
+    void shouldRebuildIndexLazily() throws Exception {
+        try (StompJournal journal = new StompJournal(directory)) {
+            append(journal, "first");
+            append(journal, "second");
+        }
+
+        Path indexDirectory = directory.resolve(StompJournal.INDEX_DIRECTORY);
+        try (Stream<Path> files = Files.list(indexDirectory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+
+        try (StompJournal journal = new StompJournal(directory)) {
+            assertThat(indexFiles()).isEmpty();
+            assertThat(append(journal, "third")).isEqualTo(2);
+            assertThat(indexFiles()).isEmpty();
+
+            assertThat(replay(journal, "/queue/second", 0)).containsExactly("1:/queue/second:second");
+            assertThat(replay(journal, "/queue/third", 0)).containsExactly("2:/queue/third:third");
+            assertThat(indexFiles()).hasSize(3);
+        }
+    }
+
+    @Test
+    void shouldCompactAcknowledgedRecords() throws Exception {
+        List<String> expected = new ArrayList<>();
+        try (StompJournal journal = new StompJournal(directory, 256, 0, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 12; i++) {
+                append(journal, destination(i), "message-" + i);
+            }
+
+            List<Path> segments = segmentFiles();
+            assertThat(segments).hasSizeGreaterThanOrEqualTo(3);
+            long secondSegment = StompJournalSegment.parseFirstSequence(segments.get(1));
+            long thirdSegment = StompJournalSegment.parseFirstSequence(segments.get(2));
+            for (int i = 0; i < 12; i++) {
+                // The first segment is entirely acknowledged, the second one except its last record.
+                if (i < thirdSegment - 1) {
+                    journal.acknowledge(i);
+                } else {
+                    expected.add(i + ":" + destination(i) + ":message-" + i);
+                }
+            }
+            // The segment being appended to is never compacted.
+            journal.acknowledge(11);
+
+            assertThat(journal.compact()).isPositive();
+            assertThat(segmentFiles()).hasSize(segments.size() - 1).doesNotContain(segments.get(0));
+            assertThat(StompJournalSegment.parseFirstSequence(segmentFiles().get(0))).isEqualTo(secondSegment);
+            assertThat(journal.compact()).isZero();
+            assertThat(replay(journal, 0)).containsExactlyElementsOf(expected);
+        }
+
+        try (StompJournal journal = new StompJournal(directory, 256, 0, TimeUnit.MILLISECONDS)) {
+            assertThat(replay(journal, 0)).containsExactlyElementsOf(expected);
+            assertThat(replay(journal, "/queue/odd", 0)).containsExactlyElementsOf(
+                    expected.stream().filter(frame -> frame.contains("/queue/odd")).collect(Collectors.toList()));
+            assertThat(append(journal, "/queue/odd", "message-12")).isEqualTo(12);
+        }
+    }
+
+    @Test
+    void shouldKeepSegmentsMappedWhileReplayed() throws Exception {
+        try (StompJournal journal = new StompJournal(directory, 256, 0, TimeUnit.MILLISECONDS)) {
+            for (int i = 0; i < 12; i++) {
+                append(journal, destination(i), "message-" + i);
+            }
+            List<Path> segments = segmentFiles();
+            for (int i = 0; i < 11; i++) {
+                journal.acknowledge(i);
+            }
+
+            long[] reclaimed = { -1 };
+            List<String> frames = new ArrayList<>();
+            journal.replay(0, (sequence, frame) -> {
+                if (reclaimed[0] < 0) {
+                    reclaimed[0] = journal.compact();
+                }
+                record(frames, sequence, frame);
+            });
+
+            // The compacted segments were still read by the replay, so their space was not reclaimed yet.
+            assertThat(reclaimed[0]).isZero();
+            assertThat(frames).hasSize(12);
+            assertThat(segmentFiles()).hasSize(1).containsExactly(segments.get(segments.size() - 1));
+            // The segment being appended to is never compacted.
+            assertThat(replay(journal, 0)).containsExactlyElementsOf(frames.subList(8, 12));
+        }
+    }
+
+    @Test
+    void shouldRelocateGrownIndexNotOpen() throws Exception {
+        List<String> expected = new ArrayList<>();
+        try (StompJournal journal = new StompJournal(directory, 4096, 0, TimeUnit.MILLISECONDS)) {
+            // More entries than the initial capacity of an index.
+            for (int i = 0; i < 1100; i++) {
+                append(journal, "/queue/grown", "m" + i);
+            }
+        }
+
+        try (StompJournal journal = new StompJournal(directory, 4096, 0, TimeUnit.MILLISECONDS)) {
+            // The index of the destination is not open, compaction relocates it from its file.
+            for (int i = 0; i < 1100; i++) {
+                if (i % 100 == 99) {
+                    expected.add(i + ":/queue/grown:m" + i);
+                } else {
+                    journal.acknowledge(i);
+                }
+            }
+            assertThat(journal.compact()).isPositive();
+            assertThat(indexFiles()).hasSize(1);
+            assertThat(replay(journal, "/queue/grown", 0)).containsAll(expected);
+        }
+
+        try (StompJournal journal = new StompJournal(directory, 4096, 0, TimeUnit.MILLISECONDS)) {
+            assertThat(replay(journal, "/queue/grown", 0)).containsAll(expected);
+        }
+    }
+
+    private static String destination(int i) {
+        return i % 2 == 0 ? "/queue/even" : "/queue/odd";
+    }
+
+    private static long append(StompJournal journal, String body) throws Exception {
+        return append(journal, "/queue/" + body, body);
+    }
+
+    private static long append(StompJournal journal, String destination, String body) throws Exception {
+        try (FullStompFrame frame = new DefaultFullStompFrame(StompCommand.SEND,
+                preferredAllocator().copyOf(body.getBytes(UTF_8)))) {
+            frame.headers().set(StompHeaders.DESTINATION, destination);
+            Future<Long> future = journal.append(ImmediateEventExecutor.INSTANCE, frame);
+            assertThat(frame.payload().readableBytes()).isEqualTo(body.length());
+            return future.asStage().get();
+        }
+    }
+
+    private static List<String> replay(StompJournal journal, long fromSequence) throws Exception {
+        List<String> frames = new ArrayList<>();
+        journal.replay(fromSequence, (sequence, frame) -> record(frames, sequence, frame));
+        return frames;
+    }
+
+    private static List<String> replay(StompJournal journal, String destination, long fromSequence)
+            throws Exception {
+        List<String> frames = new ArrayList<>();
+        journal.replay(destination, fromSequence, (sequence, frame) -> record(frames, sequence, frame));
+        return frames;
+    }
+
+    private static void record(List<String> frames, long sequence, FullStompFrame frame) {
+        try (frame) {
+            frames.add(sequence + ":" + frame.headers().getAsString(StompHeaders.DESTINATION) + ':' +
+                    frame.payload().toString(UTF_8));
+        }
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> StompJournalSegment.parseFirstSequence(file) >= 0).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> indexFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory.resolve(StompJournal.INDEX_DIRECTORY))) {
+            return files.filter(file -> file.toString().endsWith(StompJournalIndex.SUFFIX))
+                    .collect(Collectors.toList());
+        }
+    }
+}